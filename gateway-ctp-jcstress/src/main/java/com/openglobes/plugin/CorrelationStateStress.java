@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2021 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.plugin;
+
+import com.openglobes.core.GatewayRuntimeException;
+import com.openglobes.core.trader.Request;
+import org.openjdk.jcstress.annotations.*;
+import org.openjdk.jcstress.infra.results.II_Result;
+import org.openjdk.jcstress.infra.results.I_Result;
+import org.openjdk.jcstress.infra.results.ZZ_Result;
+
+import static org.openjdk.jcstress.annotations.Expect.*;
+
+/**
+ * Interleavings of the sending thread and the callback thread on
+ * {@link CorrelationState}.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+public class CorrelationStateStress {
+
+    private static final String DAY = "20210810";
+    private static final String NEXT_DAY = "20210811";
+    private static final Long ORDER_ID = 1L;
+    private static final String SYS_ID = "      123456";
+    private static final CorrelationState.OrderRef REF = new CorrelationState.OrderRef(1, 1, "1");
+
+    private static Request request() {
+        var r = new Request();
+        r.setOrderId(ORDER_ID);
+        return r;
+    }
+
+    private static CorrelationState inserting() {
+        var s = new CorrelationState(new GatewayMetrics(null));
+        s.rollover(DAY);
+        return s;
+    }
+
+    private static CorrelationState inserted() {
+        var s = inserting();
+        s.saveRequest(request());
+        s.saveOrderRef(REF, ORDER_ID);
+        return s;
+    }
+
+    /**
+     * A cancel looks up the order system ID while the order's return records
+     * it. The cancel either finds the ID or goes by the order reference, and
+     * never sees another order's ID.
+     */
+    @JCStressTest
+    @Outcome(id = "1", expect = ACCEPTABLE, desc = "Cancel after the system ID is recorded.")
+    @Outcome(id = "0", expect = ACCEPTABLE, desc = "Cancel before the system ID is recorded, by order reference.")
+    @Outcome(expect = FORBIDDEN, desc = "Cancel sees a wrong system ID.")
+    @State
+    public static class CancelVsSysId {
+
+        private final CorrelationState state = inserted();
+
+        @Actor
+        public void callback() {
+            state.setOrderSysId(SYS_ID, REF);
+        }
+
+        @Actor
+        public void cancel(I_Result r) {
+            var sysId = state.findOrderSysId(ORDER_ID);
+            r.r1 = sysId == null ? 0 : SYS_ID.equals(sysId) ? 1 : -1;
+        }
+    }
+
+    /**
+     * An order action error looks up the order by system ID, and then the
+     * system ID by order, while the order's return records both.
+     */
+    @JCStressTest
+    @Outcome(id = "true, true", expect = ACCEPTABLE, desc = "Both mappings are seen.")
+    @Outcome(id = "false, false", expect = ACCEPTABLE, desc = "Neither mapping is seen.")
+    @Outcome(id = "false, true", expect = ACCEPTABLE_INTERESTING,
+             desc = "Order not found by its system ID, but the system ID is found by the order.")
+    @Outcome(id = "true, false", expect = FORBIDDEN, desc = "Reverse mapping is lost.")
+    @State
+    public static class SysIdMappings {
+
+        private final CorrelationState state = inserted();
+
+        @Actor
+        public void callback() {
+            state.setOrderSysId(SYS_ID, REF);
+        }
+
+        @Actor
+        public void lookup(ZZ_Result r) {
+            r.r1 = state.findOrderIdBySysId(SYS_ID) != null;
+            r.r2 = state.findOrderSysId(ORDER_ID) != null;
+        }
+    }
+
+    /**
+     * Trading day rolls over while an order is being inserted. The last
+     * day's generation stays readable, so both mappings of the order are
+     * found wherever the rollover falls.
+     */
+    @JCStressTest
+    @Outcome(id = "1, 1", expect = ACCEPTABLE, desc = "Both mappings of the order are found.")
+    @Outcome(expect = FORBIDDEN, desc = "Rollover loses a mapping of the order.")
+    @State
+    public static class RolloverVsInsert {
+
+        private final CorrelationState state = inserting();
+
+        @Actor
+        public void insert() {
+            state.saveRequest(request());
+            state.saveOrderRef(REF, ORDER_ID);
+        }
+
+        @Actor
+        public void rollover() {
+            state.rollover(NEXT_DAY);
+        }
+
+        @Arbiter
+        public void arbiter(II_Result r) {
+            r.r1 = found(() -> state.getRequestByOrderId(ORDER_ID));
+            r.r2 = found(() -> state.getOrderRefByOrderId(ORDER_ID));
+        }
+
+        private int found(Runnable lookup) {
+            try {
+                lookup.run();
+                return 1;
+            } catch (GatewayRuntimeException ex) {
+                return 0;
+            }
+        }
+    }
+}
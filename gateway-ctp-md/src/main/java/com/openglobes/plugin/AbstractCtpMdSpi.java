@@ -0,0 +1,290 @@
+/*
+ * Copyright (C) 2021 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.plugin;
+
+import com.openglobes.core.GatewayRuntimeException;
+import com.openglobes.core.ServiceRuntimeStatus;
+import org.ctp4j.*;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+public class AbstractCtpMdSpi extends CThostFtdcMdSpi {
+
+    private static final long SAMPLE_NANOS = 1_000_000_000L;
+
+    private final Collection<String> addrs;
+    private final ExchangeClock clock;
+    private final SymbolTable exchanges;
+    private final CtpMdGateway gate;
+    private final SymbolTable instruments;
+    private final AtomicInteger requestId;
+    private final TickRing ring;
+    private final AtomicInteger status;
+    private final Set<String> subscribed;
+    private final LongAdder ticks;
+    private String brokerId;
+    private long[] sampled;
+    private String flowPath;
+    private ITickHandler hnd;
+    private String password;
+    private String userId;
+
+    AbstractCtpMdSpi(CtpMdGateway gateway, SymbolTable instruments, ExchangeClock clock, int capacity) {
+        gate = gateway;
+        this.instruments = instruments;
+        this.clock = clock;
+        addrs = new ConcurrentLinkedQueue<>();
+        exchanges = new SymbolTable(16);
+        requestId = new AtomicInteger(0);
+        ring = new TickRing(capacity);
+        status = new AtomicInteger(GatewayStatus.NEVER_CONNECTED);
+        subscribed = ConcurrentHashMap.newKeySet();
+        ticks = new LongAdder();
+        sampled = new long[16];
+    }
+
+    private static double price(double v) {
+        /*
+         * CTP fills prices it doesn't have with the largest double.
+         */
+        return v == Double.MAX_VALUE ? Double.NaN : v;
+    }
+
+    private int nextRequestId() {
+        return requestId.incrementAndGet();
+    }
+
+    int apiLogin() {
+        var r = new CThostFtdcReqUserLoginField();
+        r.setBrokerID(getBrokerId());
+        r.setUserID(getUserId());
+        r.setPassword(getPassword());
+        return gate.getApi().ReqUserLogin(r, nextRequestId());
+    }
+
+    int apiLogout() {
+        var r = new CThostFtdcUserLogoutField();
+        r.setBrokerID(getBrokerId());
+        r.setUserID(getUserId());
+        return gate.getApi().ReqUserLogout(r, nextRequestId());
+    }
+
+    int subscribe(Collection<String> instrumentIds) {
+        var ids = new String[instrumentIds.size()];
+        int n = 0;
+        for (var id : instrumentIds) {
+            instruments.intern(id);
+            subscribed.add(id);
+            ids[n++] = id;
+        }
+        return isLogin() ? gate.getApi().SubscribeMarketData(ids, n) : 0;
+    }
+
+    int unsubscribe(Collection<String> instrumentIds) {
+        subscribed.removeAll(instrumentIds);
+        var ids = instrumentIds.toArray(new String[0]);
+        return isLogin() ? gate.getApi().UnSubscribeMarketData(ids, ids.length) : 0;
+    }
+
+    /**
+     * Subscribes again after login, since the front forgets subscriptions of
+     * a session.
+     */
+    void resubscribe() {
+        if (subscribed.isEmpty()) {
+            return;
+        }
+        var ids = subscribed.toArray(new String[0]);
+        var r = gate.getApi().SubscribeMarketData(ids, ids.length);
+        if (r != 0) {
+            doError(new GatewayRuntimeException(r, "Sending subscription failed."));
+        }
+    }
+
+    void doTick(CThostFtdcDepthMarketDataField f) {
+        ticks.increment();
+        var tick = ring.claim();
+        if (tick == null) {
+            return;
+        }
+        var instrumentId = f.getInstrumentID();
+        var h = instruments.handleOf(instrumentId);
+        tick.instrument = h == SymbolTable.NO_HANDLE ? instruments.intern(instrumentId) : h;
+        /*
+         * Some fronts leave exchange ID blank, then the broker's clock is
+         * used.
+         */
+        var exchangeId = f.getExchangeID();
+        if (exchangeId == null || exchangeId.isEmpty()) {
+            exchangeId = null;
+            tick.exchange = SymbolTable.NO_HANDLE;
+        } else {
+            tick.exchange = exchanges.intern(exchangeId);
+        }
+        var time = f.getUpdateTime();
+        var millis = f.getUpdateMillisec();
+        var now = clock.nowNanos();
+        if (exchangeId != null) {
+            sample(tick.exchange, exchangeId, time, millis, now);
+        }
+        tick.exchangeNanos = clock.toEpochNanos(exchangeId, f.getActionDay(), time) + millis * 1_000_000L;
+        tick.receiveNanos = now;
+        tick.tradingDay = ExchangeClock.parseDay(f.getTradingDay());
+        tick.lastPrice = price(f.getLastPrice());
+        tick.openPrice = price(f.getOpenPrice());
+        tick.highestPrice = price(f.getHighestPrice());
+        tick.lowestPrice = price(f.getLowestPrice());
+        tick.preSettlementPrice = price(f.getPreSettlementPrice());
+        tick.preClosePrice = price(f.getPreClosePrice());
+        tick.upperLimitPrice = price(f.getUpperLimitPrice());
+        tick.lowerLimitPrice = price(f.getLowerLimitPrice());
+        tick.averagePrice = price(f.getAveragePrice());
+        tick.volume = f.getVolume();
+        tick.turnover = price(f.getTurnover());
+        tick.openInterest = price(f.getOpenInterest());
+        tick.bidPrice = price(f.getBidPrice1());
+        tick.bidVolume = f.getBidVolume1();
+        tick.askPrice = price(f.getAskPrice1());
+        tick.askVolume = f.getAskVolume1();
+        ring.publish();
+    }
+
+    /*
+     * Ticks come much faster than the clock drifts, so an exchange is sampled
+     * at most once a second.
+     */
+    private void sample(int exchange, String exchangeId, String time, int millis, long now) {
+        if (exchange >= sampled.length) {
+            sampled = Arrays.copyOf(sampled, Math.max(exchange + 1, sampled.length * 2));
+        }
+        var last = sampled[exchange];
+        if (last == 0 || now - last >= SAMPLE_NANOS) {
+            sampled[exchange] = now;
+            clock.sample(exchangeId, time, millis);
+        }
+    }
+
+    void doError(CThostFtdcRspInfoField info) {
+        doError(new GatewayRuntimeException(info.getErrorID(), info.getErrorMsg()));
+    }
+
+    void doError(GatewayRuntimeException error) {
+        var h = hnd;
+        if (h != null) {
+            h.onError(error);
+        }
+    }
+
+    void setLogin(CThostFtdcRspUserLoginField rsp) {
+        clock.onLogin(rsp);
+    }
+
+    boolean isLogin() {
+        return status.get() == GatewayStatus.LOGIN;
+    }
+
+    int getStatus() {
+        return status.get();
+    }
+
+    void setStatus(int status, String message) {
+        this.status.set(status);
+        var h = hnd;
+        if (h != null) {
+            h.onStatusChange(new ServiceRuntimeStatus(status, message));
+        }
+    }
+
+    ITickHandler getHandler() {
+        return hnd;
+    }
+
+    void setHandler(ITickHandler handler) {
+        hnd = handler;
+    }
+
+    String getBrokerId() {
+        return brokerId;
+    }
+
+    void setBrokerId(String brokerId) {
+        this.brokerId = brokerId;
+    }
+
+    String getFlowPath() {
+        return flowPath;
+    }
+
+    void setFlowPath(String flowPath) {
+        this.flowPath = flowPath;
+    }
+
+    Collection<String> getFronts() {
+        return new LinkedList<>(addrs);
+    }
+
+    void addFront(String front) {
+        addrs.add(front);
+    }
+
+    String getPassword() {
+        return password;
+    }
+
+    void setPassword(String password) {
+        this.password = password;
+    }
+
+    String getUserId() {
+        return userId;
+    }
+
+    void setUserId(String userId) {
+        this.userId = userId;
+    }
+
+    SymbolTable getInstruments() {
+        return instruments;
+    }
+
+    SymbolTable getExchanges() {
+        return exchanges;
+    }
+
+    ExchangeClock getClock() {
+        return clock;
+    }
+
+    TickRing getRing() {
+        return ring;
+    }
+
+    long getTickCount() {
+        return ticks.sum();
+    }
+}
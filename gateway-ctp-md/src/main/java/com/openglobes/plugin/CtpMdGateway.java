@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2021 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.plugin;
+
+import com.openglobes.core.GatewayRuntimeException;
+import org.ctp4j.CThostFtdcMdApi;
+
+import java.io.IOException;
+import java.util.Collection;
+
+/**
+ * Market data gateway over the CTP market data API.
+ * <p>
+ * Depth market data is copied into pre-allocated {@link Tick}s in a
+ * {@link TickRing} on the callback thread. With a handler set, a dispatch
+ * thread hands the ticks to it, otherwise the strategy polls
+ * {@link #getTicks()} itself. Instruments are identified by handles of a
+ * {@link SymbolTable} that may be shared with a {@link CtpTraderGateway}.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+public class CtpMdGateway implements Runnable {
+
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+    private static final int BATCH = 64;
+    private final CtpMdSpi spi;
+    private CThostFtdcMdApi api;
+    private Thread dispatchThd;
+    private IIdleStrategy idle;
+    private volatile boolean running;
+
+    public CtpMdGateway() {
+        this(new SymbolTable(1024), new ExchangeClock(), DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates gateway sharing instrument handles and exchange time with a
+     * trader gateway.
+     *
+     * @param trader trader gateway.
+     */
+    public CtpMdGateway(CtpTraderGateway trader) {
+        this(trader.getInstruments(), trader.getClock(), DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param instruments instrument table.
+     * @param clock       exchange clock.
+     * @param capacity    number of ticks in the ring.
+     */
+    public CtpMdGateway(SymbolTable instruments, ExchangeClock clock, int capacity) {
+        spi = new CtpMdSpi(this, instruments, clock, capacity);
+        idle = new SpinThenParkIdleStrategy();
+    }
+
+    public void start() {
+        try {
+            CtpNativeBootstrap.install();
+        } catch (IOException ex) {
+            throw new GatewayRuntimeException(GatewayStatus.NATIVE_LOAD_FAIL,
+                                              "Loading native libraries failed.", ex);
+        }
+        if (spi.getHandler() != null) {
+            running = true;
+            dispatchThd = new Thread(this, "ctp-md-dispatch");
+            dispatchThd.setDaemon(true);
+            dispatchThd.start();
+        }
+        api = CThostFtdcMdApi.CreateFtdcMdApi(spi.getFlowPath());
+        api.RegisterSpi(spi);
+        spi.getFronts().forEach(f -> {
+            api.RegisterFront(f);
+        });
+        api.Init();
+    }
+
+    public void stop() {
+        if (spi.isLogin()) {
+            int r = spi.apiLogout();
+            if (r != 0) {
+                spi.setStatus(r, "Sending logout request failed.");
+            }
+        }
+        api.Release();
+        running = false;
+        if (dispatchThd != null) {
+            try {
+                dispatchThd.join(1000);
+            } catch (InterruptedException ignored) {
+                Thread.currentThread().interrupt();
+            }
+            dispatchThd = null;
+        }
+    }
+
+    /**
+     * Subscribes instruments in one request. Subscriptions are kept and sent
+     * again after each login.
+     *
+     * @param instrumentIds instrument IDs.
+     */
+    public void subscribe(Collection<String> instrumentIds) {
+        var r = spi.subscribe(instrumentIds);
+        if (r != 0) {
+            spi.doError(new GatewayRuntimeException(r, "Sending subscription failed."));
+        }
+    }
+
+    /**
+     * Unsubscribes instruments in one request.
+     *
+     * @param instrumentIds instrument IDs.
+     */
+    public void unsubscribe(Collection<String> instrumentIds) {
+        var r = spi.unsubscribe(instrumentIds);
+        if (r != 0) {
+            spi.doError(new GatewayRuntimeException(r, "Sending unsubscription failed."));
+        }
+    }
+
+    @Override
+    public void run() {
+        var ring = spi.getRing();
+        while (running) {
+            int n;
+            try {
+                n = ring.poll(spi.getHandler(), BATCH);
+            } catch (Throwable th) {
+                n = 1;
+                spi.doError(new GatewayRuntimeException(GatewayStatus.INTERNAL_UNCAUGHT, th.getMessage(), th));
+            }
+            idle.idle(n);
+        }
+    }
+
+    /**
+     * @param handler handler of ticks, errors and status changes. Must be set
+     *                before {@link #start()} for a dispatch thread.
+     */
+    public void setHandler(ITickHandler handler) {
+        spi.setHandler(handler);
+    }
+
+    /**
+     * @param idle idle strategy of the dispatch thread.
+     */
+    public void setIdleStrategy(IIdleStrategy idle) {
+        this.idle = idle;
+    }
+
+    public void setUserId(String userId) {
+        spi.setUserId(userId);
+    }
+
+    public void setBrokerId(String brokerId) {
+        spi.setBrokerId(brokerId);
+    }
+
+    public void setPassword(String password) {
+        spi.setPassword(password);
+    }
+
+    public void setFlowPath(String flowPath) {
+        spi.setFlowPath(flowPath);
+    }
+
+    public void addFront(String addr) {
+        spi.addFront(addr);
+    }
+
+    /**
+     * @return tick ring, polled by the strategy if no handler is set.
+     */
+    public TickRing getTicks() {
+        return spi.getRing();
+    }
+
+    public SymbolTable getInstruments() {
+        return spi.getInstruments();
+    }
+
+    public SymbolTable getExchanges() {
+        return spi.getExchanges();
+    }
+
+    public ExchangeClock getClock() {
+        return spi.getClock();
+    }
+
+    /**
+     * @return number of market data received, including dropped ones.
+     */
+    public long getTickCount() {
+        return spi.getTickCount();
+    }
+
+    public int getStatus() {
+        return spi.getStatus();
+    }
+
+    CThostFtdcMdApi getApi() {
+        return api;
+    }
+
+    CtpMdSpi getSpi() {
+        return spi;
+    }
+}
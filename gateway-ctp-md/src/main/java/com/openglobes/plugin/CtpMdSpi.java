@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2021 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.plugin;
+
+import org.ctp4j.*;
+
+/**
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+class CtpMdSpi extends AbstractCtpMdSpi {
+
+    CtpMdSpi(CtpMdGateway gateway, SymbolTable instruments, ExchangeClock clock, int capacity) {
+        super(gateway, instruments, clock, capacity);
+    }
+
+    @Override
+    public void OnFrontConnected() {
+        setStatus(GatewayStatus.CONNECTED, "Connected.");
+        var r = apiLogin();
+        if (r != 0) {
+            setStatus(GatewayStatus.LOGIN_FAIL, "Sending login request failed.");
+        }
+    }
+
+    @Override
+    public void OnFrontDisconnected(int nReason) {
+        setStatus(GatewayStatus.DISCONNECTED, "Disconnected(" + nReason + ").");
+    }
+
+    @Override
+    public void OnRspError(CThostFtdcRspInfoField info,
+                           int requestId,
+                           boolean isLast) {
+        setStatus(GatewayStatus.UNKNOWN_ERROR, info.getErrorMsg());
+        doError(info);
+    }
+
+    @Override
+    public void OnRspSubMarketData(CThostFtdcSpecificInstrumentField rsp,
+                                   CThostFtdcRspInfoField info,
+                                   int requestId,
+                                   boolean isLast) {
+        if (info != null && info.getErrorID() != 0) {
+            doError(info);
+        }
+    }
+
+    @Override
+    public void OnRspUnSubMarketData(CThostFtdcSpecificInstrumentField rsp,
+                                     CThostFtdcRspInfoField info,
+                                     int requestId,
+                                     boolean isLast) {
+        if (info != null && info.getErrorID() != 0) {
+            doError(info);
+        }
+    }
+
+    @Override
+    public void OnRspUserLogin(CThostFtdcRspUserLoginField rsp,
+                               CThostFtdcRspInfoField info,
+                               int requestId,
+                               boolean isLast) {
+        if (info == null) {
+            return;
+        }
+        if (info.getErrorID() != 0) {
+            setStatus(GatewayStatus.LOGIN_FAIL, info.getErrorMsg());
+            doError(info);
+        } else {
+            setLogin(rsp);
+            setStatus(GatewayStatus.LOGIN, info.getErrorMsg());
+            resubscribe();
+        }
+    }
+
+    @Override
+    public void OnRspUserLogout(CThostFtdcUserLogoutField rsp,
+                                CThostFtdcRspInfoField info,
+                                int requestId,
+                                boolean isLast) {
+        if (info == null) {
+            return;
+        }
+        if (info.getErrorID() != 0) {
+            setStatus(GatewayStatus.LOGOUT_FAIL, info.getErrorMsg());
+            doError(info);
+        } else {
+            setStatus(GatewayStatus.LOGOUT, info.getErrorMsg());
+        }
+    }
+
+    @Override
+    public void OnRtnDepthMarketData(CThostFtdcDepthMarketDataField data) {
+        doTick(data);
+    }
+}
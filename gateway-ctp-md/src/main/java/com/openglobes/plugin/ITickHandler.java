@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2021 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.plugin;
+
+import com.openglobes.core.GatewayRuntimeException;
+import com.openglobes.core.ServiceRuntimeStatus;
+
+/**
+ * Receives market data of a {@link CtpMdGateway}.
+ * <p>
+ * Ticks come on the gateway's dispatch thread, and errors and status changes
+ * on the CTP callback thread.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+public interface ITickHandler {
+
+    /**
+     * @param tick tick, only valid in the call.
+     */
+    void onTick(Tick tick);
+
+    void onError(GatewayRuntimeException error);
+
+    void onStatusChange(ServiceRuntimeStatus status);
+}
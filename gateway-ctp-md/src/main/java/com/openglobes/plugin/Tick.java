@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2021 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.plugin;
+
+/**
+ * Depth market data copied into primitives.
+ * <p>
+ * Ticks are owned by a {@link TickRing} and reused, so a tick passed to a
+ * {@link ITickHandler} is only valid in the call. Copy what is needed after
+ * the call returns.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+public class Tick {
+
+    long sequence;
+    int instrument;
+    int exchange;
+    int tradingDay;
+    long exchangeNanos;
+    long receiveNanos;
+    double lastPrice;
+    double openPrice;
+    double highestPrice;
+    double lowestPrice;
+    double preSettlementPrice;
+    double preClosePrice;
+    double upperLimitPrice;
+    double lowerLimitPrice;
+    double averagePrice;
+    long volume;
+    double turnover;
+    double openInterest;
+    double bidPrice;
+    int bidVolume;
+    double askPrice;
+    int askVolume;
+
+    Tick() {
+    }
+
+    /**
+     * @return sequence of the tick in the gateway, starting from zero.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * @return instrument handle in the gateway's instrument table.
+     */
+    public int getInstrument() {
+        return instrument;
+    }
+
+    /**
+     * @return exchange handle in the gateway's exchange table, or
+     * {@link SymbolTable#NO_HANDLE} if the front doesn't send it.
+     */
+    public int getExchange() {
+        return exchange;
+    }
+
+    /**
+     * @return trading day as {@code yyyyMMdd}.
+     */
+    public int getTradingDay() {
+        return tradingDay;
+    }
+
+    /**
+     * @return exchange update time in epoch nanoseconds.
+     */
+    public long getExchangeNanos() {
+        return exchangeNanos;
+    }
+
+    /**
+     * @return local receive time in epoch nanoseconds.
+     */
+    public long getReceiveNanos() {
+        return receiveNanos;
+    }
+
+    public double getLastPrice() {
+        return lastPrice;
+    }
+
+    public double getOpenPrice() {
+        return openPrice;
+    }
+
+    public double getHighestPrice() {
+        return highestPrice;
+    }
+
+    public double getLowestPrice() {
+        return lowestPrice;
+    }
+
+    public double getPreSettlementPrice() {
+        return preSettlementPrice;
+    }
+
+    public double getPreClosePrice() {
+        return preClosePrice;
+    }
+
+    public double getUpperLimitPrice() {
+        return upperLimitPrice;
+    }
+
+    public double getLowerLimitPrice() {
+        return lowerLimitPrice;
+    }
+
+    public double getAveragePrice() {
+        return averagePrice;
+    }
+
+    public long getVolume() {
+        return volume;
+    }
+
+    public double getTurnover() {
+        return turnover;
+    }
+
+    public double getOpenInterest() {
+        return openInterest;
+    }
+
+    public double getBidPrice() {
+        return bidPrice;
+    }
+
+    public int getBidVolume() {
+        return bidVolume;
+    }
+
+    public double getAskPrice() {
+        return askPrice;
+    }
+
+    public int getAskVolume() {
+        return askVolume;
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2021 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.plugin;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Single producer, single consumer ring of pre-allocated ticks.
+ * <p>
+ * The CTP callback thread copies market data into the next free tick and
+ * publishes it. The consumer reads ticks in place and releases them. When
+ * the consumer falls behind by a whole ring, new ticks are dropped and
+ * counted rather than blocking the callback thread.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+public class TickRing {
+
+    private final LongAdder dropped;
+    private final AtomicLong head;
+    private final int mask;
+    private final AtomicLong tail;
+    private final Tick[] ticks;
+    private long cachedHead;
+
+    /**
+     * @param capacity number of ticks, rounded up to a power of two.
+     */
+    public TickRing(int capacity) {
+        var n = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        mask = n - 1;
+        ticks = new Tick[n];
+        for (int i = 0; i < n; ++i) {
+            ticks[i] = new Tick();
+        }
+        head = new AtomicLong();
+        tail = new AtomicLong();
+        dropped = new LongAdder();
+    }
+
+    /**
+     * Producer takes the next free tick.
+     *
+     * @return tick, or {@code null} if the ring is full.
+     */
+    Tick claim() {
+        var t = tail.get();
+        if (t - cachedHead > mask) {
+            cachedHead = head.get();
+            if (t - cachedHead > mask) {
+                dropped.increment();
+                return null;
+            }
+        }
+        var tick = ticks[(int) t & mask];
+        tick.sequence = t;
+        return tick;
+    }
+
+    /**
+     * Producer makes the claimed tick visible to the consumer.
+     */
+    void publish() {
+        tail.lazySet(tail.get() + 1);
+    }
+
+    /**
+     * Hands available ticks to a handler.
+     *
+     * @param handler tick handler.
+     * @param max     maximum number of ticks.
+     * @return number of ticks handled.
+     */
+    public int poll(ITickHandler handler, int max) {
+        var h = head.get();
+        var n = (int) Math.min(max, tail.get() - h);
+        for (int i = 0; i < n; ++i) {
+            try {
+                handler.onTick(ticks[(int) (h + i) & mask]);
+            } finally {
+                head.lazySet(h + i + 1);
+            }
+        }
+        return n;
+    }
+
+    /**
+     * @return number of ticks waiting for the consumer.
+     */
+    public int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * @return number of ticks dropped because the ring was full.
+     */
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2020-2021. Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.plugin;
+
+import com.openglobes.core.GatewayRuntimeException;
+import com.openglobes.core.ServiceRuntimeStatus;
+import org.ctp4j.CThostFtdcDepthMarketDataField;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.ZonedDateTime;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("CTP market data gateway")
+class CtpMdGatewayTest {
+
+    private final AtomicLong now = new AtomicLong(nanos("2021-08-09T21:00:01+08:00"));
+    private final ExchangeClock clock = new ExchangeClock(ExchangeClock.CHINA, now::get);
+
+    private static long nanos(String time) {
+        var t = ZonedDateTime.parse(time).toInstant();
+        return t.getEpochSecond() * 1_000_000_000L + t.getNano();
+    }
+
+    private static CThostFtdcDepthMarketDataField data(String instrumentId, double price, int volume) {
+        var f = new CThostFtdcDepthMarketDataField();
+        f.setInstrumentID(instrumentId);
+        f.setExchangeID("DCE");
+        f.setTradingDay("20210810");
+        f.setActionDay("20210810");
+        f.setUpdateTime("21:00:00");
+        f.setUpdateMillisec(500);
+        f.setLastPrice(price);
+        f.setVolume(volume);
+        f.setBidPrice1(price - 1);
+        f.setAskPrice1(Double.MAX_VALUE);
+        return f;
+    }
+
+    @Test
+    @DisplayName("Copies market data into ticks of the ring")
+    public void ticks() {
+        var gateway = new CtpMdGateway(new SymbolTable(), clock, 4);
+        clock.setTradingDay("20210810");
+        var spi = gateway.getSpi();
+        for (int i = 0; i < 6; ++i) {
+            spi.OnRtnDepthMarketData(data(i % 2 == 0 ? "c2109" : "m2109", 2650 + i, i));
+        }
+        assertEquals(6, gateway.getTickCount());
+        assertEquals(2, gateway.getTicks().getDroppedCount());
+        var c = new Collector(gateway.getInstruments());
+        assertEquals(4, gateway.getTicks().poll(c, Integer.MAX_VALUE));
+        assertEquals("c2109:2650.0/0 m2109:2651.0/1 c2109:2652.0/2 m2109:2653.0/3 ", c.text.toString());
+        assertEquals(nanos("2021-08-09T21:00:00.500+08:00"), c.last.getExchangeNanos());
+        assertEquals(20210810, c.last.getTradingDay());
+        assertTrue(Double.isNaN(c.last.getAskPrice()));
+        assertEquals(0, gateway.getTicks().size());
+    }
+
+    private static class Collector implements ITickHandler {
+
+        private final SymbolTable instruments;
+        private final StringBuilder text = new StringBuilder();
+        private Tick last;
+
+        Collector(SymbolTable instruments) {
+            this.instruments = instruments;
+        }
+
+        @Override
+        public void onTick(Tick tick) {
+            text.append(instruments.symbolOf(tick.getInstrument())).append(':').append(tick.getLastPrice())
+                .append('/').append(tick.getVolume()).append(' ');
+            last = tick;
+        }
+
+        @Override
+        public void onError(GatewayRuntimeException error) {
+        }
+
+        @Override
+        public void onStatusChange(ServiceRuntimeStatus status) {
+        }
+    }
+}
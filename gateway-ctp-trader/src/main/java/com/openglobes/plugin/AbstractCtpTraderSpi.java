@@ -22,17 +22,18 @@ import com.openglobes.core.trader.*;
 import com.openglobes.core.utils.Utils;
 import org.ctp4j.*;
 
-import java.time.LocalDate;
-import java.time.LocalTime;
-import java.time.ZoneId;
+import java.io.File;
 import java.time.ZonedDateTime;
-import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.LinkedList;
-import java.util.Map;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntSupplier;
 
 /**
  * @author Hongbao Chen
@@ -47,19 +48,30 @@ public class AbstractCtpTraderSpi extends CThostFtdcTraderSpi {
     public static final char THOST_FTDC_OPT_LimitPrice = '2';
     public static final char THOST_FTDC_TC_GFD = '3';
     public static final char THOST_FTDC_VC_AV = '1';
+    private static final int EXPECTED_TRADES = 100_000;
+    private static final long QUERY_INTERVAL_MILLIS = 1000;
+    private static final int QUERY_RETRIES = 10;
     private final AtomicInteger curOrderRef;
-    private final DateTimeFormatter dayFormatter;
+    private final ExchangeClock clock;
     private final CtpTraderGateway gate;
     private final TraderGatewayInfo info;
-    private final Map<Long, String> orderIdSysId;
-    private final Map<String, Long> refOrderId;
+    private final GatewayMetrics metrics;
+    private final CorrelationState orders;
     private final AtomicInteger requestId;
-    private final Map<Long, Request> requests;
     private final AtomicInteger status;
-    private final Map<String, Long> sysIdOrderId;
-    private final DateTimeFormatter timeFormatter;
     private final Collection<String> addrs;
+    private final SymbolTable exchanges;
+    private final SymbolTable instruments;
+    private final InstrumentSpecs specs;
+    private final ScheduledExecutorService queries;
+    private volatile CThostFtdcTraderApi api;
+    private volatile int frontId;
+    private volatile int sessionId;
+    private volatile long lostNanos;
+    private volatile CThostFtdcInputOrderField[] templates;
+    private volatile TradeDeduplicator trades;
     private ITraderGatewayHandler hnd;
+    private boolean loadingPositions;
     private String userId;
     private String brokerId;
     private String pwd;
@@ -100,44 +112,62 @@ public class AbstractCtpTraderSpi extends CThostFtdcTraderSpi {
         gate = gateway;
         addrs = new LinkedList<>();
         status = new AtomicInteger(GatewayStatus.NEVER_CONNECTED);
-        refOrderId = new ConcurrentHashMap<>(1024);
-        orderIdSysId = new ConcurrentHashMap<>(1024);
-        sysIdOrderId = new ConcurrentHashMap<>(1024);
-        curOrderRef = new AtomicInteger(0);
         requestId = new AtomicInteger(0);
-        requests = new ConcurrentHashMap<>(1024);
-        dayFormatter = DateTimeFormatter.ofPattern("yyyyMMdd");
-        timeFormatter = DateTimeFormatter.ofPattern("HH:mm:ss");
-    }
-
-    private void clearObsoletedCache() {
-        requests.clear();
-        refOrderId.clear();
-        orderIdSysId.clear();
-        sysIdOrderId.clear();
+        clock = new ExchangeClock();
+        exchanges = new SymbolTable(16);
+        instruments = new SymbolTable(1024);
+        templates = new CThostFtdcInputOrderField[1024];
+        specs = new InstrumentSpecs(instruments);
+        queries = Executors.newSingleThreadScheduledExecutor(r -> {
+            var t = new Thread(r, "ctp-query");
+            t.setDaemon(true);
+            return t;
+        });
+        trades = new TradeDeduplicator(EXPECTED_TRADES);
+        metrics = new GatewayMetrics(this);
+        orders = new CorrelationState(metrics);
+        curOrderRef = new AtomicInteger(0);
     }
 
-    private Request getRequestByOrderId(Long orderId) {
-        if (!requests.containsKey(orderId)) {
-            throw new GatewayRuntimeException(GatewayStatus.INTERNAL_MISSED,
-                                              "No request for order ID " + orderId + ".");
-        }
-        return requests.get(orderId);
+    /**
+     * Creates a standby session of the same account, sharing the primary
+     * session's correlation state, instruments, trades and metrics. Only the
+     * order references, counted by each session, are its own.
+     *
+     * @param gateway gateway.
+     * @param primary primary session.
+     */
+    AbstractCtpTraderSpi(CtpTraderGateway gateway, AbstractCtpTraderSpi primary) {
+        gate = gateway;
+        addrs = new LinkedList<>();
+        status = new AtomicInteger(GatewayStatus.NEVER_CONNECTED);
+        requestId = new AtomicInteger(0);
+        curOrderRef = new AtomicInteger(0);
+        info = primary.info;
+        clock = primary.clock;
+        exchanges = primary.exchanges;
+        instruments = primary.instruments;
+        templates = primary.templates;
+        specs = primary.specs;
+        queries = primary.queries;
+        trades = primary.trades;
+        metrics = primary.metrics;
+        orders = primary.orders;
+        userId = primary.userId;
+        brokerId = primary.brokerId;
+        pwd = primary.pwd;
+        appId = primary.appId;
+        authCode = primary.authCode;
+        /*
+         * The API locks its flow files, so sessions can't share a directory.
+         */
+        flowPath = (primary.flowPath == null ? "" : primary.flowPath) + "standby" + File.separator;
     }
 
     private int nextRequestId() {
         return requestId.incrementAndGet();
     }
 
-    private void saveRequest(Request request) {
-        if (requests.containsKey(request.getOrderId())) {
-            throw new GatewayRuntimeException(GatewayStatus.INTERNAL_COLLISION,
-                                              "Duplicated order ID " + request.getOrderId() + ".");
-        }
-        requests.put(request.getOrderId(),
-                     request);
-    }
-
     int apiAuthenticate() {
         var r = new CThostFtdcReqAuthenticateField();
         r.setAppID(getAppId());
@@ -145,7 +175,7 @@ public class AbstractCtpTraderSpi extends CThostFtdcTraderSpi {
         r.setBrokerID(getBrokerId());
         r.setUserID(getUserId());
         r.setUserProductInfo("COREBOT");
-        return gate.getApi().ReqAuthenticate(r, nextRequestId());
+        return api.ReqAuthenticate(r, nextRequestId());
     }
 
     int apiConfirmSettlement() {
@@ -157,7 +187,7 @@ public class AbstractCtpTraderSpi extends CThostFtdcTraderSpi {
         r.setCurrencyID("CNY");
         r.setInvestorID(getUserId());
         r.setSettlementID(0);
-        return gate.getApi().ReqSettlementInfoConfirm(r, nextRequestId());
+        return api.ReqSettlementInfoConfirm(r, nextRequestId());
     }
 
     int apiLogin() {
@@ -174,22 +204,143 @@ public class AbstractCtpTraderSpi extends CThostFtdcTraderSpi {
         r.setTradingDay("");
         r.setUserID(getUserId());
         r.setUserProductInfo("");
-        return gate.getApi().ReqUserLogin(r, nextRequestId());
+        return api.ReqUserLogin(r, nextRequestId());
     }
 
     int apiLogout() {
         var r = new CThostFtdcUserLogoutField();
         r.setBrokerID(getBrokerId());
         r.setUserID(getUserId());
-        return gate.getApi().ReqUserLogout(r, nextRequestId());
+        return api.ReqUserLogout(r, nextRequestId());
+    }
+
+    int apiQueryInstrument() {
+        var r = new CThostFtdcQryInstrumentField();
+        r.setExchangeID("");
+        r.setInstrumentID("");
+        return api.ReqQryInstrument(r, nextRequestId());
+    }
+
+    int apiQueryDepthMarketData() {
+        var r = new CThostFtdcQryDepthMarketDataField();
+        r.setExchangeID("");
+        r.setInstrumentID("");
+        return api.ReqQryDepthMarketData(r, nextRequestId());
+    }
+
+    int apiQueryPosition() {
+        var r = new CThostFtdcQryInvestorPositionField();
+        r.setBrokerID(getBrokerId());
+        r.setExchangeID("");
+        r.setInstrumentID("");
+        r.setInvestorID(getUserId());
+        return api.ReqQryInvestorPosition(r, nextRequestId());
+    }
+
+    /**
+     * Sends a query after the query interval, and retries it while the API
+     * refuses it for flow control.
+     */
+    void scheduleQuery(IntSupplier query, String name) {
+        scheduleQuery(query, name, 1);
+    }
+
+    private void scheduleQuery(IntSupplier query, String name, int tries) {
+        try {
+            queries.schedule(() -> {
+                var r = query.getAsInt();
+                if (r == 0) {
+                    return;
+                }
+                if (tries < QUERY_RETRIES) {
+                    scheduleQuery(query, name, tries + 1);
+                } else {
+                    try {
+                        gate.getHandler().onError(new GatewayRuntimeException(
+                                GatewayStatus.QUERY_FAIL, "Querying " + name + " failed(" + r + ")."));
+                    } catch (Throwable ignored) {
+                    }
+                }
+            }, QUERY_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException ignored) {
+            /*
+             * Gateway is stopped.
+             */
+        }
+    }
+
+    void closeQueries() {
+        queries.shutdownNow();
+    }
+
+    void doInstrument(CThostFtdcInstrumentField rsp, boolean isLast) {
+        if (rsp != null) {
+            specs.update(rsp);
+        }
+        if (isLast) {
+            scheduleQuery(this::apiQueryDepthMarketData, "depth market data");
+        }
+    }
+
+    void doDepthMarketData(CThostFtdcDepthMarketDataField rsp, boolean isLast) {
+        if (rsp != null) {
+            specs.update(rsp);
+        }
+        if (isLast) {
+            scheduleQuery(this::apiQueryPosition, "positions");
+        }
+    }
+
+    void doPosition(CThostFtdcInvestorPositionField rsp, boolean isLast) {
+        /*
+         * Positions are cleared on the first record of a query, not when the
+         * query is sent, so a replay clears them in the same order.
+         */
+        if (!loadingPositions) {
+            loadingPositions = true;
+            specs.clearPositions();
+        }
+        if (rsp != null) {
+            specs.update(rsp);
+        }
+        if (isLast) {
+            loadingPositions = false;
+            specs.positionsLoaded();
+        }
+    }
+
+    void doInstrumentStatus(CThostFtdcInstrumentStatusField status) {
+        specs.update(status);
     }
 
     int deleteOrder(Request request) {
+        var rec = gate.getRecorder();
+        if (rec == null) {
+            return sendOrderAction(request);
+        }
+        var seq = rec.beginRequest(gate.sessionOf(this), RecordType.REQ_ORDER_ACTION, request);
+        var ret = RecordCodec.NULL_INT;
+        try {
+            ret = sendOrderAction(request);
+            return ret;
+        } finally {
+            rec.endRequest(seq, ret);
+        }
+    }
+
+    private int sendOrderAction(Request request) {
         CThostFtdcInputOrderActionField r = new CThostFtdcInputOrderActionField();
         r.setActionFlag((char) THOST_FTDC_AF_Delete);
         r.setBrokerID(getBrokerId());
         r.setExchangeID(request.getExchangeId());
-        r.setFrontID(0);
+        /*
+         * Order is identified by its system ID if the exchange has given one,
+         * or else by its session and order reference. The latter also works
+         * for orders sent by another session of the account.
+         */
+        var ref = orders.getOrderRefByOrderId(request.getOrderId());
+        var sysId = orders.findOrderSysId(request.getOrderId());
+        r.setFrontID(ref.frontId);
         r.setIPAddress("");
         r.setInstrumentID(request.getInstrumentId());
         r.setInvestUnitID("");
@@ -197,13 +348,17 @@ public class AbstractCtpTraderSpi extends CThostFtdcTraderSpi {
         r.setLimitPrice(0D);
         r.setMacAddress("");
         r.setOrderActionRef(0);
-        r.setOrderRef("");
-        r.setOrderSysID(getOrderSysIdByOrderId(request.getOrderId()));
+        r.setOrderRef(ref.orderRef);
+        r.setOrderSysID(sysId == null ? "" : sysId);
         r.setRequestID(request.getRequestId().intValue());
-        r.setSessionID(0);
+        r.setSessionID(ref.sessionId);
         r.setUserID(getUserId());
         r.setVolumeChange(0);
-        return gate.getApi().ReqOrderAction(r, request.getRequestId().intValue());
+        var e = new ApiRequestEvent();
+        e.begin();
+        var ret = api.ReqOrderAction(r, request.getRequestId().intValue());
+        e.end("ReqOrderAction", request.getOrderId(), ref.orderRef, sysId, request.getInstrumentId(), ret);
+        return ret;
     }
 
     void doError(CThostFtdcRspInfoField info) {
@@ -216,8 +371,16 @@ public class AbstractCtpTraderSpi extends CThostFtdcTraderSpi {
 
     void doError(CThostFtdcOrderActionField rsp,
                  CThostFtdcRspInfoField info) {
+        if (!isActive()) {
+            /*
+             * Order errors come to every session, the active one delivers
+             * them.
+             */
+            return;
+        }
         try {
-            var request = getRequestByOrderId(getOrderIdBySysId(rsp.getOrderSysID()));
+            var request = orders.getRequestByOrderId(
+                    orderIdOf(rsp.getOrderSysID(), rsp.getFrontID(), rsp.getSessionID(), rsp.getOrderRef()));
             var response = createErrorResponse(request, info);
             gate.getHandler().onResponse(response);
         } catch (Throwable th) {
@@ -227,17 +390,22 @@ public class AbstractCtpTraderSpi extends CThostFtdcTraderSpi {
     }
 
     private Response createErrorResponse(Request request, CThostFtdcRspInfoField info) {
+        metrics.reject();
+        return createErrorResponse(request, info.getErrorID(), info.getErrorMsg());
+    }
+
+    private Response createErrorResponse(Request request, int code, String message) {
         var r = new Response();
         r.setTraderId(request.getTraderId());
         r.setStatus(OrderStatus.REJECTED);
         r.setSignature(UUID.randomUUID().toString());
-        r.setTimestamp(ZonedDateTime.now());
+        r.setTimestamp(clock.now());
         r.setOffset(request.getOffset());
-        r.setStatusCode(info.getErrorID());
-        r.setStatusMessage(info.getErrorMsg());
+        r.setStatusCode(code);
+        r.setStatusMessage(message);
         r.setTradingDay(request.getTradingDay());
         r.setOrderId(request.getOrderId());
-        r.setInstrumentId(request.getInstrumentId());
+        r.setInstrumentId(instruments.canonical(request.getInstrumentId()));
         r.setDirection(request.getDirection());
         r.setResponseId(Utils.nextId());
         return r;
@@ -245,10 +413,15 @@ public class AbstractCtpTraderSpi extends CThostFtdcTraderSpi {
 
     void doError(CThostFtdcInputOrderField rsp,
                  CThostFtdcRspInfoField info) {
+        if (!isActive()) {
+            return;
+        }
         try {
-            var request = getRequestByOrderId(getOrderIdByOrderRef(rsp.getOrderRef()));
+            var orderId = orders.getOrderIdByOrderRef(orderRef(rsp.getOrderRef()));
+            var request = orders.getRequestByOrderId(orderId);
+            orders.finish(orderId, null);
             var response = createErrorResponse(request, info);
-            gate.getHandler().onResponse( response);
+            gate.getHandler().onResponse(response);
         } catch (Throwable th) {
             gate.getHandler().onError(
                     new GatewayRuntimeException(GatewayStatus.INTERNAL_UNCAUGHT, th.getMessage()));
@@ -258,8 +431,12 @@ public class AbstractCtpTraderSpi extends CThostFtdcTraderSpi {
     void doError(CThostFtdcInputOrderActionField rsp,
                  CThostFtdcRspInfoField info,
                  int requestId) {
+        if (!isActive()) {
+            return;
+        }
         try {
-            var request = getRequestByOrderId(getOrderIdByOrderRef(rsp.getOrderRef()));
+            var request = orders.getRequestByOrderId(
+                    orderIdOf(rsp.getOrderSysID(), rsp.getFrontID(), rsp.getSessionID(), rsp.getOrderRef()));
             var response = createErrorResponse(request, info);
             gate.getHandler().onResponse(response);
         } catch (Throwable th) {
@@ -269,52 +446,151 @@ public class AbstractCtpTraderSpi extends CThostFtdcTraderSpi {
     }
 
     void doOrder(CThostFtdcOrderField order) {
+        var active = isActive();
         try {
-            var q = getRequestByOrderId(getOrderIdByOrderRef(order.getOrderRef()));
+            var ref = new CorrelationState.OrderRef(order.getFrontID(), order.getSessionID(), order.getOrderRef());
+            var orderId = orders.getOrderIdByOrderRef(ref, order.getTradingDay());
+            var q = orders.getRequestByOrderId(orderId);
+            /* Save order system ID */
+            orders.setOrderSysId(order.getOrderSysID(), ref, order.getTradingDay());
+            var status = ConstantMaps.getLocalOrderStatus(order.getOrderStatus());
+            if (isFinished(status)) {
+                orders.finish(orderId, order.getTradingDay());
+            }
+            if (!orders.addOrderState(orderId, order.getOrderStatus(), order.getOrderSubmitStatus(),
+                                      order.getVolumeTraded(), order.getTradingDay())) {
+                /*
+                 * Order return is delivered by another session, or replayed
+                 * after a resumed reconnect.
+                 */
+                return;
+            }
             var r = new Response();
             r.setAction(q.getAction());
             r.setDirection(q.getDirection());
-            r.setInstrumentId(q.getInstrumentId());
+            r.setInstrumentId(instruments.canonical(q.getInstrumentId()));
             r.setOffset(q.getOffset());
             r.setOrderId(q.getOrderId());
             r.setResponseId(Utils.nextId());
             r.setSignature(Utils.nextUuid().toString());
-            r.setStatus(ConstantMaps.getLocalOrderStatus(order.getOrderStatus()));
+            r.setStatus(status);
             r.setStatusCode(0);
             r.setStatusMessage(order.getStatusMsg());
-            r.setTimestamp(getTimestamp(order.getUpdateTime()));
+            var exchangeId = order.getExchangeID();
+            var updateTime = order.getUpdateTime();
+            clock.sample(exchangeId, updateTime);
+            r.setTimestamp(getTimestamp(exchangeId, order.getTradingDay(), updateTime));
             r.setTraderId(q.getTraderId());
-            r.setTradingDay(LocalDate.parse(order.getTradingDay(), dayFormatter));
-            /* Save order system ID */
-            setOrderSysId(order.getOrderSysID(), order.getOrderRef());
+            r.setTradingDay(clock.toDay(order.getTradingDay()));
             gate.getHandler().onResponse(r);
         } catch (Throwable th) {
-            gate.getHandler().onError(
-                    new GatewayRuntimeException(GatewayStatus.INTERNAL_UNCAUGHT, th.getMessage()));
+            if (active) {
+                gate.getHandler().onError(
+                        new GatewayRuntimeException(GatewayStatus.INTERNAL_UNCAUGHT, th.getMessage()));
+            }
         }
     }
 
     void doTrade(CThostFtdcTradeField trade) {
+        var active = isActive();
         try {
-            var q = getRequestByOrderId(getOrderIdByOrderRef(trade.getOrderRef()));
+            var exchangeId = trade.getExchangeID();
+            if (trades.contains(exchangeId, trade.getTradeID(), trade.getDirection())) {
+                /*
+                 * Trade is known, maybe from the journal of an order sent
+                 * before a restart and not correlated any more.
+                 */
+                metrics.duplicateTrade();
+                return;
+            }
+            /*
+             * Find the order before taking the trade, so a session that can't
+             * correlate it leaves it to the others.
+             */
+            var q = orders.getRequestByOrderId(
+                    orderIdOf(trade.getOrderSysID(), frontId, sessionId, trade.getOrderRef(), trade.getTradingDay()));
+            if (!trades.add(exchangeId, trade.getTradeID(), trade.getDirection())) {
+                /*
+                 * Trade is replayed after a resumed reconnect, or delivered by
+                 * another session.
+                 */
+                metrics.duplicateTrade();
+                return;
+            }
             var t = new Trade();
             t.setAction(q.getAction());
             t.setDirection(q.getDirection());
-            t.setInstrumentId(q.getInstrumentId());
+            t.setInstrumentId(instruments.canonical(q.getInstrumentId()));
             t.setOffset(q.getOffset());
             t.setOrderId(q.getOrderId());
             t.setPrice(trade.getPrice());
             t.setQuantity((long) trade.getVolume());
             t.setSignature(Utils.nextUuid().toString());
-            t.setTimestamp(getTimestamp(trade.getTradeDate(), trade.getTradeTime()));
+            var tradeTime = trade.getTradeTime();
+            clock.sample(exchangeId, tradeTime);
+            t.setTimestamp(getTimestamp(exchangeId, trade.getTradeDate(), tradeTime));
             t.setTradeId(Utils.nextId());
             t.setTraderId(q.getTraderId());
-            t.setTradingDay(LocalDate.parse(trade.getTradingDay(), dayFormatter));
+            t.setTradingDay(clock.toDay(trade.getTradingDay()));
+            specs.onTrade(q.getInstrumentId(), q.getDirection(), q.getOffset(), trade.getVolume());
             gate.getHandler().onTrade(t);
         } catch (Throwable th) {
-            gate.getHandler().onError(
-                    new GatewayRuntimeException(GatewayStatus.INTERNAL_UNCAUGHT, th.getMessage()));
+            if (active) {
+                gate.getHandler().onError(
+                        new GatewayRuntimeException(GatewayStatus.INTERNAL_UNCAUGHT, th.getMessage()));
+            }
+        }
+    }
+
+    private static boolean isFinished(Integer status) {
+        return status != null
+               && (status == OrderStatus.ALL_TRADED || status == OrderStatus.DELETED || status == OrderStatus.REJECTED);
+    }
+
+    private CorrelationState.OrderRef orderRef(String orderRef) {
+        return new CorrelationState.OrderRef(frontId, sessionId, orderRef);
+    }
+
+    private Long orderIdOf(String sysId, int frontId, int sessionId, String orderRef) {
+        return orderIdOf(sysId, frontId, sessionId, orderRef, null);
+    }
+
+    private Long orderIdOf(String sysId, int frontId, int sessionId, String orderRef, String tradingDay) {
+        var id = orders.findOrderIdBySysId(sysId, tradingDay);
+        if (id != null) {
+            return id;
+        }
+        return orders.getOrderIdByOrderRef(new CorrelationState.OrderRef(frontId, sessionId, orderRef), tradingDay);
+    }
+
+    /**
+     * Looks up an order for flight recorder events, without counting a
+     * missed lookup.
+     *
+     * @return order ID, or {@code null} if not known.
+     */
+    Long findOrderId(String sysId, int frontId, int sessionId, String orderRef, String tradingDay) {
+        var id = orders.findOrderIdBySysId(sysId, tradingDay);
+        if (id != null || orderRef == null) {
+            return id;
         }
+        return orders.findOrderIdByOrderRef(new CorrelationState.OrderRef(frontId, sessionId, orderRef), tradingDay);
+    }
+
+    /**
+     * @return order ID of an order reference of this session, or
+     * {@code null} if not known.
+     */
+    Long findOrderId(String orderRef) {
+        return findOrderId(null, frontId, sessionId, orderRef, null);
+    }
+
+    /**
+     * @return order reference of an order, or {@code null} if not known.
+     */
+    String findOrderRef(Long orderId) {
+        var ref = orderId == null ? null : orders.findOrderRef(orderId);
+        return ref == null ? null : ref.orderRef;
     }
 
     String getAppId() {
@@ -345,47 +621,112 @@ public class AbstractCtpTraderSpi extends CThostFtdcTraderSpi {
         hnd = handler;
     }
 
-    TraderGatewayInfo getInfo() {
-        return info;
+    GatewayMetrics getMetrics() {
+        return metrics;
     }
 
-    void setInfo(CThostFtdcRspUserLoginField rsp) {
-        var tradingDay = LocalDate.parse(rsp.getTradingDay(), dayFormatter);
-        if (info.getTradingDay() != null
-            && !info.getTradingDay().equals(tradingDay)) {
-            /*
-             * Clean cache at the begin of a new trading day.
-             */
-            clearObsoletedCache();
-        }
-        info.setActionDay(LocalDate.now());
-        info.setTradingDay(tradingDay);
-        info.setUpdateTimestamp(ZonedDateTime.now());
-        curOrderRef.set(Integer.parseInt(rsp.getMaxOrderRef()));
+    int getRequestCount() {
+        return orders.getRequestCount();
     }
 
-    Long getOrderIdByOrderRef(String orderRef) {
-        if (!refOrderId.containsKey(orderRef)) {
-            throw new GatewayRuntimeException(GatewayStatus.INTERNAL_MISSED,
-                                              "Order ID not found for order reference " + orderRef + ".");
-        }
-        return refOrderId.get(orderRef);
+    int getLiveRequestCount() {
+        return orders.getLiveRequestCount();
     }
 
-    Long getOrderIdBySysId(String sysId) {
-        if (!sysIdOrderId.containsKey(sysId)) {
-            throw new GatewayRuntimeException(GatewayStatus.INTERNAL_MISSED,
-                                              "Order ID not found for system ID " + sysId + ".");
-        }
-        return sysIdOrderId.get(sysId);
+    int getOrderRefCount() {
+        return orders.getOrderRefCount();
+    }
+
+    int getOrderSysIdCount() {
+        return orders.getOrderSysIdCount();
+    }
+
+    int getSysIdOrderIdCount() {
+        return orders.getSysIdOrderIdCount();
     }
 
-    String getOrderSysIdByOrderId(Long orderId) {
-        if (!orderIdSysId.containsKey(orderId)) {
-            throw new GatewayRuntimeException(GatewayStatus.INTERNAL_MISSED,
-                                              "Order system ID not found for order ID " + orderId + ".");
+    int getLastOrderRef() {
+        return curOrderRef.get();
+    }
+
+    int getFrontId() {
+        return frontId;
+    }
+
+    int getSessionId() {
+        return sessionId;
+    }
+
+    /**
+     * @return time the session was lost, or zero if it is not lost since
+     * its last confirmation.
+     */
+    long getLostNanos() {
+        return lostNanos;
+    }
+
+    /**
+     * Keeps the time of the first loss, as the front may report more
+     * disconnects before the session is confirmed again. Zero clears it.
+     */
+    void lost(long nanos) {
+        if (nanos == 0 || lostNanos == 0) {
+            lostNanos = nanos;
         }
-        return orderIdSysId.get(orderId);
+    }
+
+    CtpTraderGateway getGateway() {
+        return gate;
+    }
+
+    /**
+     * @return the session that sends requests now, this one if the gateway
+     * has no standby.
+     */
+    AbstractCtpTraderSpi getActiveSpi() {
+        var a = gate.getActiveSpi();
+        return a == null ? this : a;
+    }
+
+    CThostFtdcTraderApi getApi() {
+        return api;
+    }
+
+    void setApi(CThostFtdcTraderApi api) {
+        this.api = api;
+    }
+
+    /**
+     * @return {@code true} if the session sends the gateway's requests and
+     * delivers order errors and status changes.
+     */
+    boolean isActive() {
+        return gate.getActiveSpi() == this;
+    }
+
+    TraderGatewayInfo getInfo() {
+        return info;
+    }
+
+    void setInfo(CThostFtdcRspUserLoginField rsp) {
+        clock.onLogin(rsp);
+        var tradingDay = clock.toDay(rsp.getTradingDay());
+        /*
+         * Orders of a new trading day go to a new generation, without
+         * touching the mappings of the last day still in use by callbacks.
+         */
+        orders.rollover(rsp.getTradingDay());
+        trades.setTradingDay(tradingDay);
+        info.setActionDay(clock.today());
+        info.setTradingDay(tradingDay);
+        info.setUpdateTimestamp(clock.now());
+        frontId = rsp.getFrontID();
+        sessionId = rsp.getSessionID();
+        /*
+         * References never go back, as a reference of a request failed in
+         * sending is still mapped but not known to the front.
+         */
+        curOrderRef.accumulateAndGet(Integer.parseInt(rsp.getMaxOrderRef()), Math::max);
     }
 
     String getPassword() {
@@ -397,18 +738,36 @@ public class AbstractCtpTraderSpi extends CThostFtdcTraderSpi {
         return status.get();
     }
 
-    ZonedDateTime getTimestamp(String time) {
-        if (time.isBlank()) {
-            return ZonedDateTime.now();
-        }
-        LocalTime lt = LocalTime.parse(time, timeFormatter);
-        return ZonedDateTime.of(LocalDate.now(), lt, ZoneId.systemDefault());
+    int getTradeKeyCount() {
+        return trades.size();
+    }
+
+    TradeDeduplicator getTradeDeduplicator() {
+        return trades;
     }
 
-    ZonedDateTime getTimestamp(String day, String time) {
-        LocalTime lt = LocalTime.parse(time, timeFormatter);
-        LocalDate ld = LocalDate.parse(day, dayFormatter);
-        return ZonedDateTime.of(ld, lt, ZoneId.systemDefault());
+    void setTradeDeduplicator(TradeDeduplicator trades) {
+        this.trades = trades;
+    }
+
+    InstrumentSpecs getInstrumentSpecs() {
+        return specs;
+    }
+
+    SymbolTable getInstruments() {
+        return instruments;
+    }
+
+    SymbolTable getExchanges() {
+        return exchanges;
+    }
+
+    ExchangeClock getClock() {
+        return clock;
+    }
+
+    ZonedDateTime getTimestamp(String exchangeId, String day, String time) {
+        return clock.toZoned(clock.toEpochNanos(exchangeId, day, time));
     }
 
     String getUserId() {
@@ -416,9 +775,94 @@ public class AbstractCtpTraderSpi extends CThostFtdcTraderSpi {
     }
 
     int insertOrder(Request request) {
-        saveRequest(request);
+        var rec = gate.getRecorder();
+        if (rec == null) {
+            return checkOrderInsert(request);
+        }
+        /*
+         * Local rejects are recorded within the request, so a replay rejects
+         * them again.
+         */
+        var seq = rec.beginRequest(gate.sessionOf(this), RecordType.REQ_ORDER_INSERT, request);
+        var ret = RecordCodec.NULL_INT;
+        try {
+            ret = checkOrderInsert(request);
+            return ret;
+        } finally {
+            rec.endRequest(seq, ret);
+        }
+    }
+
+    private int checkOrderInsert(Request request) {
+        var checked = specs.check(request);
+        if (checked != GatewayStatus.NO_ERROR) {
+            /*
+             * Reject locally what the broker would reject, without the round
+             * trip.
+             */
+            metrics.localReject();
+            gate.getHandler().onResponse(createErrorResponse(request, checked, InstrumentSpecs.message(checked)));
+            return 0;
+        }
+        return sendOrderInsert(request);
+    }
+
+    private int sendOrderInsert(Request request) {
+        orders.saveRequest(request);
+        exchanges.intern(request.getExchangeId());
+        var r = getOrderTemplate(instruments.intern(request.getInstrumentId()), request.getInstrumentId());
         /*
-         * Translate local request.
+         * Translate local request onto the instrument's template. The API
+         * copies the field before it returns, so the template is reused
+         * after the call.
+         */
+        synchronized (r) {
+            r.setCombOffsetFlag(String.valueOf(ConstantMaps.getDestinatedOffset(request.getOffset())));
+            r.setDirection(ConstantMaps.getDestinatedDirection(request.getDirection()));
+            r.setExchangeID(request.getExchangeId());
+            r.setLimitPrice(specs.limitPrice(request));
+            var ref = nextOrderRefByOrderId(request.getOrderId());
+            r.setOrderRef(ref);
+            r.setRequestID(request.getRequestId().intValue());
+            r.setVolumeTotalOriginal(request.getQuantity().intValue());
+            var e = new ApiRequestEvent();
+            e.begin();
+            var ret = api.ReqOrderInsert(r, request.getRequestId().intValue());
+            e.end("ReqOrderInsert", request.getOrderId(), ref, null, request.getInstrumentId(), ret);
+            if (ret != 0) {
+                orders.finish(request.getOrderId(), null);
+            }
+            return ret;
+        }
+    }
+
+    private CThostFtdcInputOrderField getOrderTemplate(int instrument, String instrumentId) {
+        var t = templates;
+        if (instrument == SymbolTable.NO_HANDLE) {
+            return createOrderTemplate(instrumentId);
+        }
+        if (instrument < t.length && t[instrument] != null) {
+            return t[instrument];
+        }
+        return newOrderTemplate(instrument, instrumentId);
+    }
+
+    private synchronized CThostFtdcInputOrderField newOrderTemplate(int instrument, String instrumentId) {
+        var t = templates;
+        if (instrument < t.length && t[instrument] != null) {
+            return t[instrument];
+        }
+        if (instrument >= t.length) {
+            t = Arrays.copyOf(t, Math.max(t.length * 2, instrument + 1));
+        }
+        t[instrument] = createOrderTemplate(instrumentId);
+        templates = t;
+        return t[instrument];
+    }
+
+    private CThostFtdcInputOrderField createOrderTemplate(String instrumentId) {
+        /*
+         * Fields that don't change between requests of an instrument.
          */
         CThostFtdcInputOrderField r = new CThostFtdcInputOrderField();
         r.setAccountID(getUserId());
@@ -426,50 +870,45 @@ public class AbstractCtpTraderSpi extends CThostFtdcTraderSpi {
         r.setBusinessUnit("");
         r.setClientID("");
         r.setCombHedgeFlag(String.valueOf(THOST_FTDC_HF_Speculation));
-        r.setCombOffsetFlag(String.valueOf(ConstantMaps.getDestinatedOffset(request.getOffset())));
         r.setContingentCondition(THOST_FTDC_CC_Immediately);
         r.setCurrencyID("CNY");
-        r.setDirection(ConstantMaps.getDestinatedDirection(request.getDirection()));
-        r.setExchangeID(request.getExchangeId());
         r.setForceCloseReason(THOST_FTDC_FCC_NotForceClose);
         r.setGTDDate("");
         r.setIPAddress("");
-        r.setInstrumentID(request.getInstrumentId());
+        r.setInstrumentID(instrumentId);
         r.setInvestUnitID("");
         r.setInvestorID(getUserId());
         r.setIsAutoSuspend(0);
         r.setIsSwapOrder(0);
-        r.setLimitPrice(request.getPrice());
         r.setMacAddress("");
         r.setMinVolume(1);
         r.setOrderPriceType(THOST_FTDC_OPT_LimitPrice);
-        r.setOrderRef(nextOrderRefByOrderId(request.getOrderId()));
-        r.setRequestID(request.getRequestId().intValue());
         r.setStopPrice(0);
         r.setTimeCondition(THOST_FTDC_TC_GFD);
         r.setUserForceClose(0);
         r.setUserID(getUserId());
         r.setVolumeCondition(THOST_FTDC_VC_AV);
-        r.setVolumeTotalOriginal(request.getQuantity().intValue());
-        return gate.getApi().ReqOrderInsert(r, request.getRequestId().intValue());
+        return r;
     }
 
-    String nextOrderRefByOrderId(Long orderId) {
+    private String nextOrderRefByOrderId(Long orderId) {
         var ref = Integer.toString(curOrderRef.incrementAndGet());
-        if (refOrderId.containsKey(ref)) {
-            throw new GatewayRuntimeException(GatewayStatus.INTERNAL_COLLISION,
-                                              "Duplicated order reference " + ref + ".");
-        }
-        refOrderId.put(ref, orderId);
+        orders.saveOrderRef(orderRef(ref), orderId);
         return ref;
     }
 
-    void setOrderSysId(String orderSysId, String orderRef) {
-        orderIdSysId.put(getOrderIdByOrderRef(orderRef), orderSysId);
-    }
-
     void setStatus(int status, String msg) {
-        this.status.set(status);
+        var previous = this.status.getAndSet(status);
+        var e = new StatusChangeEvent();
+        if (e.shouldCommit()) {
+            e.previous = previous;
+            e.status = status;
+            e.message = msg;
+            e.commit();
+        }
+        if (!isActive()) {
+            return;
+        }
         try {
             gate.getHandler().onStatusChange(new ServiceRuntimeStatus(status, msg));
         } catch (Throwable ignored) {
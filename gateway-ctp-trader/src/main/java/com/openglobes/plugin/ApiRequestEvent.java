@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2021 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.plugin;
+
+import jdk.jfr.*;
+
+/**
+ * Flight recorder event of a {@code ReqOrderInsert} or {@code ReqOrderAction}
+ * call into the native API.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+@Name("com.openglobes.ctp.ApiRequest")
+@Label("API Request")
+@Category({"OpenGlobes", "CTP Trader Gateway"})
+@Description("Order request call into the native trader API")
+@Enabled(false)
+@StackTrace(false)
+class ApiRequestEvent extends Event {
+
+    @Label("Request")
+    String request;
+
+    @Label("Order ID")
+    long orderId;
+
+    @Label("Order Ref")
+    String orderRef;
+
+    @Label("Order Sys ID")
+    String orderSysId;
+
+    @Label("Instrument")
+    String instrumentId;
+
+    @Label("Return Code")
+    int returnCode;
+
+    void end(String request, Long orderId, String orderRef, String orderSysId, String instrumentId, int returnCode) {
+        if (shouldCommit()) {
+            this.request = request;
+            this.orderId = orderId == null ? 0 : orderId;
+            this.orderRef = orderRef;
+            this.orderSysId = orderSysId;
+            this.instrumentId = instrumentId;
+            this.returnCode = returnCode;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2021 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.plugin;
+
+/**
+ * Spins on the CPU without giving it up. Lowest wake-up latency, and it
+ * burns a whole core.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+public class BusySpinIdleStrategy implements IIdleStrategy {
+
+    @Override
+    public void idle(int workCount) {
+        if (workCount == 0) {
+            Thread.onSpinWait();
+        }
+    }
+}
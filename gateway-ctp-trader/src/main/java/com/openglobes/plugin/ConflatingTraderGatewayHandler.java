@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2021 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.plugin;
+
+import com.openglobes.core.GatewayRuntimeException;
+import com.openglobes.core.ServiceRuntimeStatus;
+import com.openglobes.core.trader.ITraderGatewayHandler;
+import com.openglobes.core.trader.OrderStatus;
+import com.openglobes.core.trader.Response;
+import com.openglobes.core.trader.Trade;
+
+import java.io.Closeable;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Delivers only the latest state of each order to a slow handler.
+ * <p>
+ * A response of a live order is kept in a slot of its order, overwriting the
+ * pending one the handler hasn't taken. Terminal responses, trades, errors and
+ * status changes are queued in arrival order and never dropped. A terminal
+ * response discards the pending state of its order, so the handler never
+ * sees an order go back from its final state.
+ * <p>
+ * Set it as the gateway's handler. Events are delivered to the wrapped
+ * handler by {@link #drain(int)} on the caller's thread, or by a delivery
+ * thread after {@link #start()}. Only one thread may drain.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+public class ConflatingTraderGatewayHandler implements ITraderGatewayHandler, Runnable, Closeable {
+
+    private static final long POLL_MILLIS = 100;
+    private final LongAdder conflated;
+    private final ITraderGatewayHandler handler;
+    private final Map<Long, Response> pending;
+    private final BlockingQueue<Object> queue;
+    private Thread thread;
+    private volatile boolean running;
+
+    public ConflatingTraderGatewayHandler(ITraderGatewayHandler handler) {
+        this.handler = handler;
+        conflated = new LongAdder();
+        pending = new ConcurrentHashMap<>(1024);
+        queue = new LinkedBlockingQueue<>();
+    }
+
+    private static boolean isTerminal(Integer status) {
+        return status == null
+               || status == OrderStatus.ALL_TRADED
+               || status == OrderStatus.DELETED
+               || status == OrderStatus.REJECTED;
+    }
+
+    @Override
+    public void onTrade(Trade trade) {
+        queue.offer(trade);
+    }
+
+    @Override
+    public void onResponse(Response response) {
+        var orderId = response.getOrderId();
+        if (orderId == null || isTerminal(response.getStatus())) {
+            if (orderId != null && pending.remove(orderId) != null) {
+                conflated.increment();
+            }
+            queue.offer(response);
+        } else if (pending.put(orderId, response) == null) {
+            /*
+             * Order ID marks the order's place in the queue, and its latest
+             * state is taken from the slot on delivery.
+             */
+            queue.offer(orderId);
+        } else {
+            conflated.increment();
+        }
+    }
+
+    @Override
+    public void onError(GatewayRuntimeException error) {
+        queue.offer(error);
+    }
+
+    @Override
+    public void onStatusChange(ServiceRuntimeStatus status) {
+        queue.offer(status);
+    }
+
+    /**
+     * Delivers queued events to the wrapped handler.
+     *
+     * @param max maximum number of events to deliver.
+     * @return number of events delivered.
+     */
+    public int drain(int max) {
+        int n = 0;
+        while (n < max) {
+            var e = queue.poll();
+            if (e == null) {
+                break;
+            }
+            if (deliver(e)) {
+                ++n;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Starts a daemon thread delivering events as they come.
+     */
+    public synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this, "ctp-conflated-delivery");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                var e = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (e != null) {
+                    deliver(e);
+                    drain(Integer.MAX_VALUE);
+                }
+            } catch (InterruptedException ignored) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+    }
+
+    /**
+     * Stops the delivery thread. Events still in the queue stay there for
+     * {@link #drain(int)}.
+     */
+    @Override
+    public synchronized void close() {
+        running = false;
+        if (thread != null) {
+            thread.interrupt();
+            try {
+                thread.join(POLL_MILLIS * 10);
+            } catch (InterruptedException ignored) {
+                Thread.currentThread().interrupt();
+            }
+            thread = null;
+        }
+    }
+
+    /**
+     * @return number of responses overwritten before delivery.
+     */
+    public long getConflatedCount() {
+        return conflated.sum();
+    }
+
+    /**
+     * @return number of orders with an undelivered state.
+     */
+    public int getPendingOrders() {
+        return pending.size();
+    }
+
+    /**
+     * @return number of queued events, including one for each pending order.
+     */
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    private boolean deliver(Object e) {
+        try {
+            if (e instanceof Long) {
+                var r = pending.remove(e);
+                if (r == null) {
+                    /*
+                     * Order reached its final state.
+                     */
+                    return false;
+                }
+                handler.onResponse(r);
+            } else if (e instanceof Response) {
+                handler.onResponse((Response) e);
+            } else if (e instanceof Trade) {
+                handler.onTrade((Trade) e);
+            } else if (e instanceof GatewayRuntimeException) {
+                handler.onError((GatewayRuntimeException) e);
+            } else {
+                handler.onStatusChange((ServiceRuntimeStatus) e);
+            }
+        } catch (Throwable th) {
+            if (!(e instanceof GatewayRuntimeException)) {
+                try {
+                    handler.onError(new GatewayRuntimeException(GatewayStatus.INTERNAL_UNCAUGHT, th.getMessage()));
+                } catch (Throwable ignored) {
+                }
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,396 @@
+/*
+ * Copyright (C) 2021 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.plugin;
+
+import com.openglobes.core.GatewayRuntimeException;
+import com.openglobes.core.trader.Request;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Correlation of local orders with CTP order references and order system
+ * IDs.
+ * <p>
+ * An order reference is only unique in the session that sent it, so it is
+ * qualified with the session's front ID and session ID. Sessions of a
+ * gateway share the state, and an order is found from the callbacks of any
+ * of them.
+ * <p>
+ * Mappings are kept in a generation per trading day. A new trading day
+ * installs an empty generation by swapping a reference, and the previous one
+ * stays readable for late callbacks, like the orders replayed by a resumed
+ * private topic, until the next trading day drops it for the garbage
+ * collector. Nothing is cleared under readers, so an order sent across the
+ * rollover is still found. Lookups with the trading day of a callback go to
+ * that day's generation first, as system IDs may repeat over trading days.
+ * <p>
+ * Requests and order references are saved by the sending thread, and order
+ * system IDs by the callback threads. Each map is concurrent on its own, but
+ * updates spanning several maps are not atomic, so a reader on another thread
+ * can see one mapping of an order and not yet the others.
+ * <p>
+ * The state has no native dependency, so its interleavings can be tested
+ * under stress without the CTP libraries.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+class CorrelationState {
+
+    private final GatewayMetrics metrics;
+    private volatile Generation current;
+    private volatile Generation previous;
+
+    CorrelationState(GatewayMetrics metrics) {
+        this.metrics = metrics;
+        current = new Generation(null);
+        previous = new Generation(null);
+    }
+
+    private static boolean isBlank(String s) {
+        return s == null || s.isBlank();
+    }
+
+    private GatewayRuntimeException missed(String message) {
+        metrics.missed();
+        return new GatewayRuntimeException(GatewayStatus.INTERNAL_MISSED, message);
+    }
+
+    private GatewayRuntimeException collision(String message) {
+        metrics.collision();
+        return new GatewayRuntimeException(GatewayStatus.INTERNAL_COLLISION, message);
+    }
+
+    /**
+     * Starts a generation for the trading day if it is a new one. Called at
+     * login, so it doesn't race with another rollover in practice.
+     *
+     * @param tradingDay trading day of the login, as given by CTP.
+     */
+    synchronized void rollover(String tradingDay) {
+        var c = current;
+        if (!Objects.equals(c.tradingDay, tradingDay)) {
+            previous = c;
+            current = new Generation(tradingDay);
+        }
+    }
+
+    String getTradingDay() {
+        return current.tradingDay;
+    }
+
+    void saveRequest(Request request) {
+        var g = current;
+        if (g.requests.putIfAbsent(request.getOrderId(), request) != null) {
+            throw collision("Duplicated order ID " + request.getOrderId() + ".");
+        }
+        g.live.incrementAndGet();
+    }
+
+    /**
+     * Marks an order as all traded, deleted or rejected, once. Orders left
+     * live in a generation stop counting when the generation is dropped.
+     */
+    void finish(Long orderId, String tradingDay) {
+        var g = generationOf(tradingDay);
+        if (!g.requests.containsKey(orderId)) {
+            g = other(g);
+            if (!g.requests.containsKey(orderId)) {
+                return;
+            }
+        }
+        if (g.orderStates.computeIfAbsent(orderId, k -> new OrderStates()).finish()) {
+            g.live.decrementAndGet();
+        }
+    }
+
+    int getLiveRequestCount() {
+        return current.live.get() + previous.live.get();
+    }
+
+    Request getRequestByOrderId(Long orderId) {
+        var r = current.requests.get(orderId);
+        if (r == null) {
+            r = previous.requests.get(orderId);
+        }
+        if (r == null) {
+            throw missed("No request for order ID " + orderId + ".");
+        }
+        return r;
+    }
+
+    void saveOrderRef(OrderRef ref, Long orderId) {
+        var g = current;
+        if (g.refOrderId.putIfAbsent(ref, orderId) != null) {
+            throw collision("Duplicated order reference " + ref + ".");
+        }
+        g.orderIdRef.put(orderId, ref);
+    }
+
+    void setOrderSysId(String orderSysId, OrderRef ref) {
+        setOrderSysId(orderSysId, ref, null);
+    }
+
+    /**
+     * Records the order system ID given by the exchange, in the generation
+     * of the order. A blank ID, of an order not yet accepted by the exchange,
+     * is ignored.
+     */
+    void setOrderSysId(String orderSysId, OrderRef ref, String tradingDay) {
+        var g = generationOf(tradingDay);
+        var orderId = g.refOrderId.get(ref);
+        if (orderId == null) {
+            g = other(g);
+            orderId = g.refOrderId.get(ref);
+        }
+        if (orderId == null) {
+            throw missed("Order ID not found for order reference " + ref + ".");
+        }
+        if (isBlank(orderSysId)) {
+            return;
+        }
+        g.orderIdSysId.put(orderId, orderSysId);
+        g.sysIdOrderId.put(orderSysId, orderId);
+    }
+
+    Long getOrderIdByOrderRef(OrderRef ref) {
+        return getOrderIdByOrderRef(ref, null);
+    }
+
+    Long getOrderIdByOrderRef(OrderRef ref, String tradingDay) {
+        var g = generationOf(tradingDay);
+        var r = g.refOrderId.get(ref);
+        if (r == null) {
+            r = other(g).refOrderId.get(ref);
+        }
+        if (r == null) {
+            throw missed("Order ID not found for order reference " + ref + ".");
+        }
+        return r;
+    }
+
+    /**
+     * @return order ID, or {@code null} if the reference is not recorded.
+     */
+    Long findOrderIdByOrderRef(OrderRef ref, String tradingDay) {
+        var g = generationOf(tradingDay);
+        var r = g.refOrderId.get(ref);
+        return r != null ? r : other(g).refOrderId.get(ref);
+    }
+
+    /**
+     * @return order reference, or {@code null} if not recorded.
+     */
+    OrderRef findOrderRef(Long orderId) {
+        var r = current.orderIdRef.get(orderId);
+        return r != null ? r : previous.orderIdRef.get(orderId);
+    }
+
+    OrderRef getOrderRefByOrderId(Long orderId) {
+        var r = current.orderIdRef.get(orderId);
+        if (r == null) {
+            r = previous.orderIdRef.get(orderId);
+        }
+        if (r == null) {
+            throw missed("Order reference not found for order ID " + orderId + ".");
+        }
+        return r;
+    }
+
+    Long getOrderIdBySysId(String sysId) {
+        var r = findOrderIdBySysId(sysId);
+        if (r == null) {
+            throw missed("Order ID not found for system ID " + sysId + ".");
+        }
+        return r;
+    }
+
+    Long findOrderIdBySysId(String sysId) {
+        return findOrderIdBySysId(sysId, null);
+    }
+
+    /**
+     * @return order ID, or {@code null} if the system ID is blank or not
+     * recorded yet.
+     */
+    Long findOrderIdBySysId(String sysId, String tradingDay) {
+        if (isBlank(sysId)) {
+            return null;
+        }
+        var g = generationOf(tradingDay);
+        var r = g.sysIdOrderId.get(sysId);
+        return r != null ? r : other(g).sysIdOrderId.get(sysId);
+    }
+
+    /**
+     * @return order system ID, or {@code null} if not recorded yet.
+     */
+    String findOrderSysId(Long orderId) {
+        var r = current.orderIdSysId.get(orderId);
+        return r != null ? r : previous.orderIdSysId.get(orderId);
+    }
+
+    /**
+     * Marks a state of an order as delivered, in the generation of the
+     * order. Sessions of a gateway receive the same order returns, and a
+     * resumed private topic replays them, so each state is delivered once.
+     *
+     * @return {@code true} if the state is new for the order.
+     */
+    boolean addOrderState(Long orderId, char orderStatus, char submitStatus, int volumeTraded, String tradingDay) {
+        var g = generationOf(tradingDay);
+        if (!g.requests.containsKey(orderId)) {
+            g = other(g);
+        }
+        var state = ((long) orderStatus << 48) | ((long) submitStatus << 32) | (volumeTraded & 0xFFFFFFFFL);
+        return g.orderStates.computeIfAbsent(orderId, k -> new OrderStates()).add(state);
+    }
+
+    private Generation generationOf(String tradingDay) {
+        var c = current;
+        if (tradingDay == null || tradingDay.equals(c.tradingDay)) {
+            return c;
+        }
+        var p = previous;
+        return tradingDay.equals(p.tradingDay) ? p : c;
+    }
+
+    private Generation other(Generation g) {
+        var c = current;
+        return g == c ? previous : c;
+    }
+
+    int getRequestCount() {
+        return current.requests.size() + previous.requests.size();
+    }
+
+    int getOrderRefCount() {
+        return current.refOrderId.size() + previous.refOrderId.size();
+    }
+
+    int getOrderSysIdCount() {
+        return current.orderIdSysId.size() + previous.orderIdSysId.size();
+    }
+
+    int getSysIdOrderIdCount() {
+        return current.sysIdOrderId.size() + previous.sysIdOrderId.size();
+    }
+
+    /**
+     * Mappings of the orders sent in a trading day.
+     */
+    private static final class Generation {
+
+        final AtomicInteger live;
+        final Map<Long, OrderRef> orderIdRef;
+        final Map<Long, String> orderIdSysId;
+        final Map<OrderRef, Long> refOrderId;
+        final Map<Long, OrderStates> orderStates;
+        final Map<Long, Request> requests;
+        final Map<String, Long> sysIdOrderId;
+        final String tradingDay;
+
+        Generation(String tradingDay) {
+            this.tradingDay = tradingDay;
+            live = new AtomicInteger();
+            orderIdRef = new ConcurrentHashMap<>(1024);
+            orderIdSysId = new ConcurrentHashMap<>(1024);
+            orderStates = new ConcurrentHashMap<>(1024);
+            refOrderId = new ConcurrentHashMap<>(1024);
+            requests = new ConcurrentHashMap<>(1024);
+            sysIdOrderId = new ConcurrentHashMap<>(1024);
+        }
+    }
+
+    /**
+     * Delivered states of an order, packed from order status, submit status
+     * and traded volume, and whether the order is finished. An order has a
+     * few states.
+     */
+    private static final class OrderStates {
+
+        private boolean finished;
+        private long[] states = new long[4];
+        private int size;
+
+        synchronized boolean add(long state) {
+            for (int i = 0; i < size; ++i) {
+                if (states[i] == state) {
+                    return false;
+                }
+            }
+            if (size == states.length) {
+                states = Arrays.copyOf(states, size * 2);
+            }
+            states[size++] = state;
+            return true;
+        }
+
+        /**
+         * @return {@code true} the first time.
+         */
+        synchronized boolean finish() {
+            if (finished) {
+                return false;
+            }
+            finished = true;
+            return true;
+        }
+    }
+
+    /**
+     * Order reference qualified by the session that sent the order.
+     */
+    static final class OrderRef {
+
+        final int frontId;
+        final String orderRef;
+        final int sessionId;
+
+        OrderRef(int frontId, int sessionId, String orderRef) {
+            this.frontId = frontId;
+            this.sessionId = sessionId;
+            this.orderRef = orderRef;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof OrderRef)) {
+                return false;
+            }
+            var r = (OrderRef) o;
+            return frontId == r.frontId && sessionId == r.sessionId && Objects.equals(orderRef, r.orderRef);
+        }
+
+        @Override
+        public int hashCode() {
+            return (frontId * 31 + sessionId) * 31 + Objects.hashCode(orderRef);
+        }
+
+        @Override
+        public String toString() {
+            return frontId + "/" + sessionId + "/" + orderRef;
+        }
+    }
+}
@@ -0,0 +1,313 @@
+/*
+ * Copyright (C) 2021 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.plugin;
+
+import org.ctp4j.ThostFtdcCtpApi;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Loads CTP native libraries once per JVM from an on-disk cache shared by
+ * the processes of a host.
+ * <p>
+ * The libraries are extracted from the ctp4j jar into a cache directory
+ * named by a hash of their contents, taken from the CRC and size recorded in
+ * the jar so the libraries are not read to be hashed. Later processes find
+ * the directory complete and only load from it. Extraction goes to a
+ * temporary directory that is moved into place, so concurrent processes
+ * don't see half-written files.
+ * <p>
+ * If the jar has libraries for several platforms, only those of the
+ * directory naming this operating system and, by {@code 64} in the name or
+ * not, this JVM's word size are used.
+ * <p>
+ * The cache is under {@code ~/.cache/ctp4j} unless system property
+ * {@value #CACHE_PROPERTY} says otherwise. If the jar can't be found or has
+ * no libraries for this platform, it falls back to
+ * {@link ThostFtdcCtpApi#install()}.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+public final class CtpNativeBootstrap {
+
+    public static final String CACHE_PROPERTY = "ctp4j.native.cache";
+    private static final String COMPLETE = ".complete";
+    private static volatile boolean cached;
+    private static volatile long initNanos = -1;
+    private static volatile boolean installed;
+
+    private CtpNativeBootstrap() {
+    }
+
+    /**
+     * Loads the native libraries if they are not loaded in this JVM.
+     *
+     * @throws IOException if the libraries can't be extracted or loaded.
+     */
+    public static void install() throws IOException {
+        if (installed) {
+            return;
+        }
+        synchronized (CtpNativeBootstrap.class) {
+            if (installed) {
+                return;
+            }
+            var start = System.nanoTime();
+            var dir = prepare(findJar());
+            if (dir == null) {
+                ThostFtdcCtpApi.install();
+            } else {
+                load(dir);
+            }
+            initNanos = System.nanoTime() - start;
+            installed = true;
+        }
+    }
+
+    /**
+     * @return {@code true} if the libraries are loaded in this JVM.
+     */
+    public static boolean isInstalled() {
+        return installed;
+    }
+
+    /**
+     * @return {@code true} if the libraries were found in the cache without
+     * extraction.
+     */
+    public static boolean isCached() {
+        return cached;
+    }
+
+    /**
+     * @return time taken to find, extract and load the libraries, or
+     * {@code -1} if they are not loaded.
+     */
+    public static long getInitNanos() {
+        return initNanos;
+    }
+
+    private static Path findJar() {
+        try {
+            var src = ThostFtdcCtpApi.class.getProtectionDomain().getCodeSource();
+            if (src == null) {
+                return null;
+            }
+            var path = Path.of(src.getLocation().toURI());
+            return Files.isRegularFile(path) ? path : null;
+        } catch (URISyntaxException | SecurityException | IllegalArgumentException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Extracts the libraries of this platform from the jar into the cache,
+     * unless they are there already.
+     *
+     * @param jar jar with native libraries, may be {@code null}.
+     * @return cache directory of the libraries, or {@code null} if the jar
+     * has none for this platform.
+     * @throws IOException if the libraries can't be extracted.
+     */
+    static Path prepare(Path jar) throws IOException {
+        if (jar == null) {
+            return null;
+        }
+        var names = nativeEntries(jar);
+        return names.isEmpty() ? null : extract(jar, names);
+    }
+
+    private static List<String> nativeEntries(Path jar) throws IOException {
+        var mapped = System.mapLibraryName("x");
+        var suffix = mapped.substring(mapped.indexOf('x') + 1);
+        var dirs = new TreeMap<String, List<String>>();
+        try (var zip = new ZipFile(jar.toFile())) {
+            var entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                var e = entries.nextElement();
+                var name = e.getName();
+                if (!e.isDirectory() && name.endsWith(suffix)) {
+                    dirs.computeIfAbsent(name.substring(0, name.lastIndexOf('/') + 1), k -> new ArrayList<>())
+                        .add(name);
+                }
+            }
+        }
+        /*
+         * Libraries of different platforms share file names, so take one
+         * directory only.
+         */
+        List<String> r = List.of();
+        var best = -1;
+        for (var d : dirs.entrySet()) {
+            var score = score(d.getKey());
+            if (score > best) {
+                best = score;
+                r = d.getValue();
+            }
+        }
+        r = new ArrayList<>(r);
+        Collections.sort(r);
+        return r;
+    }
+
+    /**
+     * @return how well a directory of the jar names this platform, or -1 if
+     * it names another operating system.
+     */
+    private static int score(String dir) {
+        var d = dir.toLowerCase(Locale.ROOT);
+        var os = osOf(d);
+        var score = 0;
+        if (os != null) {
+            if (!os.equals(osOf(System.getProperty("os.name", "").toLowerCase(Locale.ROOT)))) {
+                return -1;
+            }
+            score += 2;
+        }
+        if (d.contains("64") == System.getProperty("os.arch", "").contains("64")) {
+            ++score;
+        }
+        return score;
+    }
+
+    private static String osOf(String s) {
+        if (s.contains("mac") || s.contains("osx") || s.contains("darwin")) {
+            return "mac";
+        } else if (s.contains("win")) {
+            return "windows";
+        } else if (s.contains("linux")) {
+            return "linux";
+        }
+        return null;
+    }
+
+    private static Path extract(Path jar, List<String> names) throws IOException {
+        try (var zip = new ZipFile(jar.toFile())) {
+            var root = cacheRoot();
+            var dir = root.resolve(hash(zip, names));
+            if (Files.exists(dir.resolve(COMPLETE))) {
+                cached = true;
+                return dir;
+            }
+            Files.createDirectories(root);
+            var tmp = Files.createTempDirectory(root, "extract-");
+            try {
+                for (var name : names) {
+                    try (var in = zip.getInputStream(zip.getEntry(name))) {
+                        Files.copy(in, tmp.resolve(fileName(name)));
+                    }
+                }
+                Files.createFile(tmp.resolve(COMPLETE));
+            } catch (IOException ex) {
+                deleteTree(tmp);
+                throw ex;
+            }
+            try {
+                Files.move(tmp, dir, StandardCopyOption.ATOMIC_MOVE);
+            } catch (FileAlreadyExistsException | DirectoryNotEmptyException ex) {
+                /*
+                 * Another process has put the same libraries in place.
+                 */
+                deleteTree(tmp);
+            } catch (IOException ex) {
+                deleteTree(tmp);
+                throw ex;
+            }
+            cached = false;
+            return dir;
+        }
+    }
+
+    private static void load(Path dir) throws IOException {
+        /*
+         * Libraries depend on each other and the loader won't look for a
+         * dependency in the cache, so keep loading until no more can be.
+         */
+        var left = new LinkedList<Path>();
+        try (var files = Files.list(dir)) {
+            files.filter(p -> !p.getFileName().toString().equals(COMPLETE)).forEach(left::add);
+        }
+        UnsatisfiedLinkError last = null;
+        boolean progress = true;
+        while (!left.isEmpty() && progress) {
+            progress = false;
+            var it = left.iterator();
+            while (it.hasNext()) {
+                try {
+                    System.load(it.next().toAbsolutePath().toString());
+                    it.remove();
+                    progress = true;
+                } catch (UnsatisfiedLinkError err) {
+                    last = err;
+                }
+            }
+        }
+        if (!left.isEmpty()) {
+            throw new IOException("Can't load native libraries " + left + ".", last);
+        }
+    }
+
+    private static Path cacheRoot() {
+        var p = System.getProperty(CACHE_PROPERTY);
+        if (p != null && !p.isBlank()) {
+            return Path.of(p);
+        }
+        return Path.of(System.getProperty("user.home"), ".cache", "ctp4j");
+    }
+
+    private static String hash(ZipFile zip, List<String> names) throws IOException {
+        try {
+            var md = MessageDigest.getInstance("SHA-256");
+            var b = ByteBuffer.allocate(16);
+            for (var name : names) {
+                ZipEntry e = zip.getEntry(name);
+                md.update(name.getBytes(StandardCharsets.UTF_8));
+                b.clear();
+                b.putLong(e.getCrc()).putLong(e.getSize());
+                md.update(b.array());
+            }
+            var r = new StringBuilder();
+            for (var x : md.digest()) {
+                r.append(String.format("%02x", x));
+            }
+            return r.toString();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IOException(ex.getMessage(), ex);
+        }
+    }
+
+    private static String fileName(String entry) {
+        return entry.substring(entry.lastIndexOf('/') + 1);
+    }
+
+    private static void deleteTree(Path dir) {
+        try (var files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        } catch (IOException ignored) {
+        }
+    }
+}
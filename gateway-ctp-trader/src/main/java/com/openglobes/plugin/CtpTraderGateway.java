@@ -17,10 +17,18 @@
 package com.openglobes.plugin;
 
 import com.openglobes.core.GatewayRuntimeException;
+import com.openglobes.core.ServiceRuntimeStatus;
 import com.openglobes.core.trader.*;
 import org.ctp4j.CThostFtdcTraderApi;
 import org.ctp4j.THOST_TE_RESUME_TYPE;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Properties;
 
 /**
@@ -31,10 +39,21 @@ public class CtpTraderGateway implements ITraderGateway, Runnable {
 
     private final Thread connThd;
     private final CtpTraderSpi spi;
-    private CThostFtdcTraderApi api;
+    private final List<String> standbyFronts;
+    private volatile CtpTraderSpi active;
+    private CtpTraderSpi standby;
+    private ITraderGatewayHandler handler;
+    private SessionRecorder recorder;
+    private RecordingTraderSpi recordingSpi;
+    private RecordingTraderSpi recordingStandby;
+    private HandlerWatchdog watchdog;
+    private OrderSender sender;
+    private ObjectName mbeanName;
 
     public CtpTraderGateway() {
         spi = new CtpTraderSpi(this);
+        active = spi;
+        standbyFronts = new LinkedList<>();
         connThd = new Thread(this);
     }
 
@@ -45,21 +64,39 @@ public class CtpTraderGateway implements ITraderGateway, Runnable {
 
     @Override
     public void insert(Request request) {
-        int i;
+        if (sender == null) {
+            send(request);
+        } else if (!sender.offer(request)) {
+            spi.getMetrics().sendQueueFull();
+            spi.getHandler()
+               .onError(new GatewayRuntimeException(GatewayStatus.SEND_QUEUE_FULL,
+                                                    "Send queue is full."));
+        }
+    }
+
+    private void send(Request request) {
+        var session = active;
+        var e = new InsertEvent();
+        e.begin();
+        int i = 0;
         try {
             switch (request.getAction()) {
                 case ActionType.NEW:
-                    i = spi.insertOrder(request);
+                    spi.getMetrics().insert();
+                    i = session.insertOrder(request);
                     if (i != 0) {
-                        spi.setStatus(i, "Sending request failed.");
+                        spi.getMetrics().apiError(i);
+                        session.setStatus(i, "Sending request failed.");
                         spi.getHandler()
                            .onError(new GatewayRuntimeException(i, "Sending request failed."));
                     }
                     break;
                 case ActionType.DELETE:
-                    i = spi.deleteOrder(request);
+                    spi.getMetrics().cancel();
+                    i = session.deleteOrder(request);
                     if (i != 0) {
-                        spi.setStatus(i, "Sending request failed.");
+                        spi.getMetrics().apiError(i);
+                        session.setStatus(i, "Sending request failed.");
                         spi.getHandler()
                            .onError(new GatewayRuntimeException(i, "Sending request failed."));
                     }
@@ -70,18 +107,28 @@ public class CtpTraderGateway implements ITraderGateway, Runnable {
                                -1, "Unknown request action type(" + request.getAction() + ")."));
             }
         } catch (GatewayRuntimeException ex) {
+            i = -1;
             spi.getHandler().onError(ex);
         } catch (Throwable th) {
+            i = -1;
             spi.getHandler().onError(new GatewayRuntimeException(-1, th.getMessage(), th));
+        } finally {
+            e.end(session, request, i);
         }
     }
 
     @Override
     public void run() {
-        while (GatewayStatus.NEVER_CONNECTED == spi.getStatus()
+        while ((GatewayStatus.NEVER_CONNECTED == spi.getStatus()
+                || standby != null && GatewayStatus.NEVER_CONNECTED == standby.getStatus())
                && !Thread.currentThread().isInterrupted()) {
             // TODO Can Init() be called repeatedly?
-            api.Init();
+            if (GatewayStatus.NEVER_CONNECTED == spi.getStatus()) {
+                spi.getApi().Init();
+            }
+            if (standby != null && GatewayStatus.NEVER_CONNECTED == standby.getStatus()) {
+                standby.getApi().Init();
+            }
             try {
                 Thread.sleep(1000);
             } catch (InterruptedException ignored) {
@@ -90,16 +137,48 @@ public class CtpTraderGateway implements ITraderGateway, Runnable {
     }
 
     public void start() {
+        try {
+            CtpNativeBootstrap.install();
+        } catch (IOException ex) {
+            throw new GatewayRuntimeException(GatewayStatus.NATIVE_LOAD_FAIL,
+                                              "Loading native libraries failed.", ex);
+        }
+        if (watchdog != null) {
+            watchdog.start();
+        }
         init();
+        if (sender != null) {
+            sender.start(this::send, spi.getMetrics());
+        }
+        registerMBean();
     }
 
     public void stop() {
+        if (sender != null && !sender.close()) {
+            spi.getHandler()
+               .onError(new GatewayRuntimeException(GatewayStatus.SENDER_STOP_TIMEOUT,
+                                                    "Order sender didn't stop in time, "
+                                                    + sender.size() + " requests are not sent."));
+        }
         int r = spi.apiLogout();
         if (r != 0) {
             spi.setStatus(r, "Sending logout request failed.");
         }
-        api.Release();
+        spi.getApi().Release();
+        if (standby != null) {
+            standby.apiLogout();
+            standby.getApi().Release();
+        }
         terminateThread();
+        unregisterMBean();
+        if (recorder != null) {
+            recorder.close();
+        }
+        if (watchdog != null) {
+            watchdog.close();
+        }
+        spi.getTradeDeduplicator().close();
+        spi.closeQueries();
     }
 
     public void setUserId(String userId) {
@@ -126,21 +205,194 @@ public class CtpTraderGateway implements ITraderGateway, Runnable {
         spi.setFlowPath(flowPath);
     }
 
+    /**
+     * @return runtime counters and gauges, also registered as an MXBean
+     * once the gateway is started.
+     */
+    public GatewayMetrics getMetrics() {
+        return spi.getMetrics();
+    }
+
+    /**
+     * @return time source of the gateway, with exchange clock offsets.
+     */
+    public ExchangeClock getClock() {
+        return spi.getClock();
+    }
+
+    /**
+     * @return instrument IDs seen by the gateway, interned into handles.
+     */
+    public SymbolTable getInstruments() {
+        return spi.getInstruments();
+    }
+
+    /**
+     * @return instrument specs that new orders are checked against, loaded
+     * after login.
+     */
+    public InstrumentSpecs getInstrumentSpecs() {
+        return spi.getInstrumentSpecs();
+    }
+
+    /**
+     * @return exchange IDs seen by the gateway, interned into handles.
+     */
+    public SymbolTable getExchanges() {
+        return spi.getExchanges();
+    }
+
     public void addFront(String addr) {
         spi.addFront(addr);
     }
 
+    /**
+     * Adds a front of a hot-standby session. The standby logs in with the
+     * same account and takes over sending once the active session is lost.
+     * Its callbacks are recorded with the standby's session tag. Must be
+     * called before {@link #start()}.
+     *
+     * @param addr front address, preferably of another front than
+     *             {@link #addFront(String)}.
+     */
+    public void addStandbyFront(String addr) {
+        standbyFronts.add(addr);
+    }
+
+    /**
+     * Records all callbacks and order requests of the session. Must be set
+     * before {@link #start()}.
+     *
+     * @param recorder session recorder.
+     */
+    public void setRecorder(SessionRecorder recorder) {
+        this.recorder = recorder;
+        installHandler();
+    }
+
+    /**
+     * Times handler invocations and reports the slow ones. Must be set before
+     * {@link #start()}.
+     *
+     * @param watchdog handler watchdog.
+     */
+    public void setWatchdog(HandlerWatchdog watchdog) {
+        this.watchdog = watchdog;
+        installHandler();
+    }
+
+    /**
+     * Sends requests from a dedicated thread instead of the caller's. Must be
+     * set before {@link #start()}.
+     *
+     * @param sender order sender.
+     */
+    public void setSender(OrderSender sender) {
+        this.sender = sender;
+    }
+
+    /**
+     * Replaces the in-memory trade deduplicator, for example with one that
+     * keeps a journal to know the delivered trades after a restart. Must be
+     * set before {@link #start()}.
+     *
+     * @param deduplicator trade deduplicator.
+     */
+    public void setTradeDeduplicator(TradeDeduplicator deduplicator) {
+        spi.setTradeDeduplicator(deduplicator);
+        if (standby != null) {
+            standby.setTradeDeduplicator(deduplicator);
+        }
+    }
+
+    /**
+     * Switches sending to the other session if the active one is not
+     * confirmed and the other is. Switchover time is measured from the time
+     * the active session was lost.
+     */
+    synchronized void checkActive() {
+        if (standby == null || active.getStatus() == GatewayStatus.CONFIRMED) {
+            return;
+        }
+        var other = active == spi ? standby : spi;
+        if (other.getStatus() != GatewayStatus.CONFIRMED) {
+            return;
+        }
+        var since = active.getLostNanos();
+        active = other;
+        var nanos = since == 0 ? 0 : System.nanoTime() - since;
+        spi.getMetrics().switchover(nanos);
+        try {
+            spi.getHandler().onStatusChange(new ServiceRuntimeStatus(
+                    GatewayStatus.CONFIRMED,
+                    "Switched to the " + (other == spi ? "primary" : "standby") + " session in "
+                    + nanos / 1000 + " us."));
+        } catch (Throwable ignored) {
+        }
+    }
+
     private void init() {
-        api = CThostFtdcTraderApi.CreateFtdcTraderApi(spi.getFlowPath());
-        api.RegisterSpi(spi);
+        var api = CThostFtdcTraderApi.CreateFtdcTraderApi(spi.getFlowPath());
+        spi.setApi(api);
+        if (recorder != null) {
+            recorder.start();
+            recordingSpi = new RecordingTraderSpi(spi, recorder);
+            api.RegisterSpi(recordingSpi);
+        } else {
+            api.RegisterSpi(spi);
+        }
         spi.getFronts().forEach(f -> {
             api.RegisterFront(f);
         });
         api.SubscribePrivateTopic(THOST_TE_RESUME_TYPE.THOST_TERT_RESUME);
         api.SubscribePublicTopic(THOST_TE_RESUME_TYPE.THOST_TERT_RESUME);
+        if (!standbyFronts.isEmpty()) {
+            initStandby();
+        }
         connThd.start();
     }
 
+    private void initStandby() {
+        if (standby == null) {
+            standby = new CtpTraderSpi(this, spi);
+        }
+        new File(standby.getFlowPath()).mkdirs();
+        var api = CThostFtdcTraderApi.CreateFtdcTraderApi(standby.getFlowPath());
+        standby.setApi(api);
+        if (recorder != null) {
+            recordingStandby = new RecordingTraderSpi(standby, recorder, SessionRecorder.STANDBY_SESSION);
+            api.RegisterSpi(recordingStandby);
+        } else {
+            api.RegisterSpi(standby);
+        }
+        standbyFronts.forEach(api::RegisterFront);
+        api.SubscribePrivateTopic(THOST_TE_RESUME_TYPE.THOST_TERT_RESUME);
+        api.SubscribePublicTopic(THOST_TE_RESUME_TYPE.THOST_TERT_RESUME);
+    }
+
+    private void registerMBean() {
+        try {
+            var name = new ObjectName("com.openglobes.plugin:type=CtpTraderGateway,name="
+                                      + ObjectName.quote(spi.getBrokerId() + "/" + spi.getUserId()
+                                                         + "@" + Integer.toHexString(hashCode())));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(spi.getMetrics(), name);
+            mbeanName = name;
+        } catch (JMException ex) {
+            spi.getHandler().onError(new GatewayRuntimeException(GatewayStatus.UNKNOWN_ERROR, ex.getMessage(), ex));
+        }
+    }
+
+    private void unregisterMBean() {
+        if (mbeanName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbeanName);
+        } catch (JMException ignored) {
+        }
+        mbeanName = null;
+    }
+
     private void terminateThread() {
         if (connThd.isAlive()) {
             connThd.interrupt();
@@ -153,7 +405,46 @@ public class CtpTraderGateway implements ITraderGateway, Runnable {
     }
 
     CThostFtdcTraderApi getApi() {
-        return api;
+        return spi.getApi();
+    }
+
+    void setApi(CThostFtdcTraderApi api) {
+        spi.setApi(api);
+    }
+
+    /**
+     * Sets the API of the standby session in place of a native one.
+     *
+     * @param api standby API.
+     */
+    void setStandbyApi(CThostFtdcTraderApi api) {
+        if (standby == null) {
+            standby = new CtpTraderSpi(this, spi);
+        }
+        standby.setApi(api);
+    }
+
+    CtpTraderSpi getSpi() {
+        return spi;
+    }
+
+    CtpTraderSpi getStandbySpi() {
+        return standby;
+    }
+
+    CtpTraderSpi getActiveSpi() {
+        return active;
+    }
+
+    /**
+     * @return session tag of the session's records.
+     */
+    int sessionOf(AbstractCtpTraderSpi session) {
+        return session == standby ? SessionRecorder.STANDBY_SESSION : SessionRecorder.PRIMARY_SESSION;
+    }
+
+    SessionRecorder getRecorder() {
+        return recorder;
     }
 
     ITraderGatewayHandler getHandler() {
@@ -165,6 +456,21 @@ public class CtpTraderGateway implements ITraderGateway, Runnable {
      */
     @Override
     public void setHandler(ITraderGatewayHandler handler) {
-        spi.setHandler(handler);
+        this.handler = handler;
+        installHandler();
+    }
+
+    private void installHandler() {
+        if (handler == null) {
+            return;
+        }
+        ITraderGatewayHandler h = new FlightRecordedTraderGatewayHandler(handler);
+        if (watchdog != null) {
+            h = new WatchedTraderGatewayHandler(h, watchdog);
+        }
+        if (recorder != null) {
+            h = new RecordingTraderGatewayHandler(h, recorder);
+        }
+        spi.setHandler(h);
     }
 }
@@ -28,27 +28,52 @@ class CtpTraderSpi extends AbstractCtpTraderSpi {
         super(gateway);
     }
 
+    CtpTraderSpi(CtpTraderGateway gateway, CtpTraderSpi primary) {
+        super(gateway, primary);
+    }
+
     @Override
     public void OnErrRtnOrderAction(CThostFtdcOrderActionField rsp,
                                     CThostFtdcRspInfoField info) {
+        getMetrics().callback();
+        var e = new SpiCallbackEvent();
+        e.begin();
         doError(rsp, info);
+        e.end(this, "OnErrRtnOrderAction", rsp, info);
     }
 
     @Override
     public void OnErrRtnOrderInsert(CThostFtdcInputOrderField rsp,
                                     CThostFtdcRspInfoField info) {
+        getMetrics().callback();
+        var e = new SpiCallbackEvent();
+        e.begin();
         doError(rsp, info);
+        e.end(this, "OnErrRtnOrderInsert", rsp, info);
     }
 
     @Override
     public void OnFrontConnected() {
+        getMetrics().callback();
+        var e = new SpiCallbackEvent();
+        e.begin();
+        if (getStatus() != GatewayStatus.NEVER_CONNECTED) {
+            getMetrics().reconnect();
+        }
         setStatus(GatewayStatus.CONNECTED, "Connected.");
         apiAuthenticate();
+        e.end("OnFrontConnected");
     }
 
     @Override
     public void OnFrontDisconnected(int nReason) {
+        getMetrics().callback();
+        var e = new SpiCallbackEvent();
+        e.begin();
+        lost(System.nanoTime());
         setStatus(GatewayStatus.DISCONNECTED, "Disconnected(" + nReason + ").");
+        getGateway().checkActive();
+        e.end("OnFrontDisconnected");
     }
 
     @Override
@@ -56,9 +81,12 @@ class CtpTraderSpi extends AbstractCtpTraderSpi {
                                   CThostFtdcRspInfoField info,
                                   int requestId,
                                   boolean isLast) {
+        getMetrics().callback();
         if (info == null) {
             return;
         }
+        var e = new SpiCallbackEvent();
+        e.begin();
         if (info.getErrorID() != 0) {
             setStatus(GatewayStatus.AUTHENTICATE_FAIL, info.getErrorMsg());
             doError(info);
@@ -66,14 +94,19 @@ class CtpTraderSpi extends AbstractCtpTraderSpi {
             setStatus(GatewayStatus.AUTHENTICATED, info.getErrorMsg());
             apiLogin();
         }
+        e.end("OnRspAuthenticate", info);
     }
 
     @Override
     public void OnRspError(CThostFtdcRspInfoField info,
                            int requestId,
                            boolean isLast) {
+        getMetrics().callback();
+        var e = new SpiCallbackEvent();
+        e.begin();
         setStatus(GatewayStatus.UNKNOWN_ERROR, info.getErrorMsg());
         doError(info);
+        e.end("OnRspError", info);
     }
 
     @Override
@@ -81,7 +114,11 @@ class CtpTraderSpi extends AbstractCtpTraderSpi {
                                  CThostFtdcRspInfoField info,
                                  int requestId,
                                  boolean isLast) {
+        getMetrics().callback();
+        var e = new SpiCallbackEvent();
+        e.begin();
         doError(rsp, info, requestId);
+        e.end(this, "OnRspOrderAction", rsp, info);
     }
 
     @Override
@@ -89,7 +126,11 @@ class CtpTraderSpi extends AbstractCtpTraderSpi {
                                  CThostFtdcRspInfoField info,
                                  int requestId,
                                  boolean isLast) {
+        getMetrics().callback();
+        var e = new SpiCallbackEvent();
+        e.begin();
         doError(rsp, info);
+        e.end(this, "OnRspOrderInsert", rsp, info);
     }
 
     @Override
@@ -97,15 +138,72 @@ class CtpTraderSpi extends AbstractCtpTraderSpi {
                                            CThostFtdcRspInfoField info,
                                            int requestId,
                                            boolean isLast) {
+        getMetrics().callback();
         if (info == null) {
             return;
         }
+        var e = new SpiCallbackEvent();
+        e.begin();
         if (info.getErrorID() != 0) {
             setStatus(GatewayStatus.CONFIRM_FAIL, info.getErrorMsg());
             doError(info);
         } else {
+            lost(0);
             setStatus(GatewayStatus.CONFIRMED, info.getErrorMsg());
+            getGateway().checkActive();
+            if (isActive()) {
+                scheduleQuery(this::apiQueryInstrument, "instruments");
+            }
+        }
+        e.end("OnRspSettlementInfoConfirm", info);
+    }
+
+    @Override
+    public void OnRspQryInstrument(CThostFtdcInstrumentField rsp,
+                                   CThostFtdcRspInfoField info,
+                                   int requestId,
+                                   boolean isLast) {
+        getMetrics().callback();
+        var e = new SpiCallbackEvent();
+        e.begin();
+        if (info != null && info.getErrorID() != 0) {
+            doError(info);
+        } else {
+            doInstrument(rsp, isLast);
+        }
+        e.end("OnRspQryInstrument", info);
+    }
+
+    @Override
+    public void OnRspQryDepthMarketData(CThostFtdcDepthMarketDataField rsp,
+                                        CThostFtdcRspInfoField info,
+                                        int requestId,
+                                        boolean isLast) {
+        getMetrics().callback();
+        var e = new SpiCallbackEvent();
+        e.begin();
+        if (info != null && info.getErrorID() != 0) {
+            doError(info);
+        } else {
+            doDepthMarketData(rsp, isLast);
+        }
+        e.end("OnRspQryDepthMarketData", info);
+    }
+
+    @Override
+    public void OnRspQryInvestorPosition(CThostFtdcInvestorPositionField rsp,
+                                         CThostFtdcRspInfoField info,
+                                         int requestId,
+                                         boolean isLast) {
+        getMetrics().callback();
+        var e = new SpiCallbackEvent();
+        e.begin();
+        if (info != null && info.getErrorID() != 0) {
+            doError(info);
+        } else {
+            doPosition(rsp, isLast);
         }
+        e.end("OnRspQryInvestorPosition", info);
     }
 
     @Override
@@ -113,9 +211,12 @@ class CtpTraderSpi extends AbstractCtpTraderSpi {
                                CThostFtdcRspInfoField info,
                                int requestId,
                                boolean isLast) {
+        getMetrics().callback();
         if (info == null) {
             return;
         }
+        var e = new SpiCallbackEvent();
+        e.begin();
         if (info.getErrorID() != 0) {
             setStatus(GatewayStatus.LOGIN_FAIL, info.getErrorMsg());
             doError(info);
@@ -124,6 +225,7 @@ class CtpTraderSpi extends AbstractCtpTraderSpi {
             setInfo(rsp);
             apiConfirmSettlement();
         }
+        e.end("OnRspUserLogin", info);
     }
 
     @Override
@@ -131,25 +233,46 @@ class CtpTraderSpi extends AbstractCtpTraderSpi {
                                 CThostFtdcRspInfoField info,
                                 int requestId,
                                 boolean isLast) {
+        getMetrics().callback();
         if (info == null) {
             return;
         }
+        var e = new SpiCallbackEvent();
+        e.begin();
         if (info.getErrorID() != 0) {
             setStatus(GatewayStatus.LOGOUT_FAIL, info.getErrorMsg());
             doError(info);
         } else {
             setStatus(GatewayStatus.LOGOUT, info.getErrorMsg());
         }
+        e.end("OnRspUserLogout", info);
+    }
+
+    @Override
+    public void OnRtnInstrumentStatus(CThostFtdcInstrumentStatusField status) {
+        getMetrics().callback();
+        var e = new SpiCallbackEvent();
+        e.begin();
+        doInstrumentStatus(status);
+        e.end("OnRtnInstrumentStatus");
     }
 
     @Override
     public void OnRtnOrder(CThostFtdcOrderField order) {
+        getMetrics().callback();
+        var e = new SpiCallbackEvent();
+        e.begin();
         doOrder(order);
+        e.end(this, order);
     }
 
     @Override
     public void OnRtnTrade(CThostFtdcTradeField trade) {
+        getMetrics().callback();
+        var e = new SpiCallbackEvent();
+        e.begin();
         doTrade(trade);
+        e.end(this, trade);
     }
 
 }
@@ -0,0 +1,367 @@
+/*
+ * Copyright (C) 2021 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.plugin;
+
+import org.ctp4j.CThostFtdcRspUserLoginField;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Time source of the gateway with exchange clock offset estimation.
+ * <p>
+ * Local time is read from the monotonic clock anchored to the wall clock, so
+ * reading it is cheap and consistent. The offset of each exchange's clock is
+ * estimated from the exchange times of login, and then from the update times
+ * of orders and trades. An exchange time is seconds truncated and later than
+ * the event, so {@code exchange time - receipt time} is a lower bound of the
+ * offset. The estimate keeps the largest bound and decays a millisecond per
+ * second elapsed since the last sample to follow clock adjustments, so a
+ * burst of samples doesn't wear it down. A sample too far from the broker's offset, like the time
+ * of an order replayed by a resumed private topic, is not a fresh event and
+ * is ignored.
+ * <p>
+ * CTP day and time strings are mapped to epoch nanoseconds with cached day
+ * bases. Night session times are reported with the trading day by some
+ * exchanges, so a night time on the current trading day is placed on the
+ * date nearest to the exchange's current time, but never in its future.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+public class ExchangeClock {
+
+    public static final ZoneId CHINA = ZoneId.of("Asia/Shanghai");
+    private static final long SECOND = 1_000_000_000L;
+    private static final long DAY = 86_400L * SECOND;
+    private static final long HALF_DAY = DAY / 2;
+    private static final long DECAY_RATIO = 1000L;
+    private static final long MAX_SKEW_NANOS = 60L * SECOND;
+    private static final int NIGHT_START = 18 * 3600;
+    private static final int NIGHT_END = 6 * 3600;
+    private final Offset broker;
+    private final LongSupplier epochNanos;
+    private final Map<String, Offset> offsets;
+    private final ZoneId zone;
+    private volatile DayBase lastDay;
+    private volatile DayBase prevDay;
+    private volatile int tradingDay;
+    private volatile long zoneOffsetNanos;
+
+    public ExchangeClock() {
+        this(CHINA);
+    }
+
+    public ExchangeClock(ZoneId zone) {
+        this(zone, new MonotonicEpochClock());
+    }
+
+    ExchangeClock(ZoneId zone, LongSupplier epochNanos) {
+        this.zone = zone;
+        this.epochNanos = epochNanos;
+        offsets = new ConcurrentHashMap<>();
+        broker = new Offset();
+        updateZoneOffset();
+    }
+
+    /**
+     * Parses {@code HH:mm:ss}.
+     *
+     * @return seconds of day, or -1 if the time is blank or malformed.
+     */
+    static int parseTime(String time) {
+        if (time == null || time.length() != 8 || time.charAt(2) != ':' || time.charAt(5) != ':') {
+            return -1;
+        }
+        var h = digits(time, 0, 2);
+        var m = digits(time, 3, 5);
+        var s = digits(time, 6, 8);
+        if (h < 0 || m < 0 || s < 0) {
+            return -1;
+        }
+        return (h * 60 + m) * 60 + s;
+    }
+
+    /**
+     * Parses {@code yyyyMMdd}.
+     *
+     * @return day as integer, or -1 if the day is blank or malformed.
+     */
+    static int parseDay(String day) {
+        if (day == null || day.length() != 8) {
+            return -1;
+        }
+        return digits(day, 0, 8);
+    }
+
+    private static int digits(String s, int from, int to) {
+        var v = 0;
+        for (int i = from; i < to; ++i) {
+            var c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            v = v * 10 + (c - '0');
+        }
+        return v;
+    }
+
+    public ZoneId getZone() {
+        return zone;
+    }
+
+    /**
+     * @return local time in epoch nanoseconds.
+     */
+    public long nowNanos() {
+        return epochNanos.getAsLong();
+    }
+
+    public ZonedDateTime now() {
+        return toZoned(nowNanos());
+    }
+
+    /**
+     * @return local calendar day in the clock's zone.
+     */
+    public LocalDate today() {
+        return LocalDate.ofEpochDay(Math.floorDiv(nowNanos() + zoneOffsetNanos, DAY));
+    }
+
+    /**
+     * @param exchangeId exchange ID, or {@code null} for the broker's clock.
+     * @return estimated offset of the exchange's clock from local time.
+     */
+    public long getOffsetNanos(String exchangeId) {
+        return offset(exchangeId).nanos;
+    }
+
+    /**
+     * @param exchangeId exchange ID.
+     * @return estimated exchange time in epoch nanoseconds.
+     */
+    public long exchangeNanos(String exchangeId) {
+        return nowNanos() + offset(exchangeId).nanos;
+    }
+
+    /**
+     * Restarts the estimation with the exchange times of a login.
+     *
+     * @param rsp login response.
+     */
+    public void onLogin(CThostFtdcRspUserLoginField rsp) {
+        updateZoneOffset();
+        tradingDay = parseDay(rsp.getTradingDay());
+        broker.calibrated = false;
+        offsets.values().forEach(o -> o.calibrated = false);
+        sample(null, rsp.getLoginTime());
+        sample("SHFE", rsp.getSHFETime());
+        sample("DCE", rsp.getDCETime());
+        sample("CZCE", rsp.getCZCETime());
+        sample("CFFEX", rsp.getFFEXTime());
+        sample("INE", rsp.getINETime());
+    }
+
+    /**
+     * Updates the offset estimate of an exchange with a time just received
+     * from it. Once the broker's offset is known from login, an exchange
+     * time more than a minute off it is ignored.
+     *
+     * @param exchangeId exchange ID, or {@code null} for the broker's clock.
+     * @param time       exchange time in {@code HH:mm:ss}.
+     */
+    public void sample(String exchangeId, String time) {
+        sample(exchangeId, time, 0);
+    }
+
+    /**
+     * Updates the offset estimate of an exchange with a time of millisecond
+     * precision, like the update time of a tick.
+     *
+     * @param exchangeId exchange ID, or {@code null} for the broker's clock.
+     * @param time       exchange time in {@code HH:mm:ss}.
+     * @param millis     milliseconds of the time.
+     */
+    public void sample(String exchangeId, String time, int millis) {
+        var secs = parseTime(time);
+        if (secs < 0) {
+            return;
+        }
+        var local = Math.floorMod(nowNanos() + zoneOffsetNanos, DAY);
+        var s = secs * SECOND + millis * 1_000_000L - local;
+        if (s >= HALF_DAY) {
+            s -= DAY;
+        } else if (s < -HALF_DAY) {
+            s += DAY;
+        }
+        var now = nowNanos();
+        if (exchangeId == null) {
+            broker.update(s, now);
+        } else if (!broker.calibrated || Math.abs(s - broker.nanos) <= MAX_SKEW_NANOS) {
+            offsets.computeIfAbsent(exchangeId, k -> new Offset()).update(s, now);
+        }
+    }
+
+    /**
+     * @param tradingDay current trading day in {@code yyyyMMdd}.
+     */
+    public void setTradingDay(String tradingDay) {
+        this.tradingDay = parseDay(tradingDay);
+    }
+
+    /**
+     * Maps an exchange day and time to epoch nanoseconds.
+     *
+     * @param exchangeId exchange ID.
+     * @param day        day in {@code yyyyMMdd}, may be {@code null}.
+     * @param time       time in {@code HH:mm:ss}.
+     * @return exchange time in epoch nanoseconds, or the local time if the
+     * time is blank.
+     */
+    public long toEpochNanos(String exchangeId, String day, String time) {
+        var secs = parseTime(time);
+        if (secs < 0) {
+            return nowNanos();
+        }
+        var d = parseDay(day);
+        if (d < 0 || (d == tradingDay && (secs >= NIGHT_START || secs < NIGHT_END))) {
+            return nearest(exchangeId, secs);
+        }
+        return dayBase(d).nanos + secs * SECOND;
+    }
+
+    public ZonedDateTime toZoned(long epochNanos) {
+        return Instant.ofEpochSecond(Math.floorDiv(epochNanos, SECOND), Math.floorMod(epochNanos, SECOND))
+                      .atZone(zone);
+    }
+
+    /**
+     * @param day day in {@code yyyyMMdd}.
+     * @return cached local date of the day.
+     */
+    public LocalDate toDay(String day) {
+        var d = parseDay(day);
+        if (d < 0) {
+            throw new IllegalArgumentException("Invalid day " + day + ".");
+        }
+        return dayBase(d).date;
+    }
+
+    private long nearest(String exchangeId, int secs) {
+        var now = exchangeNanos(exchangeId);
+        var midnight = now - Math.floorMod(now + zoneOffsetNanos, DAY);
+        var t = midnight + secs * SECOND;
+        var diff = t - now;
+        if (diff > HALF_DAY) {
+            t -= DAY;
+        } else if (diff < -HALF_DAY) {
+            t += DAY;
+        }
+        /*
+         * An event has happened already, like an order of last night
+         * replayed in the afternoon.
+         */
+        if (t - now > MAX_SKEW_NANOS) {
+            t -= DAY;
+        }
+        return t;
+    }
+
+    private Offset offset(String exchangeId) {
+        if (exchangeId == null) {
+            return broker;
+        }
+        var o = offsets.get(exchangeId);
+        return o != null && o.calibrated ? o : broker;
+    }
+
+    private DayBase dayBase(int day) {
+        var b = lastDay;
+        if (b != null && b.day == day) {
+            return b;
+        }
+        b = prevDay;
+        if (b != null && b.day == day) {
+            return b;
+        }
+        var date = LocalDate.of(day / 10000, day / 100 % 100, day % 100);
+        b = new DayBase(day, date, date.atStartOfDay(zone).toEpochSecond() * SECOND);
+        prevDay = lastDay;
+        lastDay = b;
+        return b;
+    }
+
+    private void updateZoneOffset() {
+        zoneOffsetNanos = zone.getRules().getOffset(Instant.ofEpochSecond(nowNanos() / SECOND))
+                              .getTotalSeconds() * SECOND;
+    }
+
+    private static class DayBase {
+
+        private final LocalDate date;
+        private final int day;
+        private final long nanos;
+
+        DayBase(int day, LocalDate date, long nanos) {
+            this.day = day;
+            this.date = date;
+            this.nanos = nanos;
+        }
+    }
+
+    private static class Offset {
+
+        private volatile boolean calibrated;
+        private long lastNanos;
+        private volatile long nanos;
+
+        synchronized void update(long sample, long now) {
+            if (!calibrated) {
+                nanos = sample;
+                calibrated = true;
+            } else {
+                /*
+                 * A millisecond per second elapsed.
+                 */
+                nanos = Math.max(sample, nanos - Math.max(0, now - lastNanos) / DECAY_RATIO);
+            }
+            lastNanos = now;
+        }
+    }
+
+    private static class MonotonicEpochClock implements LongSupplier {
+
+        private final long baseEpochNanos;
+        private final long baseNanos;
+
+        MonotonicEpochClock() {
+            var now = Instant.now();
+            baseEpochNanos = now.getEpochSecond() * SECOND + now.getNano();
+            baseNanos = System.nanoTime();
+        }
+
+        @Override
+        public long getAsLong() {
+            return baseEpochNanos + (System.nanoTime() - baseNanos);
+        }
+    }
+}
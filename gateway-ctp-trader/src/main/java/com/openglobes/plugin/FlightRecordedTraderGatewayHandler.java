@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2021 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.plugin;
+
+import com.openglobes.core.GatewayRuntimeException;
+import com.openglobes.core.ServiceRuntimeStatus;
+import com.openglobes.core.trader.ITraderGatewayHandler;
+import com.openglobes.core.trader.Response;
+import com.openglobes.core.trader.Trade;
+
+/**
+ * Emits a {@link HandlerDispatchEvent} for every handler invocation.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+class FlightRecordedTraderGatewayHandler implements ITraderGatewayHandler {
+
+    private final ITraderGatewayHandler handler;
+
+    FlightRecordedTraderGatewayHandler(ITraderGatewayHandler handler) {
+        this.handler = handler;
+    }
+
+    @Override
+    public void onTrade(Trade trade) {
+        var e = new HandlerDispatchEvent();
+        e.begin();
+        try {
+            handler.onTrade(trade);
+        } finally {
+            e.end("onTrade", trade.getOrderId());
+        }
+    }
+
+    @Override
+    public void onResponse(Response response) {
+        var e = new HandlerDispatchEvent();
+        e.begin();
+        try {
+            handler.onResponse(response);
+        } finally {
+            e.end("onResponse", response.getOrderId());
+        }
+    }
+
+    @Override
+    public void onError(GatewayRuntimeException error) {
+        var e = new HandlerDispatchEvent();
+        e.begin();
+        try {
+            handler.onError(error);
+        } finally {
+            e.end("onError", null);
+        }
+    }
+
+    @Override
+    public void onStatusChange(ServiceRuntimeStatus status) {
+        var e = new HandlerDispatchEvent();
+        e.begin();
+        try {
+            handler.onStatusChange(status);
+        } finally {
+            e.end("onStatusChange", null);
+        }
+    }
+}
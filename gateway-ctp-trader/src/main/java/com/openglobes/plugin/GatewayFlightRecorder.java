@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2021 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.plugin;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.time.Duration;
+
+/**
+ * Access to the flight recorder settings of the gateway events.
+ * <p>
+ * All gateway events are disabled by default. The settings profile
+ * {@code ctp-gateway.jfc}, a classpath resource of the module jar, enables
+ * them. To pass it to {@code -XX:StartFlightRecording}, extract it to a file
+ * first.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+public class GatewayFlightRecorder {
+
+    public static final String SETTINGS = "/ctp-gateway.jfc";
+    private static final String[] EVENTS = {
+            "com.openglobes.ctp.Insert",
+            "com.openglobes.ctp.ApiRequest",
+            "com.openglobes.ctp.SpiCallback",
+            "com.openglobes.ctp.HandlerDispatch",
+            "com.openglobes.ctp.StatusChange"
+    };
+
+    private GatewayFlightRecorder() {
+    }
+
+    /**
+     * @return configuration enabling the gateway events only.
+     * @throws IOException    if the settings can't be read.
+     * @throws ParseException if the settings are malformed.
+     */
+    public static Configuration getConfiguration() throws IOException, ParseException {
+        var in = GatewayFlightRecorder.class.getResourceAsStream(SETTINGS);
+        if (in == null) {
+            throw new IOException("Flight recorder settings not found: " + SETTINGS + ".");
+        }
+        try (var reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+            return Configuration.create(reader);
+        }
+    }
+
+    /**
+     * Enables the gateway events on a recording, so they are recorded along
+     * with the events of its configuration, like GC pauses and safepoints.
+     *
+     * @param recording recording to enable events on.
+     */
+    public static void enable(Recording recording) {
+        for (var e : EVENTS) {
+            recording.enable(e).withThreshold(Duration.ZERO).withoutStackTrace();
+        }
+    }
+}
@@ -0,0 +1,300 @@
+/*
+ * Copyright (C) 2021 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.plugin;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runtime counters and gauges of a gateway.
+ * <p>
+ * Counters are striped so recording from the strategy and callback threads
+ * doesn't contend. Gauges are read from the gateway when asked for.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+public class GatewayMetrics implements CtpTraderGatewayMXBean {
+
+    private static final long RATE_INTERVAL_NANOS = 1_000_000_000L;
+    private final Map<Integer, LongAdder> apiErrors;
+    private final LongAdder callbacks;
+    private final LongAdder cancels;
+    private final LongAdder collisions;
+    private final LongAdder duplicateTrades;
+    private final LongAdder inserts;
+    private final LongAdder localRejects;
+    private final LongAdder missed;
+    private final LongAdder reconnects;
+    private final LongAdder rejects;
+    private final LatencyHistogram sendLatency;
+    private final LongAdder sendQueueFull;
+    private final AbstractCtpTraderSpi spi;
+    private final LongAdder switchovers;
+    private long lastCallbacks;
+    private double lastRate;
+    private long lastSampleNanos;
+    private volatile long lastSwitchoverNanos;
+
+    GatewayMetrics(AbstractCtpTraderSpi spi) {
+        this.spi = spi;
+        apiErrors = new ConcurrentHashMap<>();
+        callbacks = new LongAdder();
+        cancels = new LongAdder();
+        collisions = new LongAdder();
+        duplicateTrades = new LongAdder();
+        inserts = new LongAdder();
+        localRejects = new LongAdder();
+        missed = new LongAdder();
+        reconnects = new LongAdder();
+        rejects = new LongAdder();
+        sendLatency = new LatencyHistogram();
+        sendQueueFull = new LongAdder();
+        switchovers = new LongAdder();
+        lastSampleNanos = System.nanoTime();
+    }
+
+    void insert() {
+        inserts.increment();
+    }
+
+    void cancel() {
+        cancels.increment();
+    }
+
+    void reject() {
+        rejects.increment();
+    }
+
+    void localReject() {
+        localRejects.increment();
+    }
+
+    void apiError(int code) {
+        apiErrors.computeIfAbsent(code, k -> new LongAdder()).increment();
+    }
+
+    void missed() {
+        missed.increment();
+    }
+
+    void collision() {
+        collisions.increment();
+    }
+
+    void duplicateTrade() {
+        duplicateTrades.increment();
+    }
+
+    void sendQueueFull() {
+        sendQueueFull.increment();
+    }
+
+    void sent(long nanos) {
+        sendLatency.record(nanos);
+    }
+
+    void reconnect() {
+        reconnects.increment();
+    }
+
+    void switchover(long nanos) {
+        lastSwitchoverNanos = nanos;
+        switchovers.increment();
+    }
+
+    void callback() {
+        callbacks.increment();
+    }
+
+    /**
+     * @return latency from handing a request to the {@link OrderSender} to
+     * the return of its API call.
+     */
+    public LatencyHistogram getSendLatency() {
+        return sendLatency;
+    }
+
+    /**
+     * Takes a point-in-time copy of all counters and gauges, for monitoring
+     * without JMX. Each value is read on its own, so the copy is not atomic
+     * across counters.
+     *
+     * @return metrics snapshot.
+     */
+    public GatewayMetricsSnapshot snapshot() {
+        return new GatewayMetricsSnapshot(this);
+    }
+
+    @Override
+    public long getInsertCount() {
+        return inserts.sum();
+    }
+
+    @Override
+    public long getCancelCount() {
+        return cancels.sum();
+    }
+
+    @Override
+    public long getRejectCount() {
+        return rejects.sum();
+    }
+
+    @Override
+    public long getLocalRejectCount() {
+        return localRejects.sum();
+    }
+
+    @Override
+    public Map<Integer, Long> getApiErrorCounts() {
+        var r = new ConcurrentHashMap<Integer, Long>();
+        apiErrors.forEach((code, n) -> r.put(code, n.sum()));
+        return r;
+    }
+
+    @Override
+    public long getInternalMissedCount() {
+        return missed.sum();
+    }
+
+    @Override
+    public long getInternalCollisionCount() {
+        return collisions.sum();
+    }
+
+    @Override
+    public long getReconnectCount() {
+        return reconnects.sum();
+    }
+
+    @Override
+    public long getSendQueueFullCount() {
+        return sendQueueFull.sum();
+    }
+
+    @Override
+    public long getSendLatencyMedianNanos() {
+        return sendLatency.getPercentile(50);
+    }
+
+    @Override
+    public long getSendLatency99Nanos() {
+        return sendLatency.getPercentile(99);
+    }
+
+    @Override
+    public long getSendLatencyMaxNanos() {
+        return sendLatency.getMax();
+    }
+
+    @Override
+    public long getDuplicateTradeCount() {
+        return duplicateTrades.sum();
+    }
+
+    @Override
+    public long getSwitchoverCount() {
+        return switchovers.sum();
+    }
+
+    /**
+     * @return time from losing the active session to sending through the
+     * standby, of the last switchover.
+     */
+    @Override
+    public long getLastSwitchoverNanos() {
+        return lastSwitchoverNanos;
+    }
+
+    @Override
+    public long getCallbackCount() {
+        return callbacks.sum();
+    }
+
+    /**
+     * Rate is sampled at most once a second, over the time between the last
+     * two samples.
+     *
+     * @return callbacks per second.
+     */
+    @Override
+    public synchronized double getCallbacksPerSecond() {
+        var now = System.nanoTime();
+        var elapsed = now - lastSampleNanos;
+        if (elapsed >= RATE_INTERVAL_NANOS) {
+            var n = callbacks.sum();
+            lastRate = (n - lastCallbacks) * 1_000_000_000D / elapsed;
+            lastCallbacks = n;
+            lastSampleNanos = now;
+        }
+        return lastRate;
+    }
+
+    /**
+     * @return requests kept for correlation in the current and the previous
+     * trading day, finished or not.
+     */
+    @Override
+    public int getRequestMapSize() {
+        return spi.getRequestCount();
+    }
+
+    /**
+     * @return requests sent and not yet all traded, deleted or rejected.
+     */
+    @Override
+    public int getLiveRequestCount() {
+        return spi.getLiveRequestCount();
+    }
+
+    @Override
+    public int getOrderRefMapSize() {
+        return spi.getOrderRefCount();
+    }
+
+    @Override
+    public int getOrderSysIdMapSize() {
+        return spi.getOrderSysIdCount();
+    }
+
+    @Override
+    public int getSysIdOrderIdMapSize() {
+        return spi.getSysIdOrderIdCount();
+    }
+
+    @Override
+    public int getTradeKeyCount() {
+        return spi.getTradeKeyCount();
+    }
+
+    @Override
+    public long getNativeInitNanos() {
+        return CtpNativeBootstrap.getInitNanos();
+    }
+
+    @Override
+    public int getStatus() {
+        return spi.getActiveSpi().getStatus();
+    }
+
+    @Override
+    public int getLastOrderRef() {
+        return spi.getActiveSpi().getLastOrderRef();
+    }
+}
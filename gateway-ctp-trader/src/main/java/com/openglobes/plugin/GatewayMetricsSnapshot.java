@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2021 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.plugin;
+
+import java.util.Map;
+
+/**
+ * Point-in-time copy of {@link GatewayMetrics}.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+public class GatewayMetricsSnapshot {
+
+    private final Map<Integer, Long> apiErrorCounts;
+    private final long callbackCount;
+    private final double callbacksPerSecond;
+    private final long cancelCount;
+    private final long duplicateTradeCount;
+    private final long insertCount;
+    private final long nativeInitNanos;
+    private final long internalCollisionCount;
+    private final long internalMissedCount;
+    private final int lastOrderRef;
+    private final int liveRequestCount;
+    private final long lastSwitchoverNanos;
+    private final long localRejectCount;
+    private final int orderRefMapSize;
+    private final int orderSysIdMapSize;
+    private final long reconnectCount;
+    private final long rejectCount;
+    private final int requestMapSize;
+    private final long sendLatency99Nanos;
+    private final long sendLatencyMaxNanos;
+    private final long sendLatencyMedianNanos;
+    private final long sendQueueFullCount;
+    private final int status;
+    private final long switchoverCount;
+    private final int sysIdOrderIdMapSize;
+    private final int tradeKeyCount;
+    private final long timestampNanos;
+
+    GatewayMetricsSnapshot(GatewayMetrics m) {
+        timestampNanos = System.nanoTime();
+        insertCount = m.getInsertCount();
+        cancelCount = m.getCancelCount();
+        rejectCount = m.getRejectCount();
+        localRejectCount = m.getLocalRejectCount();
+        apiErrorCounts = Map.copyOf(m.getApiErrorCounts());
+        internalMissedCount = m.getInternalMissedCount();
+        internalCollisionCount = m.getInternalCollisionCount();
+        reconnectCount = m.getReconnectCount();
+        duplicateTradeCount = m.getDuplicateTradeCount();
+        sendQueueFullCount = m.getSendQueueFullCount();
+        switchoverCount = m.getSwitchoverCount();
+        lastSwitchoverNanos = m.getLastSwitchoverNanos();
+        sendLatencyMedianNanos = m.getSendLatencyMedianNanos();
+        sendLatency99Nanos = m.getSendLatency99Nanos();
+        sendLatencyMaxNanos = m.getSendLatencyMaxNanos();
+        callbackCount = m.getCallbackCount();
+        callbacksPerSecond = m.getCallbacksPerSecond();
+        requestMapSize = m.getRequestMapSize();
+        liveRequestCount = m.getLiveRequestCount();
+        orderRefMapSize = m.getOrderRefMapSize();
+        orderSysIdMapSize = m.getOrderSysIdMapSize();
+        sysIdOrderIdMapSize = m.getSysIdOrderIdMapSize();
+        tradeKeyCount = m.getTradeKeyCount();
+        nativeInitNanos = m.getNativeInitNanos();
+        status = m.getStatus();
+        lastOrderRef = m.getLastOrderRef();
+    }
+
+    public long getTimestampNanos() {
+        return timestampNanos;
+    }
+
+    public long getInsertCount() {
+        return insertCount;
+    }
+
+    public long getCancelCount() {
+        return cancelCount;
+    }
+
+    public long getRejectCount() {
+        return rejectCount;
+    }
+
+    public long getLocalRejectCount() {
+        return localRejectCount;
+    }
+
+    public Map<Integer, Long> getApiErrorCounts() {
+        return apiErrorCounts;
+    }
+
+    public long getInternalMissedCount() {
+        return internalMissedCount;
+    }
+
+    public long getInternalCollisionCount() {
+        return internalCollisionCount;
+    }
+
+    public long getReconnectCount() {
+        return reconnectCount;
+    }
+
+    public long getDuplicateTradeCount() {
+        return duplicateTradeCount;
+    }
+
+    public long getSendQueueFullCount() {
+        return sendQueueFullCount;
+    }
+
+    public long getSwitchoverCount() {
+        return switchoverCount;
+    }
+
+    public long getLastSwitchoverNanos() {
+        return lastSwitchoverNanos;
+    }
+
+    public long getSendLatencyMedianNanos() {
+        return sendLatencyMedianNanos;
+    }
+
+    public long getSendLatency99Nanos() {
+        return sendLatency99Nanos;
+    }
+
+    public long getSendLatencyMaxNanos() {
+        return sendLatencyMaxNanos;
+    }
+
+    public long getCallbackCount() {
+        return callbackCount;
+    }
+
+    public double getCallbacksPerSecond() {
+        return callbacksPerSecond;
+    }
+
+    public int getRequestMapSize() {
+        return requestMapSize;
+    }
+
+    public int getLiveRequestCount() {
+        return liveRequestCount;
+    }
+
+    public int getOrderRefMapSize() {
+        return orderRefMapSize;
+    }
+
+    public int getOrderSysIdMapSize() {
+        return orderSysIdMapSize;
+    }
+
+    public int getSysIdOrderIdMapSize() {
+        return sysIdOrderIdMapSize;
+    }
+
+    public int getTradeKeyCount() {
+        return tradeKeyCount;
+    }
+
+    public long getNativeInitNanos() {
+        return nativeInitNanos;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public int getLastOrderRef() {
+        return lastOrderRef;
+    }
+
+    @Override
+    public String toString() {
+        return "inserts=" + insertCount + ", cancels=" + cancelCount + ", rejects=" + rejectCount
+               + ", localRejects=" + localRejectCount + ", apiErrors=" + apiErrorCounts
+               + ", missed=" + internalMissedCount
+               + ", collisions=" + internalCollisionCount + ", reconnects=" + reconnectCount
+               + ", duplicateTrades=" + duplicateTradeCount + ", sendQueueFull=" + sendQueueFullCount
+               + ", switchovers=" + switchoverCount + ", lastSwitchoverNanos=" + lastSwitchoverNanos
+               + ", sendLatency(p50/p99/max ns)=" + sendLatencyMedianNanos + "/" + sendLatency99Nanos
+               + "/" + sendLatencyMaxNanos
+               + ", callbacks=" + callbackCount + String.format(", callbacks/s=%.1f", callbacksPerSecond)
+               + ", requests=" + requestMapSize + ", liveRequests=" + liveRequestCount
+               + ", orderRefs=" + orderRefMapSize
+               + ", orderSysIds=" + orderSysIdMapSize + ", sysIdOrderIds=" + sysIdOrderIdMapSize
+               + ", tradeKeys=" + tradeKeyCount
+               + ", nativeInitNanos=" + nativeInitNanos + ", status=" + status + ", lastOrderRef=" + lastOrderRef;
+    }
+}
@@ -38,4 +38,15 @@ public class GatewayStatus {
     public static int INTERNAL_COLLISION = 13;
     public static int INTERNAL_UNCAUGHT = 14;
     public static int UNKNOWN_ERROR = 15;
+    public static int SEND_QUEUE_FULL = 16;
+    public static int NATIVE_LOAD_FAIL = 17;
+    public static int INSTRUMENT_NOT_TRADING = 18;
+    public static int INVALID_VOLUME = 19;
+    public static int INVALID_PRICE_TICK = 20;
+    public static int PRICE_OUT_OF_LIMIT = 21;
+    public static int INSUFFICIENT_POSITION = 22;
+    public static int QUERY_FAIL = 23;
+    public static int SIDECAR_NOT_ATTACHED = 24;
+    public static int SIDECAR_EVENTS_DROPPED = 25;
+    public static int SENDER_STOP_TIMEOUT = 26;
 }
@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2021 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.plugin;
+
+import jdk.jfr.*;
+
+/**
+ * Flight recorder event of a handler invocation.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+@Name("com.openglobes.ctp.HandlerDispatch")
+@Label("Handler Dispatch")
+@Category({"OpenGlobes", "CTP Trader Gateway"})
+@Description("Invocation of the gateway handler")
+@Enabled(false)
+@StackTrace(false)
+class HandlerDispatchEvent extends Event {
+
+    @Label("Callback")
+    String callback;
+
+    @Label("Order ID")
+    long orderId;
+
+    void end(String callback, Long orderId) {
+        if (shouldCommit()) {
+            this.callback = callback;
+            this.orderId = orderId == null ? 0 : orderId;
+            commit();
+        }
+    }
+}
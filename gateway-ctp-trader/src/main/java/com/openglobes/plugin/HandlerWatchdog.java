@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2021 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.plugin;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Times handler invocations and reports the ones exceeding a budget.
+ * <p>
+ * Every invocation is recorded in a latency histogram of its callback type.
+ * An invocation longer than the budget raises a {@link SlowHandlerEvent} when
+ * it returns. With stack capture enabled, a sampling thread also checks the
+ * running invocations, captures the stack of an overrunning handler and
+ * raises an unfinished event right away, so a handler that never returns is
+ * still reported. An invocation reported while running is not reported again
+ * when it returns, and neither is one whose nested invocation was reported.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+public class HandlerWatchdog implements Runnable {
+
+    public static final int RESPONSE = 0;
+    public static final int TRADE = 1;
+    public static final int ERROR = 2;
+    public static final int STATUS = 3;
+    private static final int TYPE_COUNT = 4;
+    private static final String[] NAMES = {"RESPONSE", "TRADE", "ERROR", "STATUS"};
+    private final long budgetNanos;
+    private final boolean captureStacks;
+    private final LatencyHistogram[] latencies;
+    private final ThreadLocal<Invocation> local;
+    private final ISlowHandlerListener listener;
+    private final CopyOnWriteArrayList<Invocation> running;
+    private final Thread sampler;
+    private volatile boolean stopped;
+
+    /**
+     * @param budgetNanos   longest time a handler invocation may take.
+     * @param captureStacks {@code true} to sample stacks of overrunning
+     *                      handlers from a background thread.
+     * @param listener      listener of slow invocations.
+     */
+    public HandlerWatchdog(long budgetNanos, boolean captureStacks, ISlowHandlerListener listener) {
+        this.budgetNanos = budgetNanos;
+        this.captureStacks = captureStacks;
+        this.listener = listener;
+        latencies = new LatencyHistogram[TYPE_COUNT];
+        for (int i = 0; i < TYPE_COUNT; ++i) {
+            latencies[i] = new LatencyHistogram();
+        }
+        running = new CopyOnWriteArrayList<>();
+        local = ThreadLocal.withInitial(() -> {
+            var inv = new Invocation(Thread.currentThread());
+            running.add(inv);
+            return inv;
+        });
+        sampler = new Thread(this, "ctp-handler-watchdog");
+        sampler.setDaemon(true);
+    }
+
+    /**
+     * @param callbackType handler callback type.
+     * @return name of the callback type.
+     */
+    public static String name(int callbackType) {
+        return callbackType >= 0 && callbackType < TYPE_COUNT ? NAMES[callbackType] : "UNKNOWN";
+    }
+
+    public long getBudgetNanos() {
+        return budgetNanos;
+    }
+
+    /**
+     * @param callbackType handler callback type.
+     * @return latency distribution of the callback type.
+     */
+    public LatencyHistogram getLatencies(int callbackType) {
+        return latencies[callbackType];
+    }
+
+    public void start() {
+        if (captureStacks) {
+            sampler.start();
+        }
+    }
+
+    public void close() {
+        stopped = true;
+        sampler.interrupt();
+    }
+
+    @Override
+    public void run() {
+        var period = Math.max(budgetNanos / 2, 1_000_000L);
+        while (!stopped) {
+            try {
+                Thread.sleep(period / 1_000_000L, (int) (period % 1_000_000L));
+            } catch (InterruptedException ex) {
+                return;
+            }
+            sample();
+        }
+    }
+
+    long enter(int callbackType, Long orderId) {
+        var inv = local.get();
+        var now = System.nanoTime();
+        if (inv.depth++ == 0) {
+            inv.type = callbackType;
+            inv.orderId = orderId;
+            inv.start = now;
+            /*
+             * Publishes the invocation to the sampler after its fields.
+             */
+            inv.seq = inv.seq + 1;
+        }
+        return now;
+    }
+
+    void exit(int callbackType, Long orderId, long start) {
+        var inv = local.get();
+        var duration = System.nanoTime() - start;
+        /*
+         * A nested invocation claims its outer one, so a stall is reported
+         * once.
+         */
+        var seq = inv.seq;
+        if (--inv.depth == 0) {
+            inv.start = 0;
+            inv.seq = seq + 1;
+        }
+        latencies[callbackType].record(duration);
+        if (duration > budgetNanos && inv.claim(seq)) {
+            raise(new SlowHandlerEvent(callbackType, orderId, duration, inv.thread.getName(), null, true));
+        }
+    }
+
+    private void sample() {
+        var now = System.nanoTime();
+        for (var inv : running) {
+            if (!inv.thread.isAlive()) {
+                running.remove(inv);
+                continue;
+            }
+            /*
+             * An odd sequence number is a running invocation, and it changes
+             * on both enter and exit.
+             */
+            var seq = inv.seq;
+            var start = inv.start;
+            var type = inv.type;
+            var orderId = inv.orderId;
+            if ((seq & 1) == 0 || now - start <= budgetNanos || inv.reported.get() >= seq) {
+                continue;
+            }
+            var stack = inv.thread.getStackTrace();
+            /*
+             * Discard the stack if the invocation has returned meanwhile, or
+             * has reported itself on return.
+             */
+            if (inv.seq != seq || !inv.claim(seq)) {
+                continue;
+            }
+            raise(new SlowHandlerEvent(type, orderId, now - start, inv.thread.getName(), stack, false));
+        }
+    }
+
+    private void raise(SlowHandlerEvent event) {
+        try {
+            listener.onSlowHandler(event);
+        } catch (Throwable ignored) {
+        }
+    }
+
+    private static class Invocation {
+
+        private final Thread thread;
+        private final AtomicLong reported = new AtomicLong(-1L);
+        private int depth;
+        private volatile Long orderId;
+        private volatile long seq;
+        private volatile long start;
+        private volatile int type;
+
+        Invocation(Thread thread) {
+            this.thread = thread;
+        }
+
+        /**
+         * Reports an invocation once, by the sampler or on return, whichever
+         * comes first.
+         */
+        boolean claim(long seq) {
+            return reported.getAndAccumulate(seq, Math::max) < seq;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2021 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.plugin;
+
+import com.openglobes.core.trader.Request;
+import jdk.jfr.*;
+
+/**
+ * Flight recorder event of {@link CtpTraderGateway#insert(Request)}.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+@Name("com.openglobes.ctp.Insert")
+@Label("Gateway Insert")
+@Category({"OpenGlobes", "CTP Trader Gateway"})
+@Description("Local request handled by the gateway, including translation and the API call")
+@Enabled(false)
+@StackTrace(false)
+class InsertEvent extends Event {
+
+    @Label("Action")
+    int action;
+
+    @Label("Order ID")
+    long orderId;
+
+    @Label("Order Ref")
+    String orderRef;
+
+    @Label("Instrument")
+    String instrumentId;
+
+    @Label("Return Code")
+    int returnCode;
+
+    void end(AbstractCtpTraderSpi session, Request request, int returnCode) {
+        if (shouldCommit()) {
+            action = request.getAction() == null ? 0 : request.getAction();
+            orderId = request.getOrderId() == null ? 0 : request.getOrderId();
+            orderRef = session.findOrderRef(request.getOrderId());
+            instrumentId = request.getInstrumentId();
+            this.returnCode = returnCode;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,344 @@
+/*
+ * Copyright (C) 2021 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.plugin;
+
+import com.openglobes.core.trader.Direction;
+import com.openglobes.core.trader.Offset;
+import com.openglobes.core.trader.Request;
+import org.ctp4j.CThostFtdcDepthMarketDataField;
+import org.ctp4j.CThostFtdcInstrumentField;
+import org.ctp4j.CThostFtdcInstrumentStatusField;
+import org.ctp4j.CThostFtdcInvestorPositionField;
+
+import java.util.Arrays;
+
+/**
+ * Trading rules and positions of instruments, for checking requests before
+ * they are sent.
+ * <p>
+ * Specs are kept in an array indexed by instrument handle of the gateway's
+ * {@link SymbolTable} and filled by the instrument, depth market data and
+ * position queries after login. A check of an instrument without specs
+ * passes, so requests are never held back by a missing query.
+ * <p>
+ * Positions are the queried ones moved by trades of this gateway. Volumes
+ * frozen by pending closes are not known, so a close passing the check can
+ * still be rejected by the broker.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+public class InstrumentSpecs {
+
+    public static final char THOST_FTDC_IS_NoTrading = '1';
+    public static final char THOST_FTDC_IS_Closed = '6';
+    public static final char THOST_FTDC_PD_Long = '2';
+    public static final char THOST_FTDC_PD_Short = '3';
+    private static final double EPSILON = 1E-8;
+    private final SymbolTable instruments;
+    private volatile boolean normalizePrice;
+    private volatile Spec[] specs;
+
+    InstrumentSpecs(SymbolTable instruments) {
+        this.instruments = instruments;
+        specs = new Spec[1024];
+    }
+
+    private static boolean valid(double price) {
+        return price > 0 && price != Double.MAX_VALUE;
+    }
+
+    /**
+     * Rounds prices off the tick to the passive side instead of rejecting
+     * them, down for buying and up for selling.
+     *
+     * @param normalizePrice {@code true} to round prices.
+     */
+    public void setNormalizePrice(boolean normalizePrice) {
+        this.normalizePrice = normalizePrice;
+    }
+
+    /**
+     * @param instrumentId instrument ID.
+     * @return price tick, or {@code NaN} if unknown.
+     */
+    public double getPriceTick(String instrumentId) {
+        var s = get(instruments.handleOf(instrumentId));
+        return s == null || s.priceTick <= 0 ? Double.NaN : s.priceTick;
+    }
+
+    /**
+     * @param instrumentId instrument ID.
+     * @param direction    direction of the position.
+     * @return position volume, or -1 if unknown.
+     */
+    public int getPosition(String instrumentId, int direction) {
+        var s = get(instruments.handleOf(instrumentId));
+        if (s == null || !s.positioned) {
+            return -1;
+        }
+        return direction == Direction.BUY ? s.longTotal : s.shortTotal;
+    }
+
+    /**
+     * Checks a new order request, with its price rounded if set to. The
+     * request is not changed, the rounded price is from
+     * {@link #limitPrice(Request)}.
+     *
+     * @param request request.
+     * @return {@link GatewayStatus#NO_ERROR} or the failed check's status.
+     */
+    int check(Request request) {
+        var s = get(instruments.handleOf(request.getInstrumentId()));
+        if (s == null || request.getPrice() == null || request.getQuantity() == null
+            || request.getDirection() == null || request.getOffset() == null) {
+            return GatewayStatus.NO_ERROR;
+        }
+        if (s.status == THOST_FTDC_IS_NoTrading || s.status == THOST_FTDC_IS_Closed) {
+            return GatewayStatus.INSTRUMENT_NOT_TRADING;
+        }
+        var quantity = request.getQuantity();
+        if ((s.minVolume > 0 && quantity < s.minVolume) || (s.maxVolume > 0 && quantity > s.maxVolume)) {
+            return GatewayStatus.INVALID_VOLUME;
+        }
+        var price = limitPrice(s, request);
+        if (Double.isNaN(price)) {
+            return GatewayStatus.INVALID_PRICE_TICK;
+        }
+        if ((s.upperLimit > 0 && price > s.upperLimit + EPSILON)
+            || (s.lowerLimit > 0 && price < s.lowerLimit - EPSILON)) {
+            return GatewayStatus.PRICE_OUT_OF_LIMIT;
+        }
+        if (request.getOffset() != Offset.OPEN && s.positioned && !closeable(s, request)) {
+            return GatewayStatus.INSUFFICIENT_POSITION;
+        }
+        return GatewayStatus.NO_ERROR;
+    }
+
+    /**
+     * @param request request passing {@link #check(Request)}.
+     * @return price to send for the request, rounded to the tick if set to.
+     */
+    Double limitPrice(Request request) {
+        var s = get(instruments.handleOf(request.getInstrumentId()));
+        if (s == null || request.getPrice() == null || request.getDirection() == null) {
+            return request.getPrice();
+        }
+        var price = limitPrice(s, request);
+        return Double.isNaN(price) ? request.getPrice() : price;
+    }
+
+    /**
+     * @param status status from {@link #check(Request)}.
+     * @return message of the status.
+     */
+    static String message(int status) {
+        if (status == GatewayStatus.INSTRUMENT_NOT_TRADING) {
+            return "Instrument is not trading.";
+        } else if (status == GatewayStatus.INVALID_VOLUME) {
+            return "Volume is out of the instrument's order volume range.";
+        } else if (status == GatewayStatus.INVALID_PRICE_TICK) {
+            return "Price is not a multiple of the price tick.";
+        } else if (status == GatewayStatus.PRICE_OUT_OF_LIMIT) {
+            return "Price is out of the daily price limits.";
+        } else if (status == GatewayStatus.INSUFFICIENT_POSITION) {
+            return "Not enough position to close.";
+        } else {
+            return "Request is invalid.";
+        }
+    }
+
+    /*
+     * NaN if the price is off the tick and not rounded.
+     */
+    private double limitPrice(Spec s, Request request) {
+        double price = request.getPrice();
+        if (s.priceTick <= 0) {
+            return price;
+        }
+        var ticks = price / s.priceTick;
+        if (Math.abs(ticks - Math.rint(ticks)) <= EPSILON) {
+            return price;
+        }
+        if (!normalizePrice) {
+            return Double.NaN;
+        }
+        return (request.getDirection() == Direction.BUY ? Math.floor(ticks) : Math.ceil(ticks)) * s.priceTick;
+    }
+
+    private boolean closeable(Spec s, Request request) {
+        /*
+         * Selling closes long position, and buying closes short position.
+         */
+        var buy = request.getDirection() == Direction.BUY;
+        var total = buy ? s.shortTotal : s.longTotal;
+        var today = buy ? s.shortToday : s.longToday;
+        long available;
+        switch (request.getOffset()) {
+            case Offset.CLOSE_TODAY:
+                available = today;
+                break;
+            case Offset.CLOSE_YD:
+                available = total - today;
+                break;
+            default:
+                available = total;
+        }
+        return request.getQuantity() <= available;
+    }
+
+    synchronized void update(CThostFtdcInstrumentField f) {
+        var s = getOrCreate(instruments.intern(f.getInstrumentID()));
+        s.productId = f.getProductID();
+        s.priceTick = f.getPriceTick();
+        s.minVolume = f.getMinLimitOrderVolume();
+        s.maxVolume = f.getMaxLimitOrderVolume();
+    }
+
+    synchronized void update(CThostFtdcDepthMarketDataField f) {
+        var s = getOrCreate(instruments.intern(f.getInstrumentID()));
+        s.upperLimit = valid(f.getUpperLimitPrice()) ? f.getUpperLimitPrice() : 0;
+        s.lowerLimit = valid(f.getLowerLimitPrice()) ? f.getLowerLimitPrice() : 0;
+    }
+
+    /**
+     * Status may be of an instrument or of a product, and then applies to
+     * its instruments.
+     */
+    synchronized void update(CThostFtdcInstrumentStatusField f) {
+        var id = f.getInstrumentID();
+        var status = f.getInstrumentStatus();
+        var h = instruments.handleOf(id);
+        var s = get(h);
+        if (s != null) {
+            s.status = status;
+            return;
+        }
+        for (var x : specs) {
+            if (x != null && id.equals(x.productId)) {
+                x.status = status;
+            }
+        }
+    }
+
+    /**
+     * Positions of an instrument may come in several records, for the
+     * today's and the history positions.
+     */
+    synchronized void update(CThostFtdcInvestorPositionField f) {
+        var s = getOrCreate(instruments.intern(f.getInstrumentID()));
+        if (f.getPosiDirection() == THOST_FTDC_PD_Long) {
+            s.longTotal += f.getPosition();
+            s.longToday += f.getTodayPosition();
+        } else if (f.getPosiDirection() == THOST_FTDC_PD_Short) {
+            s.shortTotal += f.getPosition();
+            s.shortToday += f.getTodayPosition();
+        }
+        s.positioned = true;
+    }
+
+    /**
+     * Clears positions before they are queried again.
+     */
+    synchronized void clearPositions() {
+        for (var s : specs) {
+            if (s != null) {
+                s.longTotal = s.longToday = s.shortTotal = s.shortToday = 0;
+                s.positioned = false;
+            }
+        }
+    }
+
+    /**
+     * Marks instruments without a queried position as flat, after the
+     * position query completes.
+     */
+    synchronized void positionsLoaded() {
+        for (var s : specs) {
+            if (s != null) {
+                s.positioned = true;
+            }
+        }
+    }
+
+    synchronized void onTrade(String instrumentId, int direction, int offset, long quantity) {
+        var s = get(instruments.handleOf(instrumentId));
+        if (s == null || !s.positioned) {
+            return;
+        }
+        var q = (int) quantity;
+        var buy = direction == Direction.BUY;
+        if (offset == Offset.OPEN) {
+            if (buy) {
+                s.longTotal += q;
+                s.longToday += q;
+            } else {
+                s.shortTotal += q;
+                s.shortToday += q;
+            }
+            return;
+        }
+        /*
+         * Closing yesterday's position first, unless told to close today's.
+         */
+        var total = buy ? s.shortTotal : s.longTotal;
+        var today = buy ? s.shortToday : s.longToday;
+        var fromToday = offset == Offset.CLOSE_TODAY ? q : Math.max(0, q - (total - today));
+        if (buy) {
+            s.shortTotal = Math.max(0, total - q);
+            s.shortToday = Math.max(0, today - fromToday);
+        } else {
+            s.longTotal = Math.max(0, total - q);
+            s.longToday = Math.max(0, today - fromToday);
+        }
+    }
+
+    private Spec get(int handle) {
+        var a = specs;
+        return handle >= 0 && handle < a.length ? a[handle] : null;
+    }
+
+    private Spec getOrCreate(int handle) {
+        var a = specs;
+        if (handle >= a.length) {
+            a = Arrays.copyOf(a, Math.max(a.length * 2, handle + 1));
+        }
+        var s = a[handle];
+        if (s == null) {
+            s = new Spec();
+            a[handle] = s;
+        }
+        specs = a;
+        return s;
+    }
+
+    private static class Spec {
+
+        volatile int longToday;
+        volatile int longTotal;
+        volatile double lowerLimit;
+        volatile int maxVolume;
+        volatile int minVolume;
+        volatile boolean positioned;
+        volatile double priceTick;
+        volatile String productId;
+        volatile int shortToday;
+        volatile int shortTotal;
+        volatile char status;
+        volatile double upperLimit;
+    }
+}
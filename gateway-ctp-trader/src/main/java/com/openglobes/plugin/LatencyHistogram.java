@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2021 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.plugin;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Log-linear latency histogram in nanoseconds with about 6% precision.
+ * <p>
+ * Recording is allocation free and safe from any thread, and percentiles
+ * may be read while recording.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BITS = 4;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private final AtomicLongArray counts;
+    private final AtomicLong count;
+    private final AtomicLong max;
+    private final AtomicLong sum;
+
+    public LatencyHistogram() {
+        counts = new AtomicLongArray((64 - SUB_BITS + 1) * SUB_COUNT);
+        count = new AtomicLong(0);
+        max = new AtomicLong(0);
+        sum = new AtomicLong(0);
+    }
+
+    private static int indexOf(long v) {
+        if (v < SUB_COUNT) {
+            return (int) v;
+        }
+        var shift = 63 - Long.numberOfLeadingZeros(v) - SUB_BITS;
+        return (shift + 1) * SUB_COUNT + (int) ((v >>> shift) & (SUB_COUNT - 1));
+    }
+
+    private static long valueOf(int index) {
+        if (index < SUB_COUNT) {
+            return index;
+        }
+        var shift = index / SUB_COUNT - 1;
+        var sub = index % SUB_COUNT;
+        /*
+         * Upper bound of the bucket.
+         */
+        return ((long) (SUB_COUNT + sub + 1) << shift) - 1;
+    }
+
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        counts.incrementAndGet(indexOf(nanos));
+        sum.addAndGet(nanos);
+        long m;
+        while (nanos > (m = max.get()) && !max.compareAndSet(m, nanos)) {
+            Thread.onSpinWait();
+        }
+        count.incrementAndGet();
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        var n = count.get();
+        return n == 0 ? 0D : (double) sum.get() / n;
+    }
+
+    /**
+     * @param percentile percentile in [0, 100].
+     * @return upper bound of the bucket holding the percentile.
+     */
+    public long getPercentile(double percentile) {
+        var n = count.get();
+        if (n == 0) {
+            return 0;
+        }
+        var target = Math.max(1L, (long) Math.ceil(n * percentile / 100D));
+        var seen = 0L;
+        for (int i = 0; i < counts.length(); ++i) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(valueOf(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    public void reset() {
+        for (int i = 0; i < counts.length(); ++i) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count=%d, mean=%.0f, p50=%d, p90=%d, p99=%d, p99.9=%d, max=%d",
+                             getCount(), getMean(), getPercentile(50), getPercentile(90),
+                             getPercentile(99), getPercentile(99.9), getMax());
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2021 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.plugin;
+
+import com.openglobes.core.trader.Request;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+
+/**
+ * Sends requests to the API from one dedicated thread.
+ * <p>
+ * Strategy threads hand requests over through a pre-allocated bounded queue
+ * and return without touching JNI. The sender thread translates and sends
+ * them in the order they are queued, polling with an {@link IIdleStrategy},
+ * and optionally pinned to a CPU on Linux. Time from handover to the return
+ * of the API call is recorded in the gateway's send latency.
+ * <p>
+ * Set it on the gateway before {@link CtpTraderGateway#start()}.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+public class OrderSender implements Runnable {
+
+    public static final long CLOSE_TIMEOUT_MILLIS = 5_000L;
+    private static final int BATCH = 64;
+    private final long[] handovers;
+    private final AtomicLong head;
+    private final int mask;
+    private final AtomicLongArray sequences;
+    private final Request[] slots;
+    private final AtomicLong tail;
+    private volatile String affinityError;
+    private volatile boolean aborted;
+    private int cpu;
+    private IIdleStrategy idle;
+    private GatewayMetrics metrics;
+    private volatile boolean running;
+    private Consumer<Request> sink;
+    private Thread thread;
+
+    /**
+     * @param capacity queue capacity, rounded up to a power of two.
+     */
+    public OrderSender(int capacity) {
+        var n = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        mask = n - 1;
+        slots = new Request[n];
+        handovers = new long[n];
+        sequences = new AtomicLongArray(n);
+        for (int i = 0; i < n; ++i) {
+            sequences.set(i, i);
+        }
+        head = new AtomicLong();
+        tail = new AtomicLong();
+        cpu = -1;
+        idle = new SpinThenParkIdleStrategy();
+    }
+
+    /**
+     * @param idle idle strategy of the sender thread.
+     */
+    public void setIdleStrategy(IIdleStrategy idle) {
+        this.idle = idle;
+    }
+
+    /**
+     * Pins the sender thread to a CPU with {@code taskset}. Only works on
+     * Linux, otherwise the thread runs unpinned and the reason is kept in
+     * {@link #getAffinityError()}.
+     *
+     * @param cpu CPU number, negative for no pinning.
+     */
+    public void setCpu(int cpu) {
+        this.cpu = cpu;
+    }
+
+    /**
+     * @return why the sender thread couldn't be pinned, or {@code null}.
+     */
+    public String getAffinityError() {
+        return affinityError;
+    }
+
+    /**
+     * @return number of requests waiting in the queue.
+     */
+    public int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+    /**
+     * Hands a request over to the sender thread.
+     *
+     * @param request request.
+     * @return {@code false} if the queue is full.
+     */
+    boolean offer(Request request) {
+        var now = System.nanoTime();
+        while (true) {
+            var pos = tail.get();
+            var i = (int) pos & mask;
+            var seq = sequences.get(i);
+            if (seq == pos) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    slots[i] = request;
+                    handovers[i] = now;
+                    sequences.lazySet(i, pos + 1);
+                    return true;
+                }
+            } else if (seq < pos) {
+                return false;
+            }
+        }
+    }
+
+    synchronized void start(Consumer<Request> sink, GatewayMetrics metrics) {
+        if (thread != null) {
+            return;
+        }
+        this.sink = sink;
+        this.metrics = metrics;
+        aborted = false;
+        running = true;
+        thread = new Thread(this, "ctp-order-sender");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops the sender thread after it sends what is already queued, waiting
+     * {@link #CLOSE_TIMEOUT_MILLIS} at most.
+     *
+     * @return {@code false} if the thread didn't stop in time.
+     */
+    boolean close() {
+        return close(CLOSE_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Stops the sender thread after it sends what is already queued. A
+     * thread still sending after the timeout, like one blocked in the API,
+     * is interrupted and sends nothing more.
+     *
+     * @param timeoutMillis longest time to wait for the thread.
+     * @return {@code false} if the thread didn't stop in time.
+     */
+    synchronized boolean close(long timeoutMillis) {
+        running = false;
+        if (thread == null) {
+            return true;
+        }
+        try {
+            thread.join(timeoutMillis);
+        } catch (InterruptedException ignored) {
+            Thread.currentThread().interrupt();
+        }
+        var stopped = !thread.isAlive();
+        if (!stopped) {
+            aborted = true;
+            thread.interrupt();
+        }
+        thread = null;
+        return stopped;
+    }
+
+    @Override
+    public void run() {
+        if (cpu >= 0) {
+            pin();
+        }
+        while (running) {
+            idle.idle(poll());
+        }
+        while (!aborted && poll() > 0) {
+        }
+    }
+
+    private int poll() {
+        int n = 0;
+        var pos = head.get();
+        while (n < BATCH && !aborted) {
+            var i = (int) pos & mask;
+            if (sequences.get(i) != pos + 1) {
+                break;
+            }
+            var request = slots[i];
+            var handover = handovers[i];
+            slots[i] = null;
+            sequences.lazySet(i, pos + mask + 1);
+            head.lazySet(++pos);
+            ++n;
+            sink.accept(request);
+            metrics.sent(System.nanoTime() - handover);
+        }
+        return n;
+    }
+
+    private void pin() {
+        try {
+            /*
+             * Java has no affinity call, so find the native thread ID and
+             * let taskset pin it.
+             */
+            var self = Files.readSymbolicLink(Path.of("/proc/thread-self")).toString();
+            var tid = self.substring(self.lastIndexOf('/') + 1);
+            var p = new ProcessBuilder("taskset", "-p", "-c", String.valueOf(cpu), tid)
+                    .redirectErrorStream(true)
+                    .start();
+            var out = new String(p.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+            if (p.waitFor() != 0) {
+                affinityError = out.strip();
+            }
+        } catch (IOException | UnsupportedOperationException ex) {
+            affinityError = ex.toString();
+        } catch (InterruptedException ex) {
+            affinityError = ex.toString();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,565 @@
+/*
+ * Copyright (C) 2021 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.plugin;
+
+import com.openglobes.core.trader.Request;
+import com.openglobes.core.trader.Response;
+import com.openglobes.core.trader.Trade;
+import org.ctp4j.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+
+/**
+ * Binary layout of recorded callbacks and requests.
+ * <p>
+ * Every record starts with a header of record length(int), record type(byte),
+ * session(byte) and epoch nanoseconds(long). The session tells the callbacks
+ * of the primary and the standby session apart. Methods write at absolute positions and return
+ * the position after the written value, so a producer encodes a record
+ * directly into its claimed slot without allocation. Readers decode with the
+ * relative getters from the buffer's position.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+class RecordCodec {
+
+    static final int FILE_MAGIC = 0x43545052;
+    static final short FILE_VERSION = 2;
+    static final int FILE_HEADER_SIZE = 8;
+    static final int HEADER_SIZE = 14;
+    static final int NULL_INT = Integer.MIN_VALUE;
+    static final long NULL_LONG = Long.MIN_VALUE;
+    static final int MAX_STRING_CHARS = 256;
+
+    private RecordCodec() {
+    }
+
+    static int putHeader(ByteBuffer b, int p, int type, long nanos) {
+        return putHeader(b, p, type, SessionRecorder.PRIMARY_SESSION, nanos);
+    }
+
+    static int putHeader(ByteBuffer b, int p, int type, int session, long nanos) {
+        b.putInt(p, 0);
+        b.put(p + 4, (byte) type);
+        b.put(p + 5, (byte) session);
+        b.putLong(p + 6, nanos);
+        return p + HEADER_SIZE;
+    }
+
+    static void putLength(ByteBuffer b, int start, int end) {
+        b.putInt(start, end - start);
+    }
+
+    static int putInt(ByteBuffer b, int p, int v) {
+        b.putInt(p, v);
+        return p + 4;
+    }
+
+    static int putInt(ByteBuffer b, int p, Integer v) {
+        return putInt(b, p, v == null ? NULL_INT : v);
+    }
+
+    static int putLong(ByteBuffer b, int p, long v) {
+        b.putLong(p, v);
+        return p + 8;
+    }
+
+    static int putLong(ByteBuffer b, int p, Long v) {
+        return putLong(b, p, v == null ? NULL_LONG : v);
+    }
+
+    static int putDouble(ByteBuffer b, int p, double v) {
+        b.putDouble(p, v);
+        return p + 8;
+    }
+
+    static int putDouble(ByteBuffer b, int p, Double v) {
+        return putDouble(b, p, v == null ? Double.NaN : v);
+    }
+
+    static int putChar(ByteBuffer b, int p, char v) {
+        b.putChar(p, v);
+        return p + 2;
+    }
+
+    static int putBoolean(ByteBuffer b, int p, boolean v) {
+        b.put(p, v ? (byte) 1 : (byte) 0);
+        return p + 1;
+    }
+
+    static int putDay(ByteBuffer b, int p, LocalDate day) {
+        var v = day == null ? NULL_INT : day.getYear() * 10000 + day.getMonthValue() * 100 + day.getDayOfMonth();
+        return putInt(b, p, v);
+    }
+
+    /*
+     * Strings are written as UTF-8 with a short length prefix, and -1 length
+     * for null.
+     */
+    static int putString(ByteBuffer b, int p, String s) {
+        if (s == null) {
+            b.putShort(p, (short) -1);
+            return p + 2;
+        }
+        var q = p + 2;
+        var n = Math.min(s.length(), MAX_STRING_CHARS);
+        for (int i = 0; i < n; ++i) {
+            var c = s.charAt(i);
+            if (c < 0x80) {
+                b.put(q++, (byte) c);
+            } else if (c < 0x800) {
+                b.put(q++, (byte) (0xC0 | (c >> 6)));
+                b.put(q++, (byte) (0x80 | (c & 0x3F)));
+            } else {
+                b.put(q++, (byte) (0xE0 | (c >> 12)));
+                b.put(q++, (byte) (0x80 | ((c >> 6) & 0x3F)));
+                b.put(q++, (byte) (0x80 | (c & 0x3F)));
+            }
+        }
+        b.putShort(p, (short) (q - p - 2));
+        return q;
+    }
+
+    static int putRspInfo(ByteBuffer b, int p, CThostFtdcRspInfoField info) {
+        if (info == null) {
+            return putBoolean(b, p, false);
+        }
+        p = putBoolean(b, p, true);
+        p = putInt(b, p, info.getErrorID());
+        return putString(b, p, info.getErrorMsg());
+    }
+
+    static int putLogin(ByteBuffer b, int p, CThostFtdcRspUserLoginField rsp) {
+        if (rsp == null) {
+            return putBoolean(b, p, false);
+        }
+        p = putBoolean(b, p, true);
+        p = putString(b, p, rsp.getTradingDay());
+        p = putString(b, p, rsp.getLoginTime());
+        p = putInt(b, p, rsp.getFrontID());
+        p = putInt(b, p, rsp.getSessionID());
+        p = putString(b, p, rsp.getMaxOrderRef());
+        p = putString(b, p, rsp.getSHFETime());
+        p = putString(b, p, rsp.getDCETime());
+        p = putString(b, p, rsp.getCZCETime());
+        p = putString(b, p, rsp.getFFEXTime());
+        return putString(b, p, rsp.getINETime());
+    }
+
+    static int putInputOrder(ByteBuffer b, int p, CThostFtdcInputOrderField f) {
+        if (f == null) {
+            return putBoolean(b, p, false);
+        }
+        p = putBoolean(b, p, true);
+        p = putString(b, p, f.getOrderRef());
+        p = putString(b, p, f.getInstrumentID());
+        p = putString(b, p, f.getExchangeID());
+        p = putChar(b, p, f.getDirection());
+        p = putString(b, p, f.getCombOffsetFlag());
+        p = putDouble(b, p, f.getLimitPrice());
+        p = putInt(b, p, f.getVolumeTotalOriginal());
+        return putInt(b, p, f.getRequestID());
+    }
+
+    static int putInputOrderAction(ByteBuffer b, int p, CThostFtdcInputOrderActionField f) {
+        if (f == null) {
+            return putBoolean(b, p, false);
+        }
+        p = putBoolean(b, p, true);
+        p = putString(b, p, f.getOrderRef());
+        p = putString(b, p, f.getOrderSysID());
+        p = putString(b, p, f.getExchangeID());
+        p = putString(b, p, f.getInstrumentID());
+        p = putInt(b, p, f.getFrontID());
+        p = putInt(b, p, f.getSessionID());
+        return putInt(b, p, f.getRequestID());
+    }
+
+    static int putOrderAction(ByteBuffer b, int p, CThostFtdcOrderActionField f) {
+        if (f == null) {
+            return putBoolean(b, p, false);
+        }
+        p = putBoolean(b, p, true);
+        p = putString(b, p, f.getOrderRef());
+        p = putString(b, p, f.getOrderSysID());
+        p = putString(b, p, f.getExchangeID());
+        p = putString(b, p, f.getInstrumentID());
+        p = putInt(b, p, f.getFrontID());
+        p = putInt(b, p, f.getSessionID());
+        return putInt(b, p, f.getRequestID());
+    }
+
+    static int putOrder(ByteBuffer b, int p, CThostFtdcOrderField f) {
+        p = putString(b, p, f.getOrderRef());
+        p = putInt(b, p, f.getFrontID());
+        p = putInt(b, p, f.getSessionID());
+        p = putString(b, p, f.getOrderSysID());
+        p = putString(b, p, f.getExchangeID());
+        p = putString(b, p, f.getInstrumentID());
+        p = putChar(b, p, f.getDirection());
+        p = putString(b, p, f.getCombOffsetFlag());
+        p = putDouble(b, p, f.getLimitPrice());
+        p = putInt(b, p, f.getVolumeTotalOriginal());
+        p = putInt(b, p, f.getVolumeTraded());
+        p = putInt(b, p, f.getVolumeTotal());
+        p = putChar(b, p, f.getOrderStatus());
+        p = putChar(b, p, f.getOrderSubmitStatus());
+        p = putString(b, p, f.getInsertDate());
+        p = putString(b, p, f.getInsertTime());
+        p = putString(b, p, f.getUpdateTime());
+        p = putString(b, p, f.getTradingDay());
+        p = putString(b, p, f.getStatusMsg());
+        return putInt(b, p, f.getRequestID());
+    }
+
+    static int putTrade(ByteBuffer b, int p, CThostFtdcTradeField f) {
+        p = putString(b, p, f.getOrderRef());
+        p = putString(b, p, f.getOrderSysID());
+        p = putString(b, p, f.getExchangeID());
+        p = putString(b, p, f.getInstrumentID());
+        p = putString(b, p, f.getTradeID());
+        p = putChar(b, p, f.getDirection());
+        p = putChar(b, p, f.getOffsetFlag());
+        p = putDouble(b, p, f.getPrice());
+        p = putInt(b, p, f.getVolume());
+        p = putString(b, p, f.getTradeDate());
+        p = putString(b, p, f.getTradeTime());
+        p = putString(b, p, f.getTradingDay());
+        return putInt(b, p, f.getSequenceNo());
+    }
+
+    /*
+     * Query results keep only the fields the instrument specs use.
+     */
+    static int putInstrument(ByteBuffer b, int p, CThostFtdcInstrumentField f) {
+        if (f == null) {
+            return putBoolean(b, p, false);
+        }
+        p = putBoolean(b, p, true);
+        p = putString(b, p, f.getInstrumentID());
+        p = putString(b, p, f.getExchangeID());
+        p = putString(b, p, f.getProductID());
+        p = putDouble(b, p, f.getPriceTick());
+        p = putInt(b, p, f.getMinLimitOrderVolume());
+        return putInt(b, p, f.getMaxLimitOrderVolume());
+    }
+
+    static int putDepthMarketData(ByteBuffer b, int p, CThostFtdcDepthMarketDataField f) {
+        if (f == null) {
+            return putBoolean(b, p, false);
+        }
+        p = putBoolean(b, p, true);
+        p = putString(b, p, f.getInstrumentID());
+        p = putDouble(b, p, f.getUpperLimitPrice());
+        return putDouble(b, p, f.getLowerLimitPrice());
+    }
+
+    static int putPosition(ByteBuffer b, int p, CThostFtdcInvestorPositionField f) {
+        if (f == null) {
+            return putBoolean(b, p, false);
+        }
+        p = putBoolean(b, p, true);
+        p = putString(b, p, f.getInstrumentID());
+        p = putChar(b, p, f.getPosiDirection());
+        p = putInt(b, p, f.getPosition());
+        return putInt(b, p, f.getTodayPosition());
+    }
+
+    static int putInstrumentStatus(ByteBuffer b, int p, CThostFtdcInstrumentStatusField f) {
+        p = putString(b, p, f.getExchangeID());
+        p = putString(b, p, f.getInstrumentID());
+        return putChar(b, p, f.getInstrumentStatus());
+    }
+
+    /*
+     * Outbound requests keep the local request so a replay can re-insert it.
+     */
+    static int putRequest(ByteBuffer b, int p, Request r) {
+        p = putLong(b, p, r.getOrderId());
+        p = putLong(b, p, r.getRequestId());
+        p = putInt(b, p, r.getTraderId());
+        p = putInt(b, p, r.getAction());
+        p = putInt(b, p, r.getDirection());
+        p = putInt(b, p, r.getOffset());
+        p = putDouble(b, p, r.getPrice());
+        p = putLong(b, p, r.getQuantity());
+        p = putString(b, p, r.getInstrumentId());
+        p = putString(b, p, r.getExchangeId());
+        return putDay(b, p, r.getTradingDay());
+    }
+
+    static int putResponse(ByteBuffer b, int p, Response r) {
+        p = putLong(b, p, r.getOrderId());
+        p = putInt(b, p, r.getTraderId());
+        p = putInt(b, p, r.getStatus());
+        p = putInt(b, p, r.getStatusCode());
+        p = putInt(b, p, r.getDirection());
+        p = putInt(b, p, r.getOffset());
+        p = putString(b, p, r.getInstrumentId());
+        return putString(b, p, r.getStatusMessage());
+    }
+
+    static int putTradeEvent(ByteBuffer b, int p, Trade t) {
+        p = putLong(b, p, t.getOrderId());
+        p = putInt(b, p, t.getTraderId());
+        p = putInt(b, p, t.getDirection());
+        p = putInt(b, p, t.getOffset());
+        p = putDouble(b, p, t.getPrice());
+        p = putLong(b, p, t.getQuantity());
+        return putString(b, p, t.getInstrumentId());
+    }
+
+    static Integer getInteger(ByteBuffer b) {
+        var v = b.getInt();
+        return v == NULL_INT ? null : v;
+    }
+
+    static Long getLongObject(ByteBuffer b) {
+        var v = b.getLong();
+        return v == NULL_LONG ? null : v;
+    }
+
+    static Double getDoubleObject(ByteBuffer b) {
+        var v = b.getDouble();
+        return Double.isNaN(v) ? null : v;
+    }
+
+    static boolean getBoolean(ByteBuffer b) {
+        return b.get() != 0;
+    }
+
+    static LocalDate getDay(ByteBuffer b) {
+        var v = b.getInt();
+        return v == NULL_INT ? null : LocalDate.of(v / 10000, v / 100 % 100, v % 100);
+    }
+
+    static String getString(ByteBuffer b) {
+        var n = b.getShort();
+        if (n < 0) {
+            return null;
+        }
+        var bytes = new byte[n];
+        b.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static CThostFtdcRspInfoField getRspInfo(ByteBuffer b) {
+        if (!getBoolean(b)) {
+            return null;
+        }
+        var f = new CThostFtdcRspInfoField();
+        f.setErrorID(b.getInt());
+        f.setErrorMsg(getString(b));
+        return f;
+    }
+
+    static CThostFtdcRspUserLoginField getLogin(ByteBuffer b) {
+        if (!getBoolean(b)) {
+            return null;
+        }
+        var f = new CThostFtdcRspUserLoginField();
+        f.setTradingDay(getString(b));
+        f.setLoginTime(getString(b));
+        f.setFrontID(b.getInt());
+        f.setSessionID(b.getInt());
+        f.setMaxOrderRef(getString(b));
+        f.setSHFETime(getString(b));
+        f.setDCETime(getString(b));
+        f.setCZCETime(getString(b));
+        f.setFFEXTime(getString(b));
+        f.setINETime(getString(b));
+        return f;
+    }
+
+    static CThostFtdcInputOrderField getInputOrder(ByteBuffer b) {
+        if (!getBoolean(b)) {
+            return null;
+        }
+        var f = new CThostFtdcInputOrderField();
+        f.setOrderRef(getString(b));
+        f.setInstrumentID(getString(b));
+        f.setExchangeID(getString(b));
+        f.setDirection(b.getChar());
+        f.setCombOffsetFlag(getString(b));
+        f.setLimitPrice(b.getDouble());
+        f.setVolumeTotalOriginal(b.getInt());
+        f.setRequestID(b.getInt());
+        return f;
+    }
+
+    static CThostFtdcInputOrderActionField getInputOrderAction(ByteBuffer b) {
+        if (!getBoolean(b)) {
+            return null;
+        }
+        var f = new CThostFtdcInputOrderActionField();
+        f.setOrderRef(getString(b));
+        f.setOrderSysID(getString(b));
+        f.setExchangeID(getString(b));
+        f.setInstrumentID(getString(b));
+        f.setFrontID(b.getInt());
+        f.setSessionID(b.getInt());
+        f.setRequestID(b.getInt());
+        return f;
+    }
+
+    static CThostFtdcOrderActionField getOrderAction(ByteBuffer b) {
+        if (!getBoolean(b)) {
+            return null;
+        }
+        var f = new CThostFtdcOrderActionField();
+        f.setOrderRef(getString(b));
+        f.setOrderSysID(getString(b));
+        f.setExchangeID(getString(b));
+        f.setInstrumentID(getString(b));
+        f.setFrontID(b.getInt());
+        f.setSessionID(b.getInt());
+        f.setRequestID(b.getInt());
+        return f;
+    }
+
+    static CThostFtdcOrderField getOrder(ByteBuffer b) {
+        var f = new CThostFtdcOrderField();
+        f.setOrderRef(getString(b));
+        f.setFrontID(b.getInt());
+        f.setSessionID(b.getInt());
+        f.setOrderSysID(getString(b));
+        f.setExchangeID(getString(b));
+        f.setInstrumentID(getString(b));
+        f.setDirection(b.getChar());
+        f.setCombOffsetFlag(getString(b));
+        f.setLimitPrice(b.getDouble());
+        f.setVolumeTotalOriginal(b.getInt());
+        f.setVolumeTraded(b.getInt());
+        f.setVolumeTotal(b.getInt());
+        f.setOrderStatus(b.getChar());
+        f.setOrderSubmitStatus(b.getChar());
+        f.setInsertDate(getString(b));
+        f.setInsertTime(getString(b));
+        f.setUpdateTime(getString(b));
+        f.setTradingDay(getString(b));
+        f.setStatusMsg(getString(b));
+        f.setRequestID(b.getInt());
+        return f;
+    }
+
+    static CThostFtdcTradeField getTrade(ByteBuffer b) {
+        var f = new CThostFtdcTradeField();
+        f.setOrderRef(getString(b));
+        f.setOrderSysID(getString(b));
+        f.setExchangeID(getString(b));
+        f.setInstrumentID(getString(b));
+        f.setTradeID(getString(b));
+        f.setDirection(b.getChar());
+        f.setOffsetFlag(b.getChar());
+        f.setPrice(b.getDouble());
+        f.setVolume(b.getInt());
+        f.setTradeDate(getString(b));
+        f.setTradeTime(getString(b));
+        f.setTradingDay(getString(b));
+        f.setSequenceNo(b.getInt());
+        return f;
+    }
+
+    static CThostFtdcInstrumentField getInstrument(ByteBuffer b) {
+        if (!getBoolean(b)) {
+            return null;
+        }
+        var f = new CThostFtdcInstrumentField();
+        f.setInstrumentID(getString(b));
+        f.setExchangeID(getString(b));
+        f.setProductID(getString(b));
+        f.setPriceTick(b.getDouble());
+        f.setMinLimitOrderVolume(b.getInt());
+        f.setMaxLimitOrderVolume(b.getInt());
+        return f;
+    }
+
+    static CThostFtdcDepthMarketDataField getDepthMarketData(ByteBuffer b) {
+        if (!getBoolean(b)) {
+            return null;
+        }
+        var f = new CThostFtdcDepthMarketDataField();
+        f.setInstrumentID(getString(b));
+        f.setUpperLimitPrice(b.getDouble());
+        f.setLowerLimitPrice(b.getDouble());
+        return f;
+    }
+
+    static CThostFtdcInvestorPositionField getPosition(ByteBuffer b) {
+        if (!getBoolean(b)) {
+            return null;
+        }
+        var f = new CThostFtdcInvestorPositionField();
+        f.setInstrumentID(getString(b));
+        f.setPosiDirection(b.getChar());
+        f.setPosition(b.getInt());
+        f.setTodayPosition(b.getInt());
+        return f;
+    }
+
+    static CThostFtdcInstrumentStatusField getInstrumentStatus(ByteBuffer b) {
+        var f = new CThostFtdcInstrumentStatusField();
+        f.setExchangeID(getString(b));
+        f.setInstrumentID(getString(b));
+        f.setInstrumentStatus(b.getChar());
+        return f;
+    }
+
+    static Request getRequest(ByteBuffer b) {
+        var r = new Request();
+        r.setOrderId(getLongObject(b));
+        r.setRequestId(getLongObject(b));
+        r.setTraderId(getInteger(b));
+        r.setAction(getInteger(b));
+        r.setDirection(getInteger(b));
+        r.setOffset(getInteger(b));
+        r.setPrice(getDoubleObject(b));
+        r.setQuantity(getLongObject(b));
+        r.setInstrumentId(getString(b));
+        r.setExchangeId(getString(b));
+        r.setTradingDay(getDay(b));
+        return r;
+    }
+
+    static Response getResponse(ByteBuffer b) {
+        var r = new Response();
+        r.setOrderId(getLongObject(b));
+        r.setTraderId(getInteger(b));
+        r.setStatus(getInteger(b));
+        r.setStatusCode(getInteger(b));
+        r.setDirection(getInteger(b));
+        r.setOffset(getInteger(b));
+        r.setInstrumentId(getString(b));
+        r.setStatusMessage(getString(b));
+        return r;
+    }
+
+    static Trade getTradeEvent(ByteBuffer b) {
+        var t = new Trade();
+        t.setOrderId(getLongObject(b));
+        t.setTraderId(getInteger(b));
+        t.setDirection(getInteger(b));
+        t.setOffset(getInteger(b));
+        t.setPrice(getDoubleObject(b));
+        t.setQuantity(getLongObject(b));
+        t.setInstrumentId(getString(b));
+        return t;
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2021 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.plugin;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.stream.Collectors;
+
+/**
+ * Reads the records of a session directory in file name order.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+public class RecordReader implements AutoCloseable {
+
+    private final Iterator<Path> files;
+    private ByteBuffer buf;
+    private long nanos;
+    private int next;
+    private int session;
+    private int type;
+
+    public RecordReader(Path directory) throws IOException {
+        try (var s = Files.list(directory)) {
+            files = s.filter(p -> p.getFileName().toString().endsWith(".rec"))
+                     .sorted()
+                     .collect(Collectors.toList())
+                     .iterator();
+        }
+    }
+
+    /**
+     * Moves to the next record.
+     *
+     * @return {@code false} if there are no more records.
+     * @throws IOException if a file can't be read or is not a session file.
+     */
+    public boolean next() throws IOException {
+        while (true) {
+            if (buf != null) {
+                buf.limit(buf.capacity()).position(next);
+                if (buf.remaining() >= RecordCodec.HEADER_SIZE) {
+                    var len = buf.getInt(next);
+                    if (len >= RecordCodec.HEADER_SIZE && len <= buf.remaining()) {
+                        type = buf.get(next + 4);
+                        session = buf.get(next + 5);
+                        nanos = buf.getLong(next + 6);
+                        buf.position(next + RecordCodec.HEADER_SIZE).limit(next + len);
+                        next += len;
+                        return true;
+                    }
+                }
+            }
+            if (!files.hasNext()) {
+                return false;
+            }
+            open(files.next());
+        }
+    }
+
+    public int type() {
+        return type;
+    }
+
+    /**
+     * @return {@link SessionRecorder#PRIMARY_SESSION} or
+     * {@link SessionRecorder#STANDBY_SESSION}.
+     */
+    public int session() {
+        return session;
+    }
+
+    public long nanos() {
+        return nanos;
+    }
+
+    /**
+     * @return buffer positioned at the payload of the current record.
+     */
+    ByteBuffer payload() {
+        return buf;
+    }
+
+    @Override
+    public void close() {
+        buf = null;
+    }
+
+    private void open(Path path) throws IOException {
+        try (var ch = FileChannel.open(path)) {
+            buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        if (buf.remaining() < RecordCodec.FILE_HEADER_SIZE
+            || buf.getInt(0) != RecordCodec.FILE_MAGIC) {
+            throw new IOException("Not a session record file: " + path + ".");
+        }
+        if (buf.getShort(4) != RecordCodec.FILE_VERSION) {
+            throw new IOException("Unsupported record version " + buf.getShort(4) + ": " + path + ".");
+        }
+        next = RecordCodec.FILE_HEADER_SIZE;
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2021 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.plugin;
+
+/**
+ * Record types of the binary session recording.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+public class RecordType {
+
+    public static final int FRONT_CONNECTED = 1;
+    public static final int FRONT_DISCONNECTED = 2;
+    public static final int RSP_AUTHENTICATE = 3;
+    public static final int RSP_USER_LOGIN = 4;
+    public static final int RSP_USER_LOGOUT = 5;
+    public static final int RSP_SETTLEMENT_CONFIRM = 6;
+    public static final int RSP_ERROR = 7;
+    public static final int RSP_ORDER_INSERT = 8;
+    public static final int RSP_ORDER_ACTION = 9;
+    public static final int ERR_RTN_ORDER_INSERT = 10;
+    public static final int ERR_RTN_ORDER_ACTION = 11;
+    public static final int RTN_ORDER = 12;
+    public static final int RTN_TRADE = 13;
+    public static final int RSP_QRY_INSTRUMENT = 14;
+    public static final int RSP_QRY_DEPTH_MARKET_DATA = 15;
+    public static final int RSP_QRY_INVESTOR_POSITION = 16;
+    public static final int RTN_INSTRUMENT_STATUS = 17;
+    public static final int REQ_ORDER_INSERT = 32;
+    public static final int REQ_ORDER_ACTION = 33;
+    public static final int HANDLER_RESPONSE = 64;
+    public static final int HANDLER_TRADE = 65;
+    public static final int HANDLER_ERROR = 66;
+    public static final int HANDLER_STATUS = 67;
+
+    private RecordType() {
+    }
+
+    public static String name(int type) {
+        switch (type) {
+            case FRONT_CONNECTED:
+                return "OnFrontConnected";
+            case FRONT_DISCONNECTED:
+                return "OnFrontDisconnected";
+            case RSP_AUTHENTICATE:
+                return "OnRspAuthenticate";
+            case RSP_USER_LOGIN:
+                return "OnRspUserLogin";
+            case RSP_USER_LOGOUT:
+                return "OnRspUserLogout";
+            case RSP_SETTLEMENT_CONFIRM:
+                return "OnRspSettlementInfoConfirm";
+            case RSP_ERROR:
+                return "OnRspError";
+            case RSP_ORDER_INSERT:
+                return "OnRspOrderInsert";
+            case RSP_ORDER_ACTION:
+                return "OnRspOrderAction";
+            case ERR_RTN_ORDER_INSERT:
+                return "OnErrRtnOrderInsert";
+            case ERR_RTN_ORDER_ACTION:
+                return "OnErrRtnOrderAction";
+            case RTN_ORDER:
+                return "OnRtnOrder";
+            case RTN_TRADE:
+                return "OnRtnTrade";
+            case RSP_QRY_INSTRUMENT:
+                return "OnRspQryInstrument";
+            case RSP_QRY_DEPTH_MARKET_DATA:
+                return "OnRspQryDepthMarketData";
+            case RSP_QRY_INVESTOR_POSITION:
+                return "OnRspQryInvestorPosition";
+            case RTN_INSTRUMENT_STATUS:
+                return "OnRtnInstrumentStatus";
+            case REQ_ORDER_INSERT:
+                return "ReqOrderInsert";
+            case REQ_ORDER_ACTION:
+                return "ReqOrderAction";
+            case HANDLER_RESPONSE:
+                return "onResponse";
+            case HANDLER_TRADE:
+                return "onTrade";
+            case HANDLER_ERROR:
+                return "onError";
+            case HANDLER_STATUS:
+                return "onStatusChange";
+            default:
+                return "Unknown(" + type + ")";
+        }
+    }
+}
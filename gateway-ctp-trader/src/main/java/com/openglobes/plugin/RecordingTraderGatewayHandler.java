@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2021 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.plugin;
+
+import com.openglobes.core.GatewayRuntimeException;
+import com.openglobes.core.ServiceRuntimeStatus;
+import com.openglobes.core.trader.ITraderGatewayHandler;
+import com.openglobes.core.trader.Response;
+import com.openglobes.core.trader.Trade;
+
+/**
+ * Records the events delivered to the handler, so a replay can be verified
+ * against the original session.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+class RecordingTraderGatewayHandler implements ITraderGatewayHandler {
+
+    private final ITraderGatewayHandler handler;
+    private final SessionRecorder recorder;
+
+    RecordingTraderGatewayHandler(ITraderGatewayHandler handler, SessionRecorder recorder) {
+        this.handler = handler;
+        this.recorder = recorder;
+    }
+
+    @Override
+    public void onTrade(Trade trade) {
+        recorder.recordTradeEvent(trade);
+        handler.onTrade(trade);
+    }
+
+    @Override
+    public void onResponse(Response response) {
+        recorder.recordResponse(response);
+        handler.onResponse(response);
+    }
+
+    @Override
+    public void onError(GatewayRuntimeException error) {
+        recorder.recordMessage(RecordType.HANDLER_ERROR, null, error.getMessage());
+        handler.onError(error);
+    }
+
+    @Override
+    public void onStatusChange(ServiceRuntimeStatus status) {
+        recorder.recordMessage(RecordType.HANDLER_STATUS, status.getCode(), null);
+        handler.onStatusChange(status);
+    }
+}
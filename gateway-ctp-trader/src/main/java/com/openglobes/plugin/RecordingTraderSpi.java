@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2021 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.plugin;
+
+import org.ctp4j.*;
+
+/**
+ * Records every callback before passing it to the gateway's SPI.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+class RecordingTraderSpi extends CThostFtdcTraderSpi {
+
+    private final SessionRecorder recorder;
+    private final int session;
+    private final CtpTraderSpi spi;
+
+    RecordingTraderSpi(CtpTraderSpi spi, SessionRecorder recorder) {
+        this(spi, recorder, SessionRecorder.PRIMARY_SESSION);
+    }
+
+    /**
+     * @param session {@link SessionRecorder#PRIMARY_SESSION} or
+     *                {@link SessionRecorder#STANDBY_SESSION}, tagged on the
+     *                records.
+     */
+    RecordingTraderSpi(CtpTraderSpi spi, SessionRecorder recorder, int session) {
+        this.spi = spi;
+        this.recorder = recorder;
+        this.session = session;
+    }
+
+    @Override
+    public void OnErrRtnOrderAction(CThostFtdcOrderActionField rsp,
+                                    CThostFtdcRspInfoField info) {
+        recorder.recordErrRtnOrderAction(session, rsp, info);
+        spi.OnErrRtnOrderAction(rsp, info);
+    }
+
+    @Override
+    public void OnErrRtnOrderInsert(CThostFtdcInputOrderField rsp,
+                                    CThostFtdcRspInfoField info) {
+        recorder.recordInputOrder(session, RecordType.ERR_RTN_ORDER_INSERT, rsp, info, 0, true);
+        spi.OnErrRtnOrderInsert(rsp, info);
+    }
+
+    @Override
+    public void OnFrontConnected() {
+        recorder.recordFrontConnected(session);
+        spi.OnFrontConnected();
+    }
+
+    @Override
+    public void OnFrontDisconnected(int nReason) {
+        recorder.recordFrontDisconnected(session, nReason);
+        spi.OnFrontDisconnected(nReason);
+    }
+
+    @Override
+    public void OnRspAuthenticate(CThostFtdcRspAuthenticateField rsp,
+                                  CThostFtdcRspInfoField info,
+                                  int requestId,
+                                  boolean isLast) {
+        recorder.recordRspInfo(session, RecordType.RSP_AUTHENTICATE, info, requestId, isLast);
+        spi.OnRspAuthenticate(rsp, info, requestId, isLast);
+    }
+
+    @Override
+    public void OnRspError(CThostFtdcRspInfoField info,
+                           int requestId,
+                           boolean isLast) {
+        recorder.recordRspInfo(session, RecordType.RSP_ERROR, info, requestId, isLast);
+        spi.OnRspError(info, requestId, isLast);
+    }
+
+    @Override
+    public void OnRspOrderAction(CThostFtdcInputOrderActionField rsp,
+                                 CThostFtdcRspInfoField info,
+                                 int requestId,
+                                 boolean isLast) {
+        recorder.recordRspOrderAction(session, rsp, info, requestId, isLast);
+        spi.OnRspOrderAction(rsp, info, requestId, isLast);
+    }
+
+    @Override
+    public void OnRspOrderInsert(CThostFtdcInputOrderField rsp,
+                                 CThostFtdcRspInfoField info,
+                                 int requestId,
+                                 boolean isLast) {
+        recorder.recordInputOrder(session, RecordType.RSP_ORDER_INSERT, rsp, info, requestId, isLast);
+        spi.OnRspOrderInsert(rsp, info, requestId, isLast);
+    }
+
+    @Override
+    public void OnRspSettlementInfoConfirm(CThostFtdcSettlementInfoConfirmField rsp,
+                                           CThostFtdcRspInfoField info,
+                                           int requestId,
+                                           boolean isLast) {
+        recorder.recordRspInfo(session, RecordType.RSP_SETTLEMENT_CONFIRM, info, requestId, isLast);
+        spi.OnRspSettlementInfoConfirm(rsp, info, requestId, isLast);
+    }
+
+    @Override
+    public void OnRspUserLogin(CThostFtdcRspUserLoginField rsp,
+                               CThostFtdcRspInfoField info,
+                               int requestId,
+                               boolean isLast) {
+        recorder.recordRspUserLogin(session, rsp, info, requestId, isLast);
+        spi.OnRspUserLogin(rsp, info, requestId, isLast);
+    }
+
+    @Override
+    public void OnRspUserLogout(CThostFtdcUserLogoutField rsp,
+                                CThostFtdcRspInfoField info,
+                                int requestId,
+                                boolean isLast) {
+        recorder.recordRspInfo(session, RecordType.RSP_USER_LOGOUT, info, requestId, isLast);
+        spi.OnRspUserLogout(rsp, info, requestId, isLast);
+    }
+
+    @Override
+    public void OnRspQryInstrument(CThostFtdcInstrumentField rsp,
+                                   CThostFtdcRspInfoField info,
+                                   int requestId,
+                                   boolean isLast) {
+        recorder.recordInstrument(session, rsp, info, requestId, isLast);
+        spi.OnRspQryInstrument(rsp, info, requestId, isLast);
+    }
+
+    @Override
+    public void OnRspQryDepthMarketData(CThostFtdcDepthMarketDataField rsp,
+                                        CThostFtdcRspInfoField info,
+                                        int requestId,
+                                        boolean isLast) {
+        recorder.recordDepthMarketData(session, rsp, info, requestId, isLast);
+        spi.OnRspQryDepthMarketData(rsp, info, requestId, isLast);
+    }
+
+    @Override
+    public void OnRspQryInvestorPosition(CThostFtdcInvestorPositionField rsp,
+                                         CThostFtdcRspInfoField info,
+                                         int requestId,
+                                         boolean isLast) {
+        recorder.recordPosition(session, rsp, info, requestId, isLast);
+        spi.OnRspQryInvestorPosition(rsp, info, requestId, isLast);
+    }
+
+    @Override
+    public void OnRtnInstrumentStatus(CThostFtdcInstrumentStatusField status) {
+        recorder.recordInstrumentStatus(session, status);
+        spi.OnRtnInstrumentStatus(status);
+    }
+
+    @Override
+    public void OnRtnOrder(CThostFtdcOrderField order) {
+        recorder.recordOrder(session, order);
+        spi.OnRtnOrder(order);
+    }
+
+    @Override
+    public void OnRtnTrade(CThostFtdcTradeField trade) {
+        recorder.recordTrade(session, trade);
+        spi.OnRtnTrade(trade);
+    }
+}
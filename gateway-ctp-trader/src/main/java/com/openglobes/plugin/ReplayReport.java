@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2021 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.plugin;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Throughput, latency and verification results of a session replay.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+public class ReplayReport {
+
+    private static final int MAX_SAMPLES = 16;
+    private final Map<Integer, LatencyHistogram> latencies;
+    private final List<String> mismatchSamples;
+    private long allocatedBytes;
+    private long elapsedNanos;
+    private long events;
+    private long mismatches;
+    private long verified;
+
+    ReplayReport() {
+        latencies = new TreeMap<>();
+        mismatchSamples = new LinkedList<>();
+        allocatedBytes = -1;
+    }
+
+    void record(int type, long nanos) {
+        latencies.computeIfAbsent(type, k -> new LatencyHistogram()).record(nanos);
+        ++events;
+    }
+
+    void addAllocatedBytes(long bytes) {
+        allocatedBytes = Math.max(allocatedBytes, 0) + bytes;
+    }
+
+    void setElapsedNanos(long elapsedNanos) {
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    void matched() {
+        ++verified;
+    }
+
+    void mismatched(String expected, String actual) {
+        ++mismatches;
+        if (mismatchSamples.size() < MAX_SAMPLES) {
+            mismatchSamples.add("expected " + expected + ", but got " + actual);
+        }
+    }
+
+    public long getEvents() {
+        return events;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    public double getEventsPerSecond() {
+        return elapsedNanos == 0 ? 0D : events * 1_000_000_000D / elapsedNanos;
+    }
+
+    /**
+     * @return average bytes allocated on the replay thread per event, or
+     * negative if the JVM doesn't support allocation measurement.
+     */
+    public double getAllocatedBytesPerEvent() {
+        if (allocatedBytes < 0) {
+            return -1D;
+        }
+        return events == 0 ? 0D : (double) allocatedBytes / events;
+    }
+
+    public Map<Integer, LatencyHistogram> getLatencies() {
+        return latencies;
+    }
+
+    public long getVerifiedCount() {
+        return verified;
+    }
+
+    public long getMismatchCount() {
+        return mismatches;
+    }
+
+    public List<String> getMismatchSamples() {
+        return mismatchSamples;
+    }
+
+    @Override
+    public String toString() {
+        var sb = new StringBuilder();
+        sb.append(String.format("events=%d, elapsed=%.3fs, events/s=%.0f, bytes/event=%.1f%n",
+                                events, elapsedNanos / 1e9, getEventsPerSecond(),
+                                getAllocatedBytesPerEvent()));
+        latencies.forEach((type, h) -> sb.append(String.format("  %-28s %s%n", RecordType.name(type), h)));
+        sb.append(String.format("verified=%d, mismatches=%d%n", verified, mismatches));
+        mismatchSamples.forEach(s -> sb.append("  ").append(s).append(System.lineSeparator()));
+        return sb.toString();
+    }
+}
@@ -0,0 +1,571 @@
+/*
+ * Copyright (C) 2021 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.plugin;
+
+import com.openglobes.core.trader.Request;
+import com.openglobes.core.trader.Response;
+import com.openglobes.core.trader.Trade;
+import org.ctp4j.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Records inbound SPI callbacks, outbound requests and the events delivered
+ * to the handler into memory-mapped, rolling files.
+ * <p>
+ * The calling thread claims a pre-allocated slot, encodes the record into it
+ * and publishes it. A background thread copies published slots into the
+ * current file and rolls to a new file when it is full. When all slots are in
+ * use, the record is dropped and counted instead of blocking the caller.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+public class SessionRecorder implements Runnable {
+
+    public static final int DEFAULT_FILE_SIZE = 64 * 1024 * 1024;
+    public static final int DEFAULT_SLOTS = 16 * 1024;
+    public static final int SLOT_SIZE = 2048;
+    public static final int PRIMARY_SESSION = 0;
+    public static final int STANDBY_SESSION = 1;
+    private static final long IDLE_NANOS = 100_000L;
+    private static final AtomicInteger INSTANCES = new AtomicInteger(0);
+    private final long baseEpochNanos;
+    private final long baseNanos;
+    private final Path dir;
+    private final LongAdder dropped;
+    private final int fileSize;
+    private final AtomicLong head;
+    private final int mask;
+    private final String prefix;
+    private final AtomicLongArray published;
+    private final ByteBuffer[] slots;
+    private final AtomicLong tail;
+    private final ByteBuffer[] views;
+    private final AtomicLong written;
+    private final Thread writer;
+    private volatile IOException error;
+    private MappedByteBuffer file;
+    private int fileIndex;
+    private volatile boolean running;
+
+    public SessionRecorder(Path directory) {
+        this(directory, DEFAULT_FILE_SIZE, DEFAULT_SLOTS);
+    }
+
+    public SessionRecorder(Path directory, int fileSize, int slotCount) {
+        if (Integer.bitCount(slotCount) != 1) {
+            throw new IllegalArgumentException("Slot count must be a power of two.");
+        }
+        if (fileSize < RecordCodec.FILE_HEADER_SIZE + SLOT_SIZE) {
+            throw new IllegalArgumentException("File size must hold the file header and a slot, "
+                                               + (RecordCodec.FILE_HEADER_SIZE + SLOT_SIZE) + " bytes.");
+        }
+        var ring = ByteBuffer.allocateDirect(slotCount * SLOT_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        var now = Instant.now();
+        this.dir = directory;
+        this.fileSize = fileSize;
+        mask = slotCount - 1;
+        slots = new ByteBuffer[slotCount];
+        views = new ByteBuffer[slotCount];
+        published = new AtomicLongArray(slotCount);
+        for (int i = 0; i < slotCount; ++i) {
+            ring.limit((i + 1) * SLOT_SIZE).position(i * SLOT_SIZE);
+            slots[i] = ring.slice().order(ByteOrder.LITTLE_ENDIAN);
+            views[i] = slots[i].duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            published.set(i, -1L);
+        }
+        head = new AtomicLong(0);
+        tail = new AtomicLong(0);
+        written = new AtomicLong(0);
+        dropped = new LongAdder();
+        baseEpochNanos = now.getEpochSecond() * 1_000_000_000L + now.getNano();
+        baseNanos = System.nanoTime();
+        /*
+         * Files are created new, so recorders started in the same second
+         * are told apart by process and instance.
+         */
+        prefix = "ctp-" + DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss")
+                                           .withZone(ZoneId.systemDefault())
+                                           .format(now)
+                 + "-" + ProcessHandle.current().pid() + "-" + INSTANCES.incrementAndGet();
+        writer = new Thread(this, "ctp-recorder");
+        writer.setDaemon(true);
+    }
+
+    public void start() {
+        running = true;
+        writer.start();
+    }
+
+    public void close() {
+        running = false;
+        try {
+            writer.join(1000);
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    public long getRecordCount() {
+        return written.get();
+    }
+
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    public IOException getError() {
+        return error;
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running || tail.get() < head.get()) {
+                if (!drain()) {
+                    LockSupport.parkNanos(IDLE_NANOS);
+                }
+            }
+        } catch (IOException ex) {
+            error = ex;
+        } finally {
+            if (file != null) {
+                file.force();
+            }
+        }
+    }
+
+    void recordFrontConnected(int session) {
+        var seq = claim();
+        if (seq < 0) {
+            return;
+        }
+        var b = slot(seq);
+        publish(seq, RecordCodec.putHeader(b, 0, RecordType.FRONT_CONNECTED, session, now()));
+    }
+
+    void recordFrontDisconnected(int session, int reason) {
+        var seq = claim();
+        if (seq < 0) {
+            return;
+        }
+        var b = slot(seq);
+        var p = RecordCodec.putHeader(b, 0, RecordType.FRONT_DISCONNECTED, session, now());
+        publish(seq, RecordCodec.putInt(b, p, reason));
+    }
+
+    void recordRspInfo(int session, int type, CThostFtdcRspInfoField info, int requestId, boolean isLast) {
+        var seq = claim();
+        if (seq < 0) {
+            return;
+        }
+        var b = slot(seq);
+        int p;
+        try {
+            p = RecordCodec.putHeader(b, 0, type, session, now());
+            p = RecordCodec.putRspInfo(b, p, info);
+            p = RecordCodec.putInt(b, p, requestId);
+            p = RecordCodec.putBoolean(b, p, isLast);
+        } catch (IndexOutOfBoundsException ex) {
+            p = -1;
+        }
+        publish(seq, p);
+    }
+
+    void recordRspUserLogin(int session, CThostFtdcRspUserLoginField rsp,
+                            CThostFtdcRspInfoField info,
+                            int requestId,
+                            boolean isLast) {
+        var seq = claim();
+        if (seq < 0) {
+            return;
+        }
+        var b = slot(seq);
+        int p;
+        try {
+            p = RecordCodec.putHeader(b, 0, RecordType.RSP_USER_LOGIN, session, now());
+            p = RecordCodec.putLogin(b, p, rsp);
+            p = RecordCodec.putRspInfo(b, p, info);
+            p = RecordCodec.putInt(b, p, requestId);
+            p = RecordCodec.putBoolean(b, p, isLast);
+        } catch (IndexOutOfBoundsException ex) {
+            p = -1;
+        }
+        publish(seq, p);
+    }
+
+    void recordInputOrder(int session, int type,
+                          CThostFtdcInputOrderField rsp,
+                          CThostFtdcRspInfoField info,
+                          int requestId,
+                          boolean isLast) {
+        var seq = claim();
+        if (seq < 0) {
+            return;
+        }
+        var b = slot(seq);
+        int p;
+        try {
+            p = RecordCodec.putHeader(b, 0, type, session, now());
+            p = RecordCodec.putInputOrder(b, p, rsp);
+            p = RecordCodec.putRspInfo(b, p, info);
+            p = RecordCodec.putInt(b, p, requestId);
+            p = RecordCodec.putBoolean(b, p, isLast);
+        } catch (IndexOutOfBoundsException ex) {
+            p = -1;
+        }
+        publish(seq, p);
+    }
+
+    void recordRspOrderAction(int session, CThostFtdcInputOrderActionField rsp,
+                              CThostFtdcRspInfoField info,
+                              int requestId,
+                              boolean isLast) {
+        var seq = claim();
+        if (seq < 0) {
+            return;
+        }
+        var b = slot(seq);
+        int p;
+        try {
+            p = RecordCodec.putHeader(b, 0, RecordType.RSP_ORDER_ACTION, session, now());
+            p = RecordCodec.putInputOrderAction(b, p, rsp);
+            p = RecordCodec.putRspInfo(b, p, info);
+            p = RecordCodec.putInt(b, p, requestId);
+            p = RecordCodec.putBoolean(b, p, isLast);
+        } catch (IndexOutOfBoundsException ex) {
+            p = -1;
+        }
+        publish(seq, p);
+    }
+
+    void recordErrRtnOrderAction(int session, CThostFtdcOrderActionField rsp, CThostFtdcRspInfoField info) {
+        var seq = claim();
+        if (seq < 0) {
+            return;
+        }
+        var b = slot(seq);
+        int p;
+        try {
+            p = RecordCodec.putHeader(b, 0, RecordType.ERR_RTN_ORDER_ACTION, session, now());
+            p = RecordCodec.putOrderAction(b, p, rsp);
+            p = RecordCodec.putRspInfo(b, p, info);
+        } catch (IndexOutOfBoundsException ex) {
+            p = -1;
+        }
+        publish(seq, p);
+    }
+
+    void recordOrder(int session, CThostFtdcOrderField order) {
+        var seq = claim();
+        if (seq < 0) {
+            return;
+        }
+        var b = slot(seq);
+        int p;
+        try {
+            p = RecordCodec.putHeader(b, 0, RecordType.RTN_ORDER, session, now());
+            p = RecordCodec.putOrder(b, p, order);
+        } catch (IndexOutOfBoundsException ex) {
+            p = -1;
+        }
+        publish(seq, p);
+    }
+
+    void recordInstrument(int session, CThostFtdcInstrumentField rsp,
+                          CThostFtdcRspInfoField info,
+                          int requestId,
+                          boolean isLast) {
+        var seq = claim();
+        if (seq < 0) {
+            return;
+        }
+        var b = slot(seq);
+        int p;
+        try {
+            p = RecordCodec.putHeader(b, 0, RecordType.RSP_QRY_INSTRUMENT, session, now());
+            p = RecordCodec.putInstrument(b, p, rsp);
+            p = RecordCodec.putRspInfo(b, p, info);
+            p = RecordCodec.putInt(b, p, requestId);
+            p = RecordCodec.putBoolean(b, p, isLast);
+        } catch (IndexOutOfBoundsException ex) {
+            p = -1;
+        }
+        publish(seq, p);
+    }
+
+    void recordDepthMarketData(int session, CThostFtdcDepthMarketDataField rsp,
+                               CThostFtdcRspInfoField info,
+                               int requestId,
+                               boolean isLast) {
+        var seq = claim();
+        if (seq < 0) {
+            return;
+        }
+        var b = slot(seq);
+        int p;
+        try {
+            p = RecordCodec.putHeader(b, 0, RecordType.RSP_QRY_DEPTH_MARKET_DATA, session, now());
+            p = RecordCodec.putDepthMarketData(b, p, rsp);
+            p = RecordCodec.putRspInfo(b, p, info);
+            p = RecordCodec.putInt(b, p, requestId);
+            p = RecordCodec.putBoolean(b, p, isLast);
+        } catch (IndexOutOfBoundsException ex) {
+            p = -1;
+        }
+        publish(seq, p);
+    }
+
+    void recordPosition(int session, CThostFtdcInvestorPositionField rsp,
+                        CThostFtdcRspInfoField info,
+                        int requestId,
+                        boolean isLast) {
+        var seq = claim();
+        if (seq < 0) {
+            return;
+        }
+        var b = slot(seq);
+        int p;
+        try {
+            p = RecordCodec.putHeader(b, 0, RecordType.RSP_QRY_INVESTOR_POSITION, session, now());
+            p = RecordCodec.putPosition(b, p, rsp);
+            p = RecordCodec.putRspInfo(b, p, info);
+            p = RecordCodec.putInt(b, p, requestId);
+            p = RecordCodec.putBoolean(b, p, isLast);
+        } catch (IndexOutOfBoundsException ex) {
+            p = -1;
+        }
+        publish(seq, p);
+    }
+
+    void recordInstrumentStatus(int session, CThostFtdcInstrumentStatusField status) {
+        var seq = claim();
+        if (seq < 0) {
+            return;
+        }
+        var b = slot(seq);
+        int p;
+        try {
+            p = RecordCodec.putHeader(b, 0, RecordType.RTN_INSTRUMENT_STATUS, session, now());
+            p = RecordCodec.putInstrumentStatus(b, p, status);
+        } catch (IndexOutOfBoundsException ex) {
+            p = -1;
+        }
+        publish(seq, p);
+    }
+
+    void recordTrade(int session, CThostFtdcTradeField trade) {
+        var seq = claim();
+        if (seq < 0) {
+            return;
+        }
+        var b = slot(seq);
+        int p;
+        try {
+            p = RecordCodec.putHeader(b, 0, RecordType.RTN_TRADE, session, now());
+            p = RecordCodec.putTrade(b, p, trade);
+        } catch (IndexOutOfBoundsException ex) {
+            p = -1;
+        }
+        publish(seq, p);
+    }
+
+    /**
+     * Claims and encodes an outbound request before it is sent, so callbacks
+     * caused by the request are always recorded after it.
+     *
+     * @return sequence to pass to {@link #endRequest(long, int)}, or negative
+     * if the record is dropped.
+     */
+    long beginRequest(int session, int type, Request request) {
+        var seq = claim();
+        if (seq < 0) {
+            return seq;
+        }
+        var b = slot(seq);
+        int p;
+        try {
+            p = RecordCodec.putHeader(b, 0, type, session, now());
+            p = RecordCodec.putRequest(b, p, request);
+            p = RecordCodec.putInt(b, p, RecordCodec.NULL_INT);
+        } catch (IndexOutOfBoundsException ex) {
+            p = -1;
+        }
+        b.putInt(0, p);
+        return seq;
+    }
+
+    /**
+     * Sets the return code of the request and publishes it.
+     *
+     * @param seq        sequence returned by {@link #beginRequest(int, int, Request)}.
+     * @param returnCode API return code, or {@link RecordCodec#NULL_INT} if
+     *                   the request failed before it was sent.
+     */
+    void endRequest(long seq, int returnCode) {
+        if (seq < 0) {
+            return;
+        }
+        var b = slot(seq);
+        var end = b.getInt(0);
+        if (end > 0) {
+            b.putInt(end - 4, returnCode);
+        }
+        publish(seq, end);
+    }
+
+    void recordResponse(Response response) {
+        var seq = claim();
+        if (seq < 0) {
+            return;
+        }
+        var b = slot(seq);
+        int p;
+        try {
+            p = RecordCodec.putHeader(b, 0, RecordType.HANDLER_RESPONSE, now());
+            p = RecordCodec.putResponse(b, p, response);
+        } catch (IndexOutOfBoundsException ex) {
+            p = -1;
+        }
+        publish(seq, p);
+    }
+
+    void recordTradeEvent(Trade trade) {
+        var seq = claim();
+        if (seq < 0) {
+            return;
+        }
+        var b = slot(seq);
+        int p;
+        try {
+            p = RecordCodec.putHeader(b, 0, RecordType.HANDLER_TRADE, now());
+            p = RecordCodec.putTradeEvent(b, p, trade);
+        } catch (IndexOutOfBoundsException ex) {
+            p = -1;
+        }
+        publish(seq, p);
+    }
+
+    void recordMessage(int type, Integer code, String message) {
+        var seq = claim();
+        if (seq < 0) {
+            return;
+        }
+        var b = slot(seq);
+        int p;
+        try {
+            p = RecordCodec.putHeader(b, 0, type, now());
+            p = RecordCodec.putInt(b, p, code);
+            p = RecordCodec.putString(b, p, message);
+        } catch (IndexOutOfBoundsException ex) {
+            p = -1;
+        }
+        publish(seq, p);
+    }
+
+    private long claim() {
+        long seq;
+        do {
+            seq = head.get();
+            if (seq - tail.get() > mask) {
+                dropped.increment();
+                return -1;
+            }
+        } while (!head.compareAndSet(seq, seq + 1));
+        return seq;
+    }
+
+    private ByteBuffer slot(long seq) {
+        return slots[(int) (seq & mask)];
+    }
+
+    private void publish(long seq, int end) {
+        var i = (int) (seq & mask);
+        /*
+         * Negative length marks a record that didn't fit into its slot.
+         */
+        slots[i].putInt(0, end);
+        published.lazySet(i, seq);
+    }
+
+    private long now() {
+        return baseEpochNanos + (System.nanoTime() - baseNanos);
+    }
+
+    private boolean drain() throws IOException {
+        var t = tail.get();
+        var n = t;
+        while (true) {
+            var i = (int) (n & mask);
+            if (published.get(i) != n) {
+                break;
+            }
+            var v = views[i];
+            var len = v.getInt(0);
+            if (len > 0) {
+                write(v, len);
+            } else {
+                dropped.increment();
+            }
+            tail.lazySet(++n);
+        }
+        return n != t;
+    }
+
+    private void write(ByteBuffer v, int len) throws IOException {
+        if (file == null || file.remaining() < len) {
+            roll();
+        }
+        v.limit(len).position(0);
+        file.put(v);
+        v.clear();
+        written.incrementAndGet();
+    }
+
+    private void roll() throws IOException {
+        if (file != null) {
+            file.force();
+        }
+        Files.createDirectories(dir);
+        var path = dir.resolve(String.format("%s-%04d.rec", prefix, ++fileIndex));
+        try (var ch = FileChannel.open(path,
+                                       StandardOpenOption.CREATE_NEW,
+                                       StandardOpenOption.READ,
+                                       StandardOpenOption.WRITE)) {
+            file = ch.map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+        }
+        file.order(ByteOrder.LITTLE_ENDIAN);
+        file.putInt(RecordCodec.FILE_MAGIC);
+        file.putShort(RecordCodec.FILE_VERSION);
+        file.putShort((short) 0);
+    }
+}
@@ -0,0 +1,399 @@
+/*
+ * Copyright (C) 2021 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.plugin;
+
+import com.openglobes.core.GatewayRuntimeException;
+import com.openglobes.core.ServiceRuntimeStatus;
+import com.openglobes.core.trader.*;
+import org.ctp4j.*;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.LinkedList;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays a recorded session into a {@link CtpTraderSpi} backed by a stub
+ * trader API.
+ * <p>
+ * Callbacks and order requests are fed in recorded order on the calling
+ * thread, either as fast as possible, in real time or in scaled time. The
+ * handler events produced by the replay are compared with the handler events
+ * of the recording. Non-deterministic fields like response IDs, signatures
+ * and timestamps are not compared.
+ * <p>
+ * The recording should start before login, so that order references are
+ * assigned the same way as in the original session. Callbacks tagged with
+ * the standby session go to the standby session of the replay gateway, so a
+ * recorded failover is replayed too.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+public class SessionReplayer {
+
+    public static final int AS_FAST_AS_POSSIBLE = 0;
+    public static final int REAL_TIME = 1;
+    public static final int SCALED_TIME = 2;
+    private final Path dir;
+    private final LinkedList<String> produced;
+    private CThostFtdcDepthMarketDataField depth;
+    private CThostFtdcRspInfoField info;
+    private CThostFtdcInputOrderField inputOrder;
+    private CThostFtdcInputOrderActionField inputOrderAction;
+    private CThostFtdcInstrumentField instrument;
+    private boolean isLast;
+    private CThostFtdcRspUserLoginField login;
+    private int mode;
+    private CThostFtdcOrderField order;
+    private CThostFtdcOrderActionField orderAction;
+    private CThostFtdcInvestorPositionField position;
+    private int reason;
+    private Request request;
+    private int requestId;
+    private double speed;
+    private CThostFtdcInstrumentStatusField status;
+    private CThostFtdcTradeField trade;
+
+    public SessionReplayer(Path directory) {
+        dir = directory;
+        produced = new LinkedList<>();
+        mode = AS_FAST_AS_POSSIBLE;
+        speed = 1D;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: SessionReplayer <directory> [afap|realtime|scaled <speed>]");
+            System.exit(2);
+        }
+        var replayer = new SessionReplayer(Path.of(args[0]));
+        if (args.length > 1) {
+            switch (args[1]) {
+                case "realtime":
+                    replayer.setMode(REAL_TIME);
+                    break;
+                case "scaled":
+                    replayer.setMode(SCALED_TIME);
+                    replayer.setSpeed(args.length > 2 ? Double.parseDouble(args[2]) : 1D);
+                    break;
+                default:
+                    replayer.setMode(AS_FAST_AS_POSSIBLE);
+            }
+        }
+        var report = replayer.replay();
+        System.out.print(report);
+        System.exit(report.getMismatchCount() == 0 ? 0 : 1);
+    }
+
+    private static String describe(Response r) {
+        return "onResponse(order=" + r.getOrderId() + ", status=" + r.getStatus()
+               + ", code=" + r.getStatusCode() + ")";
+    }
+
+    private static String describe(Trade t) {
+        return "onTrade(order=" + t.getOrderId() + ", price=" + t.getPrice()
+               + ", quantity=" + t.getQuantity() + ")";
+    }
+
+    private static String describeError(String message) {
+        return "onError(" + message + ")";
+    }
+
+    private static String describeStatus(Integer code) {
+        return "onStatusChange(" + code + ")";
+    }
+
+    private static String describe(int type, ByteBuffer b) {
+        switch (type) {
+            case RecordType.HANDLER_RESPONSE:
+                return describe(RecordCodec.getResponse(b));
+            case RecordType.HANDLER_TRADE:
+                return describe(RecordCodec.getTradeEvent(b));
+            case RecordType.HANDLER_ERROR:
+                RecordCodec.getInteger(b);
+                return describeError(RecordCodec.getString(b));
+            case RecordType.HANDLER_STATUS:
+                return describeStatus(RecordCodec.getInteger(b));
+            default:
+                return RecordType.name(type);
+        }
+    }
+
+    /**
+     * @param mode one of {@link #AS_FAST_AS_POSSIBLE}, {@link #REAL_TIME} and
+     *             {@link #SCALED_TIME}.
+     */
+    public void setMode(int mode) {
+        this.mode = mode;
+    }
+
+    /**
+     * @param speed time scale in {@link #SCALED_TIME} mode, 2.0 replays twice
+     *              as fast as recorded.
+     */
+    public void setSpeed(double speed) {
+        if (speed <= 0) {
+            throw new IllegalArgumentException("Speed must be positive.");
+        }
+        this.speed = speed;
+    }
+
+    public ReplayReport replay() throws IOException {
+        var gate = new CtpTraderGateway();
+        var api = new StubTraderApi();
+        var standbyApi = new StubTraderApi();
+        var report = new ReplayReport();
+        gate.setApi(api);
+        /*
+         * A standby that receives no callbacks never confirms, so it doesn't
+         * change a recording of a single session.
+         */
+        gate.setStandbyApi(standbyApi);
+        gate.setHandler(new ProducedEventHandler());
+        produced.clear();
+        var threads = ManagementFactory.getThreadMXBean();
+        var allocation = threads instanceof com.sun.management.ThreadMXBean
+                         && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemoryEnabled()
+                         ? (com.sun.management.ThreadMXBean) threads : null;
+        var tid = Thread.currentThread().getId();
+        var scale = mode == REAL_TIME ? 1D : speed;
+        var first = -1L;
+        var start = System.nanoTime();
+        try {
+            try (var reader = new RecordReader(dir)) {
+                while (reader.next()) {
+                    var type = reader.type();
+                    if (type >= RecordType.HANDLER_RESPONSE) {
+                        verify(describe(type, reader.payload()), report);
+                        continue;
+                    }
+                    if (first < 0) {
+                        first = reader.nanos();
+                    }
+                    if (mode != AS_FAST_AS_POSSIBLE) {
+                        pace(start + (long) ((reader.nanos() - first) / scale));
+                    }
+                    var standby = reader.session() == SessionRecorder.STANDBY_SESSION;
+                    prepare(type, reader.payload(), standby ? standbyApi : api);
+                    var a0 = allocation != null ? allocation.getThreadAllocatedBytes(tid) : 0L;
+                    var t0 = System.nanoTime();
+                    invoke(type, standby ? gate.getStandbySpi() : gate.getSpi(), gate);
+                    var t1 = System.nanoTime();
+                    if (allocation != null) {
+                        report.addAllocatedBytes(allocation.getThreadAllocatedBytes(tid) - a0);
+                    }
+                    report.record(type, t1 - t0);
+                }
+            }
+            report.setElapsedNanos(System.nanoTime() - start);
+            while (!produced.isEmpty()) {
+                report.mismatched("nothing", produced.poll());
+            }
+            return report;
+        } finally {
+            /*
+             * Gateway isn't started, so only its query thread is to be released.
+             */
+            gate.getSpi().closeQueries();
+        }
+    }
+
+    private void verify(String expected, ReplayReport report) {
+        var actual = produced.poll();
+        if (expected.equals(actual)) {
+            report.matched();
+        } else {
+            report.mismatched(expected, actual == null ? "nothing" : actual);
+        }
+    }
+
+    private void pace(long deadline) {
+        long left;
+        while ((left = deadline - System.nanoTime()) > 0) {
+            if (left > 1_000_000L) {
+                LockSupport.parkNanos(left - 500_000L);
+            } else {
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    /*
+     * Decodes the record before timing, so only the gateway is measured.
+     */
+    private void prepare(int type, ByteBuffer b, StubTraderApi api) {
+        switch (type) {
+            case RecordType.FRONT_DISCONNECTED:
+                reason = b.getInt();
+                break;
+            case RecordType.RSP_AUTHENTICATE:
+            case RecordType.RSP_USER_LOGOUT:
+            case RecordType.RSP_SETTLEMENT_CONFIRM:
+            case RecordType.RSP_ERROR:
+                info = RecordCodec.getRspInfo(b);
+                requestId = b.getInt();
+                isLast = RecordCodec.getBoolean(b);
+                break;
+            case RecordType.RSP_USER_LOGIN:
+                login = RecordCodec.getLogin(b);
+                info = RecordCodec.getRspInfo(b);
+                requestId = b.getInt();
+                isLast = RecordCodec.getBoolean(b);
+                break;
+            case RecordType.RSP_ORDER_INSERT:
+            case RecordType.ERR_RTN_ORDER_INSERT:
+                inputOrder = RecordCodec.getInputOrder(b);
+                info = RecordCodec.getRspInfo(b);
+                requestId = b.getInt();
+                isLast = RecordCodec.getBoolean(b);
+                break;
+            case RecordType.RSP_ORDER_ACTION:
+                inputOrderAction = RecordCodec.getInputOrderAction(b);
+                info = RecordCodec.getRspInfo(b);
+                requestId = b.getInt();
+                isLast = RecordCodec.getBoolean(b);
+                break;
+            case RecordType.ERR_RTN_ORDER_ACTION:
+                orderAction = RecordCodec.getOrderAction(b);
+                info = RecordCodec.getRspInfo(b);
+                break;
+            case RecordType.RTN_ORDER:
+                order = RecordCodec.getOrder(b);
+                break;
+            case RecordType.RTN_TRADE:
+                trade = RecordCodec.getTrade(b);
+                break;
+            case RecordType.RSP_QRY_INSTRUMENT:
+                instrument = RecordCodec.getInstrument(b);
+                info = RecordCodec.getRspInfo(b);
+                requestId = b.getInt();
+                isLast = RecordCodec.getBoolean(b);
+                break;
+            case RecordType.RSP_QRY_DEPTH_MARKET_DATA:
+                depth = RecordCodec.getDepthMarketData(b);
+                info = RecordCodec.getRspInfo(b);
+                requestId = b.getInt();
+                isLast = RecordCodec.getBoolean(b);
+                break;
+            case RecordType.RSP_QRY_INVESTOR_POSITION:
+                position = RecordCodec.getPosition(b);
+                info = RecordCodec.getRspInfo(b);
+                requestId = b.getInt();
+                isLast = RecordCodec.getBoolean(b);
+                break;
+            case RecordType.RTN_INSTRUMENT_STATUS:
+                status = RecordCodec.getInstrumentStatus(b);
+                break;
+            case RecordType.REQ_ORDER_INSERT:
+            case RecordType.REQ_ORDER_ACTION:
+                request = RecordCodec.getRequest(b);
+                var ret = b.getInt();
+                api.setNextReturn(ret == RecordCodec.NULL_INT ? 0 : ret);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void invoke(int type, CtpTraderSpi spi, CtpTraderGateway gate) {
+        switch (type) {
+            case RecordType.FRONT_CONNECTED:
+                spi.OnFrontConnected();
+                break;
+            case RecordType.FRONT_DISCONNECTED:
+                spi.OnFrontDisconnected(reason);
+                break;
+            case RecordType.RSP_AUTHENTICATE:
+                spi.OnRspAuthenticate(new CThostFtdcRspAuthenticateField(), info, requestId, isLast);
+                break;
+            case RecordType.RSP_USER_LOGIN:
+                spi.OnRspUserLogin(login, info, requestId, isLast);
+                break;
+            case RecordType.RSP_USER_LOGOUT:
+                spi.OnRspUserLogout(new CThostFtdcUserLogoutField(), info, requestId, isLast);
+                break;
+            case RecordType.RSP_SETTLEMENT_CONFIRM:
+                spi.OnRspSettlementInfoConfirm(new CThostFtdcSettlementInfoConfirmField(), info, requestId, isLast);
+                break;
+            case RecordType.RSP_ERROR:
+                spi.OnRspError(info, requestId, isLast);
+                break;
+            case RecordType.RSP_ORDER_INSERT:
+                spi.OnRspOrderInsert(inputOrder, info, requestId, isLast);
+                break;
+            case RecordType.RSP_ORDER_ACTION:
+                spi.OnRspOrderAction(inputOrderAction, info, requestId, isLast);
+                break;
+            case RecordType.ERR_RTN_ORDER_INSERT:
+                spi.OnErrRtnOrderInsert(inputOrder, info);
+                break;
+            case RecordType.ERR_RTN_ORDER_ACTION:
+                spi.OnErrRtnOrderAction(orderAction, info);
+                break;
+            case RecordType.RTN_ORDER:
+                spi.OnRtnOrder(order);
+                break;
+            case RecordType.RTN_TRADE:
+                spi.OnRtnTrade(trade);
+                break;
+            case RecordType.RSP_QRY_INSTRUMENT:
+                spi.OnRspQryInstrument(instrument, info, requestId, isLast);
+                break;
+            case RecordType.RSP_QRY_DEPTH_MARKET_DATA:
+                spi.OnRspQryDepthMarketData(depth, info, requestId, isLast);
+                break;
+            case RecordType.RSP_QRY_INVESTOR_POSITION:
+                spi.OnRspQryInvestorPosition(position, info, requestId, isLast);
+                break;
+            case RecordType.RTN_INSTRUMENT_STATUS:
+                spi.OnRtnInstrumentStatus(status);
+                break;
+            case RecordType.REQ_ORDER_INSERT:
+            case RecordType.REQ_ORDER_ACTION:
+                gate.insert(request);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private class ProducedEventHandler implements ITraderGatewayHandler {
+
+        @Override
+        public void onTrade(Trade trade) {
+            produced.add(describe(trade));
+        }
+
+        @Override
+        public void onResponse(Response response) {
+            produced.add(describe(response));
+        }
+
+        @Override
+        public void onError(GatewayRuntimeException error) {
+            produced.add(describeError(error.getMessage()));
+        }
+
+        @Override
+        public void onStatusChange(ServiceRuntimeStatus status) {
+            produced.add(describeStatus(status.getCode()));
+        }
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2021 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.plugin;
+
+import com.openglobes.core.trader.Request;
+import com.openglobes.core.trader.Response;
+import com.openglobes.core.trader.Trade;
+import com.openglobes.core.trader.TraderGatewayInfo;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+
+import static com.openglobes.plugin.RecordCodec.*;
+
+/**
+ * Binary layout of sidecar messages.
+ * <p>
+ * A message is its type(byte) followed by all fields of the carried object,
+ * with the primitives and strings of {@link RecordCodec}. An insert carries
+ * the process ID of the server the client saw alive(long) before the request,
+ * so a request queued for another server is known. Timestamps are
+ * epoch nanoseconds(long) and zone offset seconds(int), so they come back
+ * with the offset in place of the region zone.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+class SidecarCodec {
+
+    static final byte INSERT = 1;
+    static final byte RESPONSE = 2;
+    static final byte TRADE = 3;
+    static final byte ERROR = 4;
+    static final byte STATUS = 5;
+    static final byte INFO = 6;
+
+    private SidecarCodec() {
+    }
+
+    static int putType(ByteBuffer b, int p, byte type) {
+        b.put(p, type);
+        return p + 1;
+    }
+
+    static int putTimestamp(ByteBuffer b, int p, ZonedDateTime t) {
+        if (t == null) {
+            p = putLong(b, p, NULL_LONG);
+            return putInt(b, p, 0);
+        }
+        p = putLong(b, p, t.toEpochSecond() * 1_000_000_000L + t.getNano());
+        return putInt(b, p, t.getOffset().getTotalSeconds());
+    }
+
+    static ZonedDateTime getTimestamp(ByteBuffer b) {
+        var nanos = b.getLong();
+        var offset = b.getInt();
+        if (nanos == NULL_LONG) {
+            return null;
+        }
+        return ZonedDateTime.ofInstant(Instant.ofEpochSecond(Math.floorDiv(nanos, 1_000_000_000L),
+                                                             Math.floorMod(nanos, 1_000_000_000L)),
+                                       ZoneOffset.ofTotalSeconds(offset));
+    }
+
+    static int putRequest(ByteBuffer b, int p, Request r) {
+        p = putLong(b, p, r.getOrderId());
+        p = putLong(b, p, r.getRequestId());
+        p = putInt(b, p, r.getTraderId());
+        p = putInt(b, p, r.getAction());
+        p = putInt(b, p, r.getDirection());
+        p = putInt(b, p, r.getOffset());
+        p = putDouble(b, p, r.getPrice());
+        p = putLong(b, p, r.getQuantity());
+        p = putDay(b, p, r.getTradingDay());
+        p = putTimestamp(b, p, r.getTimestamp());
+        p = putTimestamp(b, p, r.getUpdateTimestamp());
+        p = putString(b, p, r.getInstrumentId());
+        p = putString(b, p, r.getExchangeId());
+        p = putString(b, p, r.getSignature());
+        return putString(b, p, r.getTag());
+    }
+
+    static Request getRequest(ByteBuffer b) {
+        var r = new Request();
+        r.setOrderId(getLongObject(b));
+        r.setRequestId(getLongObject(b));
+        r.setTraderId(getInteger(b));
+        r.setAction(getInteger(b));
+        r.setDirection(getInteger(b));
+        r.setOffset(getInteger(b));
+        r.setPrice(getDoubleObject(b));
+        r.setQuantity(getLongObject(b));
+        r.setTradingDay(getDay(b));
+        r.setTimestamp(getTimestamp(b));
+        r.setUpdateTimestamp(getTimestamp(b));
+        r.setInstrumentId(getString(b));
+        r.setExchangeId(getString(b));
+        r.setSignature(getString(b));
+        r.setTag(getString(b));
+        return r;
+    }
+
+    static int putResponse(ByteBuffer b, int p, Response r) {
+        p = putLong(b, p, r.getOrderId());
+        p = putLong(b, p, r.getResponseId());
+        p = putInt(b, p, r.getTraderId());
+        p = putInt(b, p, r.getAction());
+        p = putInt(b, p, r.getDirection());
+        p = putInt(b, p, r.getOffset());
+        p = putInt(b, p, r.getStatus());
+        p = putInt(b, p, r.getStatusCode());
+        p = putDay(b, p, r.getTradingDay());
+        p = putTimestamp(b, p, r.getTimestamp());
+        p = putString(b, p, r.getInstrumentId());
+        p = putString(b, p, r.getSignature());
+        return putString(b, p, r.getStatusMessage());
+    }
+
+    static Response getResponse(ByteBuffer b) {
+        var r = new Response();
+        r.setOrderId(getLongObject(b));
+        r.setResponseId(getLongObject(b));
+        r.setTraderId(getInteger(b));
+        r.setAction(getInteger(b));
+        r.setDirection(getInteger(b));
+        r.setOffset(getInteger(b));
+        r.setStatus(getInteger(b));
+        r.setStatusCode(getInteger(b));
+        r.setTradingDay(getDay(b));
+        r.setTimestamp(getTimestamp(b));
+        r.setInstrumentId(getString(b));
+        r.setSignature(getString(b));
+        r.setStatusMessage(getString(b));
+        return r;
+    }
+
+    static int putTrade(ByteBuffer b, int p, Trade t) {
+        p = putLong(b, p, t.getOrderId());
+        p = putLong(b, p, t.getTradeId());
+        p = putInt(b, p, t.getTraderId());
+        p = putInt(b, p, t.getAction());
+        p = putInt(b, p, t.getDirection());
+        p = putInt(b, p, t.getOffset());
+        p = putDouble(b, p, t.getPrice());
+        p = putLong(b, p, t.getQuantity());
+        p = putDay(b, p, t.getTradingDay());
+        p = putTimestamp(b, p, t.getTimestamp());
+        p = putString(b, p, t.getInstrumentId());
+        return putString(b, p, t.getSignature());
+    }
+
+    static Trade getTrade(ByteBuffer b) {
+        var t = new Trade();
+        t.setOrderId(getLongObject(b));
+        t.setTradeId(getLongObject(b));
+        t.setTraderId(getInteger(b));
+        t.setAction(getInteger(b));
+        t.setDirection(getInteger(b));
+        t.setOffset(getInteger(b));
+        t.setPrice(getDoubleObject(b));
+        t.setQuantity(getLongObject(b));
+        t.setTradingDay(getDay(b));
+        t.setTimestamp(getTimestamp(b));
+        t.setInstrumentId(getString(b));
+        t.setSignature(getString(b));
+        return t;
+    }
+
+    static int putInfo(ByteBuffer b, int p, TraderGatewayInfo info) {
+        p = putDay(b, p, info.getTradingDay());
+        p = putDay(b, p, info.getActionDay());
+        return putTimestamp(b, p, info.getUpdateTimestamp());
+    }
+
+    static TraderGatewayInfo getInfo(ByteBuffer b) {
+        var info = new TraderGatewayInfo();
+        info.setTradingDay(getDay(b));
+        info.setActionDay(getDay(b));
+        info.setUpdateTimestamp(getTimestamp(b));
+        return info;
+    }
+}
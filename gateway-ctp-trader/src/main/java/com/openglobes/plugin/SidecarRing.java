@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2021 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.plugin;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Single producer, single consumer ring of fixed size slots in a memory
+ * mapped file, shared by two processes.
+ * <p>
+ * The file starts with a header of magic(int), version(int), slot size(int),
+ * slot count(int) and the producer's and consumer's process IDs(long). The
+ * producer's sequence and the consumer's sequence sit on their own cache
+ * lines and are read with acquire and written with release semantics. A slot
+ * holds the record length(int) followed by the record.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+class SidecarRing implements Closeable {
+
+    static final int MAGIC = 0x43545053;
+    static final int VERSION = 3;
+    private static final int SLOT_SIZE_OFFSET = 8;
+    private static final int SLOT_COUNT_OFFSET = 12;
+    private static final int PRODUCER_PID_OFFSET = 16;
+    private static final int CONSUMER_PID_OFFSET = 24;
+    private static final int TAIL_OFFSET = 64;
+    private static final int HEAD_OFFSET = 128;
+    private static final int DATA_OFFSET = 192;
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class,
+                                                                                  ByteOrder.nativeOrder());
+    private final MappedByteBuffer buffer;
+    private final FileChannel channel;
+    private final int mask;
+    private final ByteBuffer[] slots;
+    private long cachedHead;
+    private long cachedTail;
+    private long head;
+    private long tail;
+
+    private SidecarRing(FileChannel channel, MappedByteBuffer buffer) {
+        this.channel = channel;
+        this.buffer = buffer;
+        var slotSize = buffer.getInt(SLOT_SIZE_OFFSET);
+        var slotCount = buffer.getInt(SLOT_COUNT_OFFSET);
+        mask = slotCount - 1;
+        slots = new ByteBuffer[slotCount];
+        for (int i = 0; i < slotCount; ++i) {
+            slots[i] = buffer.duplicate()
+                             .position(DATA_OFFSET + i * slotSize)
+                             .limit(DATA_OFFSET + (i + 1) * slotSize)
+                             .slice();
+        }
+        tail = (long) LONGS.getAcquire(buffer, TAIL_OFFSET);
+        head = (long) LONGS.getAcquire(buffer, HEAD_OFFSET);
+        cachedHead = head;
+        cachedTail = tail;
+    }
+
+    /**
+     * Creates a ring file, replacing an existing one.
+     *
+     * @param file      ring file.
+     * @param slotSize  slot size in bytes.
+     * @param slotCount number of slots, rounded up to a power of two.
+     * @return ring.
+     * @throws IOException if the file can't be created or mapped.
+     */
+    static SidecarRing create(Path file, int slotSize, int slotCount) throws IOException {
+        var n = Integer.highestOneBit(Math.max(slotCount, 2) - 1) << 1;
+        var ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                                  StandardOpenOption.READ, StandardOpenOption.WRITE);
+        var b = ch.map(FileChannel.MapMode.READ_WRITE, 0, DATA_OFFSET + (long) slotSize * n);
+        b.putInt(SLOT_SIZE_OFFSET, slotSize);
+        b.putInt(SLOT_COUNT_OFFSET, n);
+        b.putInt(4, VERSION);
+        /*
+         * Magic is written last so the other side never maps a file with a
+         * partial header.
+         */
+        b.putInt(0, MAGIC);
+        return new SidecarRing(ch, b);
+    }
+
+    /**
+     * Opens a ring file created by the other side.
+     *
+     * @param file ring file.
+     * @return ring.
+     * @throws IOException if the file isn't a complete ring.
+     */
+    static SidecarRing open(Path file) throws IOException {
+        var ch = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            if (ch.size() < DATA_OFFSET) {
+                throw new IOException("Incomplete ring file " + file + ".");
+            }
+            var b = ch.map(FileChannel.MapMode.READ_WRITE, 0, ch.size());
+            if (b.getInt(0) != MAGIC || b.getInt(4) != VERSION) {
+                throw new IOException("Wrong ring file " + file + ".");
+            }
+            return new SidecarRing(ch, b);
+        } catch (IOException ex) {
+            ch.close();
+            throw ex;
+        }
+    }
+
+    void setProducerPid(long pid) {
+        LONGS.setRelease(buffer, PRODUCER_PID_OFFSET, pid);
+    }
+
+    void setConsumerPid(long pid) {
+        LONGS.setRelease(buffer, CONSUMER_PID_OFFSET, pid);
+    }
+
+    long getProducerPid() {
+        return (long) LONGS.getAcquire(buffer, PRODUCER_PID_OFFSET);
+    }
+
+    long getConsumerPid() {
+        return (long) LONGS.getAcquire(buffer, CONSUMER_PID_OFFSET);
+    }
+
+    /**
+     * Producer takes the next slot to write a record from position 4.
+     *
+     * @return slot, or {@code null} if the ring is full.
+     */
+    ByteBuffer claim() {
+        if (tail - cachedHead > mask) {
+            cachedHead = (long) LONGS.getAcquire(buffer, HEAD_OFFSET);
+            if (tail - cachedHead > mask) {
+                return null;
+            }
+        }
+        return slots[(int) tail & mask];
+    }
+
+    /**
+     * @return records published by the producer and not yet released by the
+     * consumer.
+     */
+    int backlog() {
+        cachedHead = (long) LONGS.getAcquire(buffer, HEAD_OFFSET);
+        return (int) (tail - cachedHead);
+    }
+
+    /**
+     * Producer makes the claimed slot visible to the consumer.
+     *
+     * @param end position after the record in the slot.
+     */
+    void publish(int end) {
+        slots[(int) tail & mask].putInt(0, end - 4);
+        LONGS.setRelease(buffer, TAIL_OFFSET, ++tail);
+    }
+
+    /**
+     * Consumer takes the next record.
+     *
+     * @return slot positioned at the record and limited to its end, or
+     * {@code null} if the ring is empty.
+     */
+    ByteBuffer poll() {
+        if (head == cachedTail) {
+            cachedTail = (long) LONGS.getAcquire(buffer, TAIL_OFFSET);
+            if (head == cachedTail) {
+                return null;
+            }
+        }
+        var b = slots[(int) head & mask];
+        return b.limit(4 + b.getInt(0)).position(4);
+    }
+
+    /**
+     * Consumer gives the polled slot back to the producer.
+     */
+    void release() {
+        slots[(int) head & mask].clear();
+        LONGS.setRelease(buffer, HEAD_OFFSET, ++head);
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
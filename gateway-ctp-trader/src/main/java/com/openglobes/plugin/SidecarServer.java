@@ -0,0 +1,485 @@
+/*
+ * Copyright (C) 2021 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.plugin;
+
+import com.openglobes.core.GatewayRuntimeException;
+import com.openglobes.core.ServiceRuntimeStatus;
+import com.openglobes.core.trader.*;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs a gateway in its own process for local clients of
+ * {@link SidecarTraderGateway}.
+ * <p>
+ * A client creates a pair of {@link SidecarRing} files in the sidecar
+ * directory, {@code <name>.req} for its requests and {@code <name>.rsp} for
+ * the events sent back. The server finds new clients by scanning the
+ * directory, and drops a client when its process exits or its files are
+ * removed.
+ * <p>
+ * Requests of all clients go to the one gateway. Responses and trades are
+ * routed to the client that last sent a request of their trader ID, and
+ * errors and status changes go to every client. A request queued for
+ * another server, before this one attached, is dropped with an error to its
+ * client instead of being sent late. When a client's ring stays
+ * full for a short wait, the client is marked stalled and is not waited for
+ * until it has drained its ring, so a stuck client doesn't hold back the
+ * others. Meanwhile its trades are parked, and its other events are dropped
+ * and counted. Once drained, the client first gets an error with the number
+ * of dropped events, so it knows to reconcile, and then the parked trades.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+public class SidecarServer implements ITraderGatewayHandler, Runnable, Closeable {
+
+    public static final String REQUEST_SUFFIX = ".req";
+    public static final String RESPONSE_SUFFIX = ".rsp";
+    private static final int BATCH = 64;
+    private static final long FULL_WAIT_NANOS = 10_000_000L;
+    private static final long SCAN_NANOS = 100_000_000L;
+    private final Map<String, Client> clients;
+    private final Path dir;
+    private final LongAdder dropped;
+    private final ITraderGateway gateway;
+    private final long pid;
+    private final Map<Integer, Client> routes;
+    private final LongAdder stale;
+    private final LongAdder unrouted;
+    private IIdleStrategy idle;
+    private volatile boolean running;
+    private Thread thread;
+
+    /**
+     * Creates server and sets it as the gateway's handler.
+     *
+     * @param gateway gateway serving the clients.
+     * @param dir     sidecar directory.
+     * @throws IOException if the directory can't be created.
+     */
+    public SidecarServer(ITraderGateway gateway, Path dir) throws IOException {
+        this.gateway = gateway;
+        this.dir = dir;
+        Files.createDirectories(dir);
+        clients = new ConcurrentHashMap<>();
+        routes = new ConcurrentHashMap<>();
+        dropped = new LongAdder();
+        stale = new LongAdder();
+        unrouted = new LongAdder();
+        pid = ProcessHandle.current().pid();
+        idle = new SpinThenParkIdleStrategy();
+        gateway.setHandler(this);
+    }
+
+    /**
+     * Starts a sidecar process. Gateway properties are {@code userId},
+     * {@code brokerId}, {@code password}, {@code appId}, {@code authCode},
+     * {@code flowPath} and {@code fronts} separated by commas.
+     *
+     * @param args sidecar directory and gateway properties file.
+     * @throws IOException if the properties can't be read.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: SidecarServer <directory> <gateway properties>");
+            System.exit(2);
+        }
+        var props = new Properties();
+        try (InputStream in = Files.newInputStream(Path.of(args[1]))) {
+            props.load(in);
+        }
+        var gateway = new CtpTraderGateway();
+        gateway.setUserId(props.getProperty("userId"));
+        gateway.setBrokerId(props.getProperty("brokerId"));
+        gateway.setPassword(props.getProperty("password"));
+        gateway.setAppId(props.getProperty("appId"));
+        gateway.setAuthCode(props.getProperty("authCode"));
+        gateway.setFlowPath(props.getProperty("flowPath", ""));
+        for (var front : props.getProperty("fronts", "").split(",")) {
+            if (!front.isBlank()) {
+                gateway.addFront(front.strip());
+            }
+        }
+        var server = new SidecarServer(gateway, Path.of(args[0]));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.close();
+            gateway.stop();
+        }));
+        gateway.start();
+        server.running = true;
+        server.run();
+    }
+
+    /**
+     * @param idle idle strategy of the polling thread.
+     */
+    public void setIdleStrategy(IIdleStrategy idle) {
+        this.idle = idle;
+    }
+
+    /**
+     * Starts a thread polling the clients.
+     */
+    public synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this, "ctp-sidecar-server");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public synchronized void close() {
+        running = false;
+        if (thread != null) {
+            try {
+                thread.join();
+            } catch (InterruptedException ignored) {
+                Thread.currentThread().interrupt();
+            }
+            thread = null;
+        }
+        clients.values().forEach(this::detach);
+    }
+
+    /**
+     * @return number of attached clients.
+     */
+    public int getClientCount() {
+        return clients.size();
+    }
+
+    /**
+     * @return number of responses and trades whose trader ID has no client.
+     */
+    public long getUnroutedCount() {
+        return unrouted.sum();
+    }
+
+    /**
+     * @return number of requests dropped because they were queued for
+     * another server.
+     */
+    public long getStaleCount() {
+        return stale.sum();
+    }
+
+    /**
+     * @return number of events other than trades dropped because a client's
+     * ring was full.
+     */
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    @Override
+    public void run() {
+        long lastScan = 0;
+        while (running) {
+            var now = System.nanoTime();
+            if (now - lastScan >= SCAN_NANOS) {
+                scan();
+                lastScan = now;
+            }
+            int n = 0;
+            for (var c : clients.values()) {
+                if (c.stalled) {
+                    synchronized (c) {
+                        if (c.stalled) {
+                            recover(c);
+                        }
+                    }
+                }
+                n += poll(c);
+            }
+            idle.idle(n);
+        }
+    }
+
+    @Override
+    public void onTrade(Trade trade) {
+        var c = route(trade.getTraderId());
+        if (c != null) {
+            send(c, SidecarCodec.TRADE, trade, null);
+        }
+    }
+
+    @Override
+    public void onResponse(Response response) {
+        var c = route(response.getTraderId());
+        if (c != null) {
+            send(c, SidecarCodec.RESPONSE, null, response);
+        }
+    }
+
+    @Override
+    public void onError(GatewayRuntimeException error) {
+        for (var c : clients.values()) {
+            sendError(c, error.getCode(), error.getMessage());
+        }
+    }
+
+    @Override
+    public void onStatusChange(ServiceRuntimeStatus status) {
+        for (var c : clients.values()) {
+            synchronized (c) {
+                var b = claim(c);
+                if (b == null) {
+                    drop(c);
+                } else {
+                    var p = SidecarCodec.putType(b, 4, SidecarCodec.STATUS);
+                    p = RecordCodec.putInt(b, p, status.getCode());
+                    c.responses.publish(RecordCodec.putString(b, p, status.getMessage()));
+                }
+            }
+            /*
+             * Login changes trading day.
+             */
+            sendInfo(c);
+        }
+    }
+
+    private Client route(Integer traderId) {
+        var c = traderId == null ? null : routes.get(traderId);
+        if (c == null) {
+            unrouted.increment();
+        }
+        return c;
+    }
+
+    private void send(Client c, byte type, Trade trade, Response response) {
+        synchronized (c) {
+            var b = claim(c);
+            if (b == null) {
+                if (type == SidecarCodec.TRADE) {
+                    c.parked.add(trade);
+                } else {
+                    drop(c);
+                }
+                return;
+            }
+            var p = SidecarCodec.putType(b, 4, type);
+            p = type == SidecarCodec.TRADE
+                ? SidecarCodec.putTrade(b, p, trade)
+                : SidecarCodec.putResponse(b, p, response);
+            c.responses.publish(p);
+        }
+    }
+
+    private void sendError(Client c, Integer code, String message) {
+        synchronized (c) {
+            var b = claim(c);
+            if (b == null) {
+                drop(c);
+                return;
+            }
+            var p = SidecarCodec.putType(b, 4, SidecarCodec.ERROR);
+            p = RecordCodec.putInt(b, p, code);
+            c.responses.publish(RecordCodec.putString(b, p, message));
+        }
+    }
+
+    private void sendInfo(Client c) {
+        var info = gateway.getGatewayInfo();
+        if (info == null) {
+            return;
+        }
+        synchronized (c) {
+            var b = claim(c);
+            if (b == null) {
+                drop(c);
+            } else {
+                var p = SidecarCodec.putType(b, 4, SidecarCodec.INFO);
+                c.responses.publish(SidecarCodec.putInfo(b, p, info));
+            }
+        }
+    }
+
+    /*
+     * Called with the client's lock held, as are the methods below.
+     */
+    private ByteBuffer claim(Client c) {
+        if (c.stalled && !recover(c)) {
+            return null;
+        }
+        var b = c.responses.claim();
+        if (b == null) {
+            var deadline = System.nanoTime() + FULL_WAIT_NANOS;
+            while ((b = c.responses.claim()) == null && System.nanoTime() < deadline) {
+                Thread.onSpinWait();
+            }
+            if (b == null) {
+                c.stalled = true;
+            }
+        }
+        return b;
+    }
+
+    private void drop(Client c) {
+        dropped.increment();
+        ++c.gap;
+    }
+
+    /**
+     * Sends the gap and the parked trades once a stalled client has drained
+     * its ring.
+     *
+     * @return {@code true} if the client is no longer stalled.
+     */
+    private boolean recover(Client c) {
+        if (c.responses.backlog() > 0) {
+            return false;
+        }
+        ByteBuffer b;
+        if (c.gap > 0) {
+            b = c.responses.claim();
+            var p = SidecarCodec.putType(b, 4, SidecarCodec.ERROR);
+            p = RecordCodec.putInt(b, p, GatewayStatus.SIDECAR_EVENTS_DROPPED);
+            c.responses.publish(RecordCodec.putString(b, p, c.gap + " events were dropped while the client was "
+                                                            + "stalled, reconcile orders."));
+            c.gap = 0;
+        }
+        while (!c.parked.isEmpty() && (b = c.responses.claim()) != null) {
+            var p = SidecarCodec.putType(b, 4, SidecarCodec.TRADE);
+            c.responses.publish(SidecarCodec.putTrade(b, p, c.parked.poll()));
+        }
+        c.stalled = !c.parked.isEmpty();
+        return !c.stalled;
+    }
+
+    private int poll(Client c) {
+        int n = 0;
+        ByteBuffer b;
+        while (n < BATCH && (b = c.requests.poll()) != null) {
+            Request r = null;
+            var current = false;
+            if (b.get() == SidecarCodec.INSERT) {
+                current = b.getLong() == pid;
+                r = SidecarCodec.getRequest(b);
+            }
+            c.requests.release();
+            ++n;
+            if (r != null && !current) {
+                stale.increment();
+                sendError(c, GatewayStatus.SIDECAR_NOT_ATTACHED,
+                          "Request of order " + r.getOrderId() + " was queued for another server and is dropped.");
+            } else if (r != null) {
+                if (r.getTraderId() != null) {
+                    routes.put(r.getTraderId(), c);
+                }
+                gateway.insert(r);
+            }
+        }
+        return n;
+    }
+
+    private void scan() {
+        for (var c : clients.values()) {
+            if (!Files.exists(c.file) || !ProcessHandle.of(c.pid).map(ProcessHandle::isAlive).orElse(false)) {
+                detach(c);
+            }
+        }
+        try (var files = Files.list(dir)) {
+            files.filter(f -> f.getFileName().toString().endsWith(REQUEST_SUFFIX))
+                 .forEach(this::attach);
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void attach(Path file) {
+        var name = file.getFileName().toString();
+        name = name.substring(0, name.length() - REQUEST_SUFFIX.length());
+        if (clients.containsKey(name)) {
+            return;
+        }
+        SidecarRing requests = null;
+        try {
+            requests = SidecarRing.open(file);
+            if (requests.getProducerPid() == 0) {
+                throw new IOException("Client process ID isn't set.");
+            }
+            var responses = SidecarRing.open(dir.resolve(name + RESPONSE_SUFFIX));
+            requests.setConsumerPid(ProcessHandle.current().pid());
+            responses.setProducerPid(ProcessHandle.current().pid());
+            var c = new Client(name, file, requests.getProducerPid(), requests, responses);
+            clients.put(name, c);
+            sendInfo(c);
+        } catch (IOException ex) {
+            /*
+             * Client is still creating its files, try at next scan.
+             */
+            if (requests != null) {
+                try {
+                    requests.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private void detach(Client c) {
+        clients.remove(c.name);
+        routes.values().removeIf(x -> x == c);
+        try {
+            c.requests.close();
+            c.responses.close();
+        } catch (IOException ignored) {
+        }
+        if (!ProcessHandle.of(c.pid).map(ProcessHandle::isAlive).orElse(false)) {
+            try {
+                Files.deleteIfExists(c.file);
+                Files.deleteIfExists(dir.resolve(c.name + RESPONSE_SUFFIX));
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private static class Client {
+
+        private final Path file;
+        private final String name;
+        private final Queue<Trade> parked;
+        private final long pid;
+        private final SidecarRing requests;
+        private final SidecarRing responses;
+        private long gap;
+        private volatile boolean stalled;
+
+        Client(String name, Path file, long pid, SidecarRing requests, SidecarRing responses) {
+            this.name = name;
+            this.file = file;
+            this.pid = pid;
+            this.requests = requests;
+            this.responses = responses;
+            parked = new ArrayDeque<>();
+        }
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2021 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.plugin;
+
+import com.openglobes.core.GatewayRuntimeException;
+import com.openglobes.core.ServiceRuntimeStatus;
+import com.openglobes.core.trader.*;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Client of a {@link SidecarServer} running the CTP session in another
+ * process on the same host.
+ * <p>
+ * Requests are written into this client's request ring and events are read
+ * from its response ring by a polling thread started with {@link #start()},
+ * which calls the handler. The rings are memory mapped files, so a request
+ * costs an encode into shared memory and no system call.
+ * <p>
+ * The server routes responses and trades back by trader ID, so trader IDs
+ * must not be shared between clients.
+ * <p>
+ * A request fails at once if the polling thread hasn't seen a live server,
+ * and a server drops requests queued for another server, so a restarted
+ * server never sends a backlog of stale orders.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+public class SidecarTraderGateway implements ITraderGateway, Runnable, Closeable {
+
+    public static final int SLOT_SIZE = 4096;
+    public static final int SLOT_COUNT = 1024;
+    private static final long CHECK_NANOS = 100_000_000L;
+    private final Path dir;
+    private final String name;
+    private final SidecarRing requests;
+    private final SidecarRing responses;
+    private ITraderGatewayHandler handler;
+    private IIdleStrategy idle;
+    private volatile TraderGatewayInfo info;
+    private volatile boolean running;
+    private volatile boolean serverAlive;
+    private volatile long serverPid;
+    private Thread thread;
+
+    /**
+     * Creates client named by its process ID.
+     *
+     * @param dir sidecar directory.
+     * @throws IOException if the rings can't be created.
+     */
+    public SidecarTraderGateway(Path dir) throws IOException {
+        this(dir, "client-" + ProcessHandle.current().pid());
+    }
+
+    /**
+     * @param dir  sidecar directory.
+     * @param name client name, unique in the directory.
+     * @throws IOException if the rings can't be created.
+     */
+    public SidecarTraderGateway(Path dir, String name) throws IOException {
+        this.dir = dir;
+        this.name = name;
+        Files.createDirectories(dir);
+        var pid = ProcessHandle.current().pid();
+        /*
+         * Server looks for the request ring, so the response ring is ready
+         * by the time it is found.
+         */
+        responses = SidecarRing.create(dir.resolve(name + SidecarServer.RESPONSE_SUFFIX), SLOT_SIZE, SLOT_COUNT);
+        responses.setConsumerPid(pid);
+        requests = SidecarRing.create(dir.resolve(name + SidecarServer.REQUEST_SUFFIX), SLOT_SIZE, SLOT_COUNT);
+        requests.setProducerPid(pid);
+        idle = new SpinThenParkIdleStrategy();
+        info = new TraderGatewayInfo();
+    }
+
+    @Override
+    public TraderGatewayInfo getGatewayInfo() {
+        return info;
+    }
+
+    @Override
+    public synchronized void insert(Request request) {
+        if (!serverAlive) {
+            handler.onError(new GatewayRuntimeException(GatewayStatus.SIDECAR_NOT_ATTACHED,
+                                                        "No sidecar server is alive."));
+            return;
+        }
+        var b = requests.claim();
+        if (b == null) {
+            handler.onError(new GatewayRuntimeException(GatewayStatus.SEND_QUEUE_FULL,
+                                                        "Sidecar request ring is full."));
+            return;
+        }
+        try {
+            var p = SidecarCodec.putType(b, 4, SidecarCodec.INSERT);
+            p = RecordCodec.putLong(b, p, serverPid);
+            requests.publish(SidecarCodec.putRequest(b, p, request));
+        } catch (IndexOutOfBoundsException ex) {
+            handler.onError(new GatewayRuntimeException(GatewayStatus.INTERNAL_UNCAUGHT,
+                                                        "Request is too large for a slot.", ex));
+        }
+    }
+
+    @Override
+    public void setHandler(ITraderGatewayHandler handler) {
+        this.handler = handler;
+    }
+
+    /**
+     * @param idle idle strategy of the polling thread.
+     */
+    public void setIdleStrategy(IIdleStrategy idle) {
+        this.idle = idle;
+    }
+
+    /**
+     * @return {@code true} if a server has attached and its process is alive.
+     */
+    public boolean isServerAlive() {
+        return serverAlive;
+    }
+
+    /**
+     * Starts the thread reading events from the server.
+     */
+    public synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this, "ctp-sidecar-client");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops reading and removes the rings, so the server drops this client.
+     */
+    @Override
+    public synchronized void close() {
+        running = false;
+        if (thread != null) {
+            try {
+                thread.join();
+            } catch (InterruptedException ignored) {
+                Thread.currentThread().interrupt();
+            }
+            thread = null;
+        }
+        try {
+            requests.close();
+            responses.close();
+            Files.deleteIfExists(dir.resolve(name + SidecarServer.REQUEST_SUFFIX));
+            Files.deleteIfExists(dir.resolve(name + SidecarServer.RESPONSE_SUFFIX));
+        } catch (IOException ignored) {
+        }
+    }
+
+    @Override
+    public void run() {
+        long lastCheck = 0;
+        while (running) {
+            var now = System.nanoTime();
+            if (now - lastCheck >= CHECK_NANOS) {
+                checkServer();
+                lastCheck = now;
+            }
+            int n = 0;
+            ByteBuffer b;
+            while (n < 64 && (b = responses.poll()) != null) {
+                try {
+                    dispatch(b);
+                } catch (Throwable th) {
+                    handler.onError(new GatewayRuntimeException(GatewayStatus.INTERNAL_UNCAUGHT, th.getMessage(), th));
+                } finally {
+                    responses.release();
+                }
+                ++n;
+            }
+            idle.idle(n);
+        }
+    }
+
+    private void dispatch(ByteBuffer b) {
+        switch (b.get()) {
+            case SidecarCodec.RESPONSE:
+                handler.onResponse(SidecarCodec.getResponse(b));
+                break;
+            case SidecarCodec.TRADE:
+                handler.onTrade(SidecarCodec.getTrade(b));
+                break;
+            case SidecarCodec.ERROR:
+                var code = RecordCodec.getInteger(b);
+                handler.onError(new GatewayRuntimeException(code, RecordCodec.getString(b)));
+                break;
+            case SidecarCodec.STATUS:
+                var status = RecordCodec.getInteger(b);
+                handler.onStatusChange(new ServiceRuntimeStatus(status, RecordCodec.getString(b)));
+                break;
+            case SidecarCodec.INFO:
+                info = SidecarCodec.getInfo(b);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void checkServer() {
+        var pid = responses.getProducerPid();
+        var alive = pid != 0 && ProcessHandle.of(pid).map(ProcessHandle::isAlive).orElse(false);
+        if (serverAlive && !alive) {
+            handler.onStatusChange(new ServiceRuntimeStatus(GatewayStatus.DISCONNECTED,
+                                                            "Sidecar server is gone."));
+        }
+        serverPid = pid;
+        serverAlive = alive;
+    }
+}
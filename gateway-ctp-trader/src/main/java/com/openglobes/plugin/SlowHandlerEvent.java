@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2021 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.plugin;
+
+/**
+ * Handler invocation that ran longer than the watchdog budget.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+public class SlowHandlerEvent {
+
+    private final int callbackType;
+    private final long durationNanos;
+    private final boolean finished;
+    private final Long orderId;
+    private final StackTraceElement[] stackTrace;
+    private final String threadName;
+
+    SlowHandlerEvent(int callbackType,
+                     Long orderId,
+                     long durationNanos,
+                     String threadName,
+                     StackTraceElement[] stackTrace,
+                     boolean finished) {
+        this.callbackType = callbackType;
+        this.orderId = orderId;
+        this.durationNanos = durationNanos;
+        this.threadName = threadName;
+        this.stackTrace = stackTrace;
+        this.finished = finished;
+    }
+
+    /**
+     * @return one of {@link HandlerWatchdog#RESPONSE},
+     * {@link HandlerWatchdog#TRADE}, {@link HandlerWatchdog#ERROR} and
+     * {@link HandlerWatchdog#STATUS}.
+     */
+    public int getCallbackType() {
+        return callbackType;
+    }
+
+    /**
+     * @return order ID of the response or trade, or {@code null} for errors
+     * and status changes.
+     */
+    public Long getOrderId() {
+        return orderId;
+    }
+
+    /**
+     * @return duration of the invocation, or the time it has been running
+     * if it is not finished.
+     */
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+    public String getThreadName() {
+        return threadName;
+    }
+
+    /**
+     * @return handler stack sampled while the budget was exceeded, or
+     * {@code null} for an event raised when the handler returns.
+     */
+    public StackTraceElement[] getStackTrace() {
+        return stackTrace;
+    }
+
+    /**
+     * @return {@code false} if the event is raised by the sampling thread
+     * while the handler is still running.
+     */
+    public boolean isFinished() {
+        return finished;
+    }
+
+    @Override
+    public String toString() {
+        return HandlerWatchdog.name(callbackType) + "(order=" + orderId + ") on " + threadName
+               + (finished ? " took " : " running for ") + durationNanos / 1000 + "us";
+    }
+}
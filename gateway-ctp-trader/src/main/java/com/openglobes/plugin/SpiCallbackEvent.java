@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2021 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.plugin;
+
+import jdk.jfr.*;
+import org.ctp4j.*;
+
+/**
+ * Flight recorder event of an SPI callback from the native API.
+ * <p>
+ * Fields are read from the callback arguments only if the event is
+ * committed, so a disabled event doesn't cross JNI. The order ID is looked
+ * up from the references after the callback is handled, and is zero if the
+ * order is not of this gateway.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+@Name("com.openglobes.ctp.SpiCallback")
+@Label("SPI Callback")
+@Category({"OpenGlobes", "CTP Trader Gateway"})
+@Description("Callback from the native trader API, including handler dispatch")
+@Enabled(false)
+@StackTrace(false)
+class SpiCallbackEvent extends Event {
+
+    @Label("Callback")
+    String callback;
+
+    @Label("Order ID")
+    long orderId;
+
+    @Label("Order Ref")
+    String orderRef;
+
+    @Label("Order Sys ID")
+    String orderSysId;
+
+    @Label("Instrument")
+    String instrumentId;
+
+    @Label("Error ID")
+    int errorId;
+
+    void end(String callback) {
+        if (shouldCommit()) {
+            this.callback = callback;
+            commit();
+        }
+    }
+
+    void end(String callback, CThostFtdcRspInfoField info) {
+        if (shouldCommit()) {
+            this.callback = callback;
+            errorId = info == null ? 0 : info.getErrorID();
+            commit();
+        }
+    }
+
+    void end(AbstractCtpTraderSpi spi, String callback, CThostFtdcInputOrderField rsp, CThostFtdcRspInfoField info) {
+        if (shouldCommit()) {
+            this.callback = callback;
+            if (rsp != null) {
+                orderRef = rsp.getOrderRef();
+                instrumentId = rsp.getInstrumentID();
+                orderId(spi.findOrderId(orderRef));
+            }
+            errorId = info == null ? 0 : info.getErrorID();
+            commit();
+        }
+    }
+
+    void end(AbstractCtpTraderSpi spi,
+             String callback,
+             CThostFtdcInputOrderActionField rsp,
+             CThostFtdcRspInfoField info) {
+        if (shouldCommit()) {
+            this.callback = callback;
+            if (rsp != null) {
+                orderRef = rsp.getOrderRef();
+                orderSysId = rsp.getOrderSysID();
+                instrumentId = rsp.getInstrumentID();
+                orderId(spi.findOrderId(orderSysId, rsp.getFrontID(), rsp.getSessionID(), orderRef, null));
+            }
+            errorId = info == null ? 0 : info.getErrorID();
+            commit();
+        }
+    }
+
+    void end(AbstractCtpTraderSpi spi, String callback, CThostFtdcOrderActionField rsp, CThostFtdcRspInfoField info) {
+        if (shouldCommit()) {
+            this.callback = callback;
+            if (rsp != null) {
+                orderRef = rsp.getOrderRef();
+                orderSysId = rsp.getOrderSysID();
+                instrumentId = rsp.getInstrumentID();
+                orderId(spi.findOrderId(orderSysId, rsp.getFrontID(), rsp.getSessionID(), orderRef, null));
+            }
+            errorId = info == null ? 0 : info.getErrorID();
+            commit();
+        }
+    }
+
+    void end(AbstractCtpTraderSpi spi, CThostFtdcOrderField order) {
+        if (shouldCommit()) {
+            callback = "OnRtnOrder";
+            orderRef = order.getOrderRef();
+            orderSysId = order.getOrderSysID();
+            instrumentId = order.getInstrumentID();
+            orderId(spi.findOrderId(orderSysId, order.getFrontID(), order.getSessionID(), orderRef,
+                                    order.getTradingDay()));
+            commit();
+        }
+    }
+
+    void end(AbstractCtpTraderSpi spi, CThostFtdcTradeField trade) {
+        if (shouldCommit()) {
+            callback = "OnRtnTrade";
+            orderRef = trade.getOrderRef();
+            orderSysId = trade.getOrderSysID();
+            instrumentId = trade.getInstrumentID();
+            /*
+             * A trade has no session, its order is found by system ID.
+             */
+            orderId(spi.findOrderId(orderSysId, 0, 0, null, trade.getTradingDay()));
+            commit();
+        }
+    }
+
+    private void orderId(Long id) {
+        orderId = id == null ? 0 : id;
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2021 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.plugin;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Spins for a number of idle polls, then yields, then parks for a time that
+ * doubles up to a maximum. Any work goes back to spinning.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+public class SpinThenParkIdleStrategy implements IIdleStrategy {
+
+    private final long maxParkNanos;
+    private final long minParkNanos;
+    private final int spins;
+    private final int yields;
+    private long idles;
+    private long parkNanos;
+
+    public SpinThenParkIdleStrategy() {
+        this(10_000, 100, 1_000, 1_000_000);
+    }
+
+    /**
+     * @param spins        idle polls to spin.
+     * @param yields       idle polls to yield after spinning.
+     * @param minParkNanos first park time.
+     * @param maxParkNanos longest park time.
+     */
+    public SpinThenParkIdleStrategy(int spins, int yields, long minParkNanos, long maxParkNanos) {
+        this.spins = spins;
+        this.yields = yields;
+        this.minParkNanos = minParkNanos;
+        this.maxParkNanos = maxParkNanos;
+        parkNanos = minParkNanos;
+    }
+
+    @Override
+    public void idle(int workCount) {
+        if (workCount > 0) {
+            idles = 0;
+            parkNanos = minParkNanos;
+        } else if (idles < spins) {
+            ++idles;
+            Thread.onSpinWait();
+        } else if (idles < spins + yields) {
+            ++idles;
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(parkNanos);
+            parkNanos = Math.min(parkNanos << 1, maxParkNanos);
+        }
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2021 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.plugin;
+
+import jdk.jfr.*;
+
+/**
+ * Flight recorder event of a gateway status change.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+@Name("com.openglobes.ctp.StatusChange")
+@Label("Status Change")
+@Category({"OpenGlobes", "CTP Trader Gateway"})
+@Description("Gateway status change")
+@Enabled(false)
+@StackTrace(false)
+class StatusChangeEvent extends Event {
+
+    @Label("Previous Status")
+    int previous;
+
+    @Label("Status")
+    int status;
+
+    @Label("Message")
+    String message;
+}
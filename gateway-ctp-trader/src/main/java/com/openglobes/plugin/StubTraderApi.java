@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2021 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.plugin;
+
+import org.ctp4j.*;
+
+/**
+ * Trader API that sends nothing and answers requests with preset return
+ * codes, for driving an SPI without a front.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+class StubTraderApi extends CThostFtdcTraderApi {
+
+    private int nextReturn;
+    private long requestCount;
+
+    StubTraderApi() {
+        super(0, false);
+    }
+
+    /**
+     * @param code return code of the next order insert or action request.
+     */
+    void setNextReturn(int code) {
+        nextReturn = code;
+    }
+
+    long getRequestCount() {
+        return requestCount;
+    }
+
+    @Override
+    public void Init() {
+    }
+
+    @Override
+    public void Release() {
+    }
+
+    @Override
+    public void RegisterFront(String pszFrontAddress) {
+    }
+
+    @Override
+    public void RegisterSpi(CThostFtdcTraderSpi pSpi) {
+    }
+
+    @Override
+    public void SubscribePrivateTopic(THOST_TE_RESUME_TYPE nResumeType) {
+    }
+
+    @Override
+    public void SubscribePublicTopic(THOST_TE_RESUME_TYPE nResumeType) {
+    }
+
+    @Override
+    public int ReqAuthenticate(CThostFtdcReqAuthenticateField req, int requestId) {
+        ++requestCount;
+        return 0;
+    }
+
+    @Override
+    public int ReqUserLogin(CThostFtdcReqUserLoginField req, int requestId) {
+        ++requestCount;
+        return 0;
+    }
+
+    @Override
+    public int ReqUserLogout(CThostFtdcUserLogoutField req, int requestId) {
+        ++requestCount;
+        return 0;
+    }
+
+    @Override
+    public int ReqSettlementInfoConfirm(CThostFtdcSettlementInfoConfirmField req, int requestId) {
+        ++requestCount;
+        return 0;
+    }
+
+    @Override
+    public int ReqQryInstrument(CThostFtdcQryInstrumentField req, int requestId) {
+        ++requestCount;
+        return 0;
+    }
+
+    @Override
+    public int ReqQryDepthMarketData(CThostFtdcQryDepthMarketDataField req, int requestId) {
+        ++requestCount;
+        return 0;
+    }
+
+    @Override
+    public int ReqQryInvestorPosition(CThostFtdcQryInvestorPositionField req, int requestId) {
+        ++requestCount;
+        return 0;
+    }
+
+    @Override
+    public int ReqOrderInsert(CThostFtdcInputOrderField req, int requestId) {
+        ++requestCount;
+        var r = nextReturn;
+        nextReturn = 0;
+        return r;
+    }
+
+    @Override
+    public int ReqOrderAction(CThostFtdcInputOrderActionField req, int requestId) {
+        ++requestCount;
+        var r = nextReturn;
+        nextReturn = 0;
+        return r;
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2021 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.plugin;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interns symbols like instrument and exchange IDs into dense int handles.
+ * <p>
+ * Handles start from zero and are never reused, so per-symbol state can be
+ * kept in arrays indexed by handle. Lookups are lock free, and adding a
+ * symbol takes a lock.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+public class SymbolTable {
+
+    public static final int NO_HANDLE = -1;
+    private final Map<String, Integer> handles;
+    private volatile String[] symbols;
+    private int size;
+
+    public SymbolTable() {
+        this(256);
+    }
+
+    public SymbolTable(int capacity) {
+        handles = new ConcurrentHashMap<>(capacity);
+        symbols = new String[Math.max(capacity, 16)];
+    }
+
+    /**
+     * @param symbol symbol.
+     * @return handle of the symbol, added if it is not in the table, or
+     * {@link #NO_HANDLE} if the symbol is {@code null}.
+     */
+    public int intern(String symbol) {
+        if (symbol == null) {
+            return NO_HANDLE;
+        }
+        var h = handles.get(symbol);
+        if (h != null) {
+            return h;
+        }
+        return add(symbol);
+    }
+
+    /**
+     * @param symbol symbol.
+     * @return handle of the symbol, or {@link #NO_HANDLE} if it is not in the
+     * table.
+     */
+    public int handleOf(String symbol) {
+        if (symbol == null) {
+            return NO_HANDLE;
+        }
+        var h = handles.get(symbol);
+        return h == null ? NO_HANDLE : h;
+    }
+
+    /**
+     * @param handle symbol handle.
+     * @return symbol of the handle.
+     */
+    public String symbolOf(int handle) {
+        var s = symbols;
+        if (handle < 0 || handle >= s.length || s[handle] == null) {
+            throw new IllegalArgumentException("Unknown symbol handle " + handle + ".");
+        }
+        return s[handle];
+    }
+
+    /**
+     * @param symbol symbol.
+     * @return the table's instance of an equal symbol, so repeated strings
+     * share one instance.
+     */
+    public String canonical(String symbol) {
+        if (symbol == null) {
+            return null;
+        }
+        /*
+         * Intern first, as it may grow the array.
+         */
+        return symbolOf(intern(symbol));
+    }
+
+    /**
+     * @return number of symbols, also the smallest array length to hold
+     * per-symbol state.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    private synchronized int add(String symbol) {
+        var h = handles.get(symbol);
+        if (h != null) {
+            return h;
+        }
+        var s = symbols;
+        if (size == s.length) {
+            s = Arrays.copyOf(s, s.length * 2);
+        }
+        s[size] = symbol;
+        symbols = s;
+        handles.put(symbol, size);
+        return size++;
+    }
+}
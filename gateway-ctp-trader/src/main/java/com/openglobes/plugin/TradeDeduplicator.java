@@ -0,0 +1,331 @@
+/*
+ * Copyright (C) 2021 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.plugin;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Remembers trades delivered in a trading day so the ones replayed after a
+ * resumed reconnect are dropped.
+ * <p>
+ * A trade is keyed on exchange ID, trade ID and direction. Numeric trade IDs,
+ * which is what the exchanges send, are packed with exchange and direction
+ * into a {@code long} and kept in an open addressing hash set of 8-byte
+ * slots. Under its load factor of one half, that is 16 to 32 bytes a trade.
+ * Other trade IDs fall back to a set of strings.
+ * <p>
+ * With a journal file, every new key is appended to the file and read back
+ * at construction, so trades of the same trading day are still known after
+ * a restart. Journal failures don't stop deduplication in memory, and are
+ * reported by {@link #getError()}.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+public class TradeDeduplicator implements Closeable {
+
+    private static final int EXCHANGE_BITS = 8;
+    private static final int ID_BITS = 63 - EXCHANGE_BITS - 1;
+    private static final long MAX_ID = (1L << ID_BITS) - 1;
+    private static final int MAX_DIGITS = 16;
+    private final SymbolTable exchanges;
+    private final Set<String> others;
+    private final Path journal;
+    private long[] keys;
+    private int size;
+    private LocalDate tradingDay;
+    private DataOutputStream out;
+    private IOException error;
+
+    /**
+     * Creates deduplicator in memory only.
+     *
+     * @param expectedTrades expected number of trades in a trading day.
+     */
+    public TradeDeduplicator(int expectedTrades) {
+        this(expectedTrades, null);
+    }
+
+    /**
+     * Creates deduplicator keeping a journal file.
+     *
+     * @param expectedTrades expected number of trades in a trading day.
+     * @param journal        journal file, {@code null} for memory only.
+     */
+    public TradeDeduplicator(int expectedTrades, Path journal) {
+        this.journal = journal;
+        exchanges = new SymbolTable(16);
+        others = new HashSet<>();
+        keys = new long[tableSize(expectedTrades)];
+        if (journal != null) {
+            load();
+        }
+    }
+
+    private static int tableSize(int expected) {
+        /*
+         * Keep load factor under one half so probes stay short.
+         */
+        var n = Math.max(expected, 1024) * 2L;
+        return (int) Math.min(1L << 30, Long.highestOneBit(n - 1) << 1);
+    }
+
+    private static long numberOf(String tradeId) {
+        long r = 0;
+        int digits = 0;
+        for (int i = 0; i < tradeId.length(); ++i) {
+            var c = tradeId.charAt(i);
+            if (c == ' ') {
+                /*
+                 * CTP pads trade ID with spaces.
+                 */
+                continue;
+            }
+            if (c < '0' || c > '9' || ++digits > MAX_DIGITS) {
+                return -1;
+            }
+            r = r * 10 + (c - '0');
+        }
+        return digits == 0 || r > MAX_ID ? -1 : r;
+    }
+
+    private static String otherKey(String exchangeId, String tradeId, char direction) {
+        return exchangeId + '|' + direction + '|' + tradeId.strip();
+    }
+
+    private static int hash(long key, int mask) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+    }
+
+    /**
+     * Adds a trade if it is not seen in the current trading day.
+     *
+     * @param exchangeId exchange ID.
+     * @param tradeId    trade ID.
+     * @param direction  CTP direction.
+     * @return {@code true} if the trade is new, {@code false} if it is a
+     * duplicate.
+     */
+    public synchronized boolean add(String exchangeId, String tradeId, char direction) {
+        if (!addKey(exchangeId, tradeId, direction)) {
+            return false;
+        }
+        append(exchangeId, tradeId, direction);
+        return true;
+    }
+
+    /**
+     * @param exchangeId exchange ID.
+     * @param tradeId    trade ID.
+     * @param direction  CTP direction.
+     * @return {@code true} if the trade is seen in the current trading day.
+     */
+    public synchronized boolean contains(String exchangeId, String tradeId, char direction) {
+        var key = keyOf(exchangeId, tradeId, direction);
+        if (key == 0) {
+            return others.contains(otherKey(exchangeId, tradeId, direction));
+        }
+        var mask = keys.length - 1;
+        var i = hash(key, mask);
+        while (keys[i] != 0) {
+            if (keys[i] == key) {
+                return true;
+            }
+            i = (i + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * Forgets all trades if the trading day changes. Trades from the journal
+     * are kept if they are of the same trading day.
+     *
+     * @param day trading day.
+     */
+    public synchronized void setTradingDay(LocalDate day) {
+        if (day.equals(tradingDay)) {
+            return;
+        }
+        tradingDay = day;
+        clear();
+        if (journal != null) {
+            rewrite();
+        }
+    }
+
+    /**
+     * @return trading day of the trades.
+     */
+    public synchronized LocalDate getTradingDay() {
+        return tradingDay;
+    }
+
+    /**
+     * @return number of trades seen in the trading day.
+     */
+    public synchronized int size() {
+        return size + others.size();
+    }
+
+    public synchronized IOException getError() {
+        return error;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException ex) {
+                error = ex;
+            }
+            out = null;
+        }
+    }
+
+    private boolean addKey(String exchangeId, String tradeId, char direction) {
+        var key = keyOf(exchangeId, tradeId, direction);
+        if (key == 0) {
+            return others.add(otherKey(exchangeId, tradeId, direction));
+        }
+        if (size * 2 >= keys.length) {
+            grow();
+        }
+        return insert(keys, key);
+    }
+
+    /**
+     * @return packed key, or zero if the trade doesn't fit in one.
+     */
+    private long keyOf(String exchangeId, String tradeId, char direction) {
+        var ex = exchanges.intern(exchangeId);
+        var id = numberOf(tradeId);
+        if (ex < 0 || ex >= (1 << EXCHANGE_BITS) - 1 || id < 0 || (direction != '0' && direction != '1')) {
+            return 0;
+        }
+        /*
+         * Exchange handle is offset by one so a key is never zero, which
+         * marks an empty slot.
+         */
+        return ((long) (ex + 1) << (ID_BITS + 1)) | ((long) (direction - '0') << ID_BITS) | id;
+    }
+
+    private boolean insert(long[] table, long key) {
+        var mask = table.length - 1;
+        var i = hash(key, mask);
+        while (table[i] != 0) {
+            if (table[i] == key) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        table[i] = key;
+        ++size;
+        return true;
+    }
+
+    private void grow() {
+        var old = keys;
+        keys = new long[old.length * 2];
+        size = 0;
+        for (var key : old) {
+            if (key != 0) {
+                insert(keys, key);
+            }
+        }
+    }
+
+    private void clear() {
+        Arrays.fill(keys, 0);
+        size = 0;
+        others.clear();
+    }
+
+    private void load() {
+        if (!Files.exists(journal)) {
+            return;
+        }
+        try {
+            var bytes = Files.readAllBytes(journal);
+            var in = new DataInputStream(new ByteArrayInputStream(bytes));
+            var valid = 0;
+            try {
+                tradingDay = LocalDate.ofEpochDay(in.readLong());
+                valid = bytes.length - in.available();
+                while (in.available() > 0) {
+                    var exchangeId = in.readUTF();
+                    var direction = in.readChar();
+                    addKey(exchangeId, in.readUTF(), direction);
+                    valid = bytes.length - in.available();
+                }
+            } catch (EOFException ignored) {
+                /*
+                 * Last record is cut by a crash. Drop it so new records are
+                 * appended after a complete one.
+                 */
+            }
+            if (valid < bytes.length) {
+                try (var ch = FileChannel.open(journal, StandardOpenOption.WRITE)) {
+                    ch.truncate(valid);
+                }
+            }
+        } catch (IOException ex) {
+            error = ex;
+        }
+    }
+
+    private void rewrite() {
+        close();
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(journal)));
+            out.writeLong(tradingDay.toEpochDay());
+            out.flush();
+        } catch (IOException ex) {
+            error = ex;
+            out = null;
+        }
+    }
+
+    private void append(String exchangeId, String tradeId, char direction) {
+        if (journal == null || tradingDay == null) {
+            return;
+        }
+        try {
+            if (out == null) {
+                out = new DataOutputStream(new BufferedOutputStream(
+                        Files.newOutputStream(journal, StandardOpenOption.CREATE, StandardOpenOption.APPEND)));
+            }
+            out.writeUTF(exchangeId);
+            out.writeChar(direction);
+            out.writeUTF(tradeId);
+            /*
+             * Flush to the OS so a process crash doesn't lose the key.
+             */
+            out.flush();
+        } catch (IOException ex) {
+            error = ex;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2021 Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.plugin;
+
+import com.openglobes.core.GatewayRuntimeException;
+import com.openglobes.core.ServiceRuntimeStatus;
+import com.openglobes.core.trader.ITraderGatewayHandler;
+import com.openglobes.core.trader.Response;
+import com.openglobes.core.trader.Trade;
+
+/**
+ * Times every handler invocation with a {@link HandlerWatchdog}.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+class WatchedTraderGatewayHandler implements ITraderGatewayHandler {
+
+    private final ITraderGatewayHandler handler;
+    private final HandlerWatchdog watchdog;
+
+    WatchedTraderGatewayHandler(ITraderGatewayHandler handler, HandlerWatchdog watchdog) {
+        this.handler = handler;
+        this.watchdog = watchdog;
+    }
+
+    @Override
+    public void onTrade(Trade trade) {
+        var t = watchdog.enter(HandlerWatchdog.TRADE, trade.getOrderId());
+        try {
+            handler.onTrade(trade);
+        } finally {
+            watchdog.exit(HandlerWatchdog.TRADE, trade.getOrderId(), t);
+        }
+    }
+
+    @Override
+    public void onResponse(Response response) {
+        var t = watchdog.enter(HandlerWatchdog.RESPONSE, response.getOrderId());
+        try {
+            handler.onResponse(response);
+        } finally {
+            watchdog.exit(HandlerWatchdog.RESPONSE, response.getOrderId(), t);
+        }
+    }
+
+    @Override
+    public void onError(GatewayRuntimeException error) {
+        var t = watchdog.enter(HandlerWatchdog.ERROR, null);
+        try {
+            handler.onError(error);
+        } finally {
+            watchdog.exit(HandlerWatchdog.ERROR, null, t);
+        }
+    }
+
+    @Override
+    public void onStatusChange(ServiceRuntimeStatus status) {
+        var t = watchdog.enter(HandlerWatchdog.STATUS, null);
+        try {
+            handler.onStatusChange(status);
+        } finally {
+            watchdog.exit(HandlerWatchdog.STATUS, null, t);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2020-2021. Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.plugin;
+
+import com.openglobes.core.GatewayRuntimeException;
+import com.openglobes.core.ServiceRuntimeStatus;
+import com.openglobes.core.trader.ITraderGatewayHandler;
+import com.openglobes.core.trader.OrderStatus;
+import com.openglobes.core.trader.Response;
+import com.openglobes.core.trader.Trade;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@DisplayName("Conflating handler")
+class ConflatingTraderGatewayHandlerTest {
+
+    private static Response response(long orderId, int status, long responseId) {
+        var r = new Response();
+        r.setOrderId(orderId);
+        r.setStatus(status);
+        r.setResponseId(responseId);
+        return r;
+    }
+
+    @Test
+    @DisplayName("Keeps latest live state and every final event")
+    public void conflate() {
+        var events = new LinkedList<String>();
+        var h = new ConflatingTraderGatewayHandler(new Collector(events));
+        for (int i = 0; i < 100; ++i) {
+            h.onResponse(response(1, OrderStatus.QUEUED, i));
+            var t = new Trade();
+            t.setOrderId(1L);
+            h.onTrade(t);
+        }
+        h.onResponse(response(2, OrderStatus.ACCEPTED, 100));
+        h.onResponse(response(2, OrderStatus.DELETED, 101));
+        h.onResponse(response(1, OrderStatus.QUEUED, 102));
+        assertEquals(1, h.getPendingOrders());
+        assertEquals(102, h.drain(Integer.MAX_VALUE));
+        assertEquals(0, h.getQueueSize());
+        assertEquals(101, h.getConflatedCount());
+        assertEquals("response 1/102", events.getFirst());
+        assertEquals("response 2/101", events.getLast());
+        assertEquals(100, events.stream().filter("trade 1"::equals).count());
+    }
+
+    private static class Collector implements ITraderGatewayHandler {
+
+        private final List<String> events;
+
+        Collector(List<String> events) {
+            this.events = events;
+        }
+
+        @Override
+        public void onTrade(Trade trade) {
+            events.add("trade " + trade.getOrderId());
+        }
+
+        @Override
+        public void onResponse(Response response) {
+            events.add("response " + response.getOrderId() + "/" + response.getResponseId());
+        }
+
+        @Override
+        public void onError(GatewayRuntimeException error) {
+        }
+
+        @Override
+        public void onStatusChange(ServiceRuntimeStatus status) {
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2020-2021. Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.plugin;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Native library bootstrap")
+class CtpNativeBootstrapTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    @DisplayName("Libraries of this platform are extracted once and then cached")
+    public void extractAndCache() throws IOException {
+        var lib = System.mapLibraryName("foo");
+        var jar = dir.resolve("natives.jar");
+        try (var out = new ZipOutputStream(Files.newOutputStream(jar))) {
+            put(out, "natives/x64/" + lib, "64");
+            put(out, "natives/x32/" + lib, "32");
+            put(out, "org/ctp4j/ThostFtdcCtpApi.class", "");
+        }
+        var cache = dir.resolve("cache");
+        var previous = System.setProperty(CtpNativeBootstrap.CACHE_PROPERTY, cache.toString());
+        try {
+            var first = CtpNativeBootstrap.prepare(jar);
+            assertNotNull(first);
+            assertFalse(CtpNativeBootstrap.isCached());
+            var expected = System.getProperty("os.arch").contains("64") ? "64" : "32";
+            assertEquals(expected, Files.readString(first.resolve(lib), StandardCharsets.UTF_8));
+
+            var second = CtpNativeBootstrap.prepare(jar);
+            assertEquals(first, second);
+            assertTrue(CtpNativeBootstrap.isCached());
+        } finally {
+            if (previous == null) {
+                System.clearProperty(CtpNativeBootstrap.CACHE_PROPERTY);
+            } else {
+                System.setProperty(CtpNativeBootstrap.CACHE_PROPERTY, previous);
+            }
+        }
+    }
+
+    private static void put(ZipOutputStream out, String name, String content) throws IOException {
+        out.putNextEntry(new ZipEntry(name));
+        out.write(content.getBytes(StandardCharsets.UTF_8));
+        out.closeEntry();
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2020-2021. Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.openglobes.plugin;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.ZonedDateTime;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@DisplayName("Exchange clock")
+class ExchangeClockTest {
+
+    private final AtomicLong now = new AtomicLong();
+    private final ExchangeClock clock = new ExchangeClock(ExchangeClock.CHINA, now::get);
+
+    private static long nanos(String time) {
+        var t = ZonedDateTime.parse(time).toInstant();
+        return t.getEpochSecond() * 1_000_000_000L + t.getNano();
+    }
+
+    @Test
+    @DisplayName("Day session time on its own day")
+    public void daySession() {
+        now.set(nanos("2021-08-10T09:31:00+08:00"));
+        clock.setTradingDay("20210810");
+        assertEquals(nanos("2021-08-10T09:30:00+08:00"), clock.toEpochNanos("DCE", "20210810", "09:30:00"));
+        assertEquals(nanos("2021-08-10T09:30:00+08:00"), clock.toEpochNanos("DCE", null, "09:30:00"));
+    }
+
+    @Test
+    @DisplayName("Night session time reported with trading day")
+    public void nightSession() {
+        clock.setTradingDay("20210810");
+        now.set(nanos("2021-08-09T23:10:00+08:00"));
+        assertEquals(nanos("2021-08-09T23:05:00+08:00"), clock.toEpochNanos("DCE", "20210810", "23:05:00"));
+        assertEquals(nanos("2021-08-09T23:05:00+08:00"), clock.toEpochNanos("SHFE", "20210809", "23:05:00"));
+        now.set(nanos("2021-08-10T00:30:00+08:00"));
+        assertEquals(nanos("2021-08-10T00:20:00+08:00"), clock.toEpochNanos("DCE", "20210810", "00:20:00"));
+        assertEquals(nanos("2021-08-09T23:59:00+08:00"), clock.toEpochNanos("DCE", null, "23:59:00"));
+    }
+
+    @Test
+    @DisplayName("Offset keeps the largest lower bound and decays with elapsed time")
+    public void offset() {
+        now.set(nanos("2021-08-09T21:00:03.200+08:00"));
+        clock.sample("SHFE", "21:00:05");
+        assertEquals(1_800_000_000L, clock.getOffsetNanos("SHFE"));
+        now.set(nanos("2021-08-09T21:00:04+08:00"));
+        clock.sample("SHFE", "21:00:07");
+        assertEquals(3_000_000_000L, clock.getOffsetNanos("SHFE"));
+        clock.sample("SHFE", "21:00:01");
+        assertEquals(3_000_000_000L, clock.getOffsetNanos("SHFE"));
+        now.set(nanos("2021-08-09T21:00:06+08:00"));
+        clock.sample("SHFE", "21:00:01");
+        assertEquals(2_998_000_000L, clock.getOffsetNanos("SHFE"));
+        assertEquals(0L, clock.getOffsetNanos("DCE"));
+        assertEquals(nanos("2021-08-09T21:00:08.998+08:00"), clock.exchangeNanos("SHFE"));
+    }
+
+    @Test
+    @DisplayName("Offset sampled with milliseconds")
+    public void millis() {
+        now.set(nanos("2021-08-09T21:00:03.200+08:00"));
+        clock.sample("SHFE", "21:00:05", 500);
+        assertEquals(2_300_000_000L, clock.getOffsetNanos("SHFE"));
+    }
+
+    @Test
+    @DisplayName("Replayed night time neither moves the offset nor lands in the future")
+    public void replayed() {
+        clock.setTradingDay("20210810");
+        now.set(nanos("2021-08-10T14:30:00+08:00"));
+        clock.sample(null, "14:30:00");
+        clock.sample("SHFE", "21:00:05");
+        assertEquals(0L, clock.getOffsetNanos("SHFE"));
+        assertEquals(nanos("2021-08-09T21:00:05+08:00"), clock.toEpochNanos("SHFE", "20210810", "21:00:05"));
+        assertEquals(nanos("2021-08-09T21:00:05+08:00"), clock.toEpochNanos("SHFE", null, "21:00:05"));
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2020-2021. Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.plugin;
+
+import com.openglobes.core.GatewayRuntimeException;
+import com.openglobes.core.ServiceRuntimeStatus;
+import com.openglobes.core.trader.*;
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Flight recorder")
+class GatewayFlightRecorderTest {
+
+    private static final long ORDER_ID = 7L;
+
+    private static List<RecordedEvent> record(Configuration configuration, Path file)
+            throws IOException, InterruptedException {
+        try (var recording = new Recording(configuration)) {
+            recording.start();
+            trade();
+            recording.stop();
+            recording.dump(file);
+        }
+        return RecordingFile.readAllEvents(file).stream()
+                            .filter(e -> e.getEventType().getName().startsWith("com.openglobes.ctp."))
+                            .collect(Collectors.toList());
+    }
+
+    /*
+     * Inserts an order the simulated front fills.
+     */
+    private static void trade() throws InterruptedException {
+        var trades = new LinkedBlockingQueue<Trade>();
+        var front = new SimulatedTraderFront(LocalDate.now(ExchangeClock.CHINA), 1.0);
+        var gate = new CtpTraderGateway();
+        gate.setApi(front);
+        gate.setHandler(new ITraderGatewayHandler() {
+            @Override
+            public void onTrade(Trade trade) {
+                trades.add(trade);
+            }
+
+            @Override
+            public void onResponse(Response response) {
+            }
+
+            @Override
+            public void onError(GatewayRuntimeException e) {
+            }
+
+            @Override
+            public void onStatusChange(ServiceRuntimeStatus status) {
+            }
+        });
+        front.open(gate.getSpi());
+        try {
+            var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (gate.getMetrics().getStatus() != GatewayStatus.CONFIRMED && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            assertEquals(GatewayStatus.CONFIRMED, gate.getMetrics().getStatus());
+            var r = new Request();
+            r.setAction(ActionType.NEW);
+            r.setOrderId(ORDER_ID);
+            r.setRequestId(ORDER_ID);
+            r.setTraderId(1);
+            r.setTradingDay(front.getTradingDay());
+            r.setInstrumentId(SimulatedTraderFront.INSTRUMENT_ID);
+            r.setExchangeId(SimulatedTraderFront.EXCHANGE_ID);
+            r.setDirection(Direction.BUY);
+            r.setOffset(Offset.OPEN);
+            r.setPrice(5000.0);
+            r.setQuantity(1L);
+            gate.insert(r);
+            assertNotNull(trades.poll(5, TimeUnit.SECONDS));
+        } finally {
+            gate.stop();
+        }
+    }
+
+    private static RecordedEvent callback(List<RecordedEvent> events, String callback) {
+        return events.stream()
+                     .filter(e -> e.getEventType().getName().equals("com.openglobes.ctp.SpiCallback")
+                                  && callback.equals(e.getString("callback")))
+                     .findFirst()
+                     .orElseThrow(() -> new AssertionError(callback + " not recorded."));
+    }
+
+    @BeforeEach
+    void setUp() {
+        try {
+            CtpNativeBootstrap.install();
+        } catch (IOException e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        }
+    }
+
+    @Test
+    @DisplayName("Gateway settings record the order path with its IDs")
+    public void enabled(@TempDir Path dir) throws IOException, ParseException, InterruptedException {
+        var events = record(GatewayFlightRecorder.getConfiguration(), dir.resolve("gateway.jfr"));
+        var insert = events.stream()
+                           .filter(e -> e.getEventType().getName().equals("com.openglobes.ctp.Insert"))
+                           .findFirst()
+                           .orElseThrow(() -> new AssertionError("Insert not recorded."));
+        assertEquals(ORDER_ID, insert.getLong("orderId"));
+        var ref = insert.getString("orderRef");
+        assertNotNull(ref);
+        var order = callback(events, "OnRtnOrder");
+        assertEquals(ORDER_ID, order.getLong("orderId"));
+        assertEquals(ref, order.getString("orderRef"));
+        assertEquals(ORDER_ID, callback(events, "OnRtnTrade").getLong("orderId"));
+    }
+
+    @Test
+    @DisplayName("Gateway events are off by default")
+    public void disabled(@TempDir Path dir) throws IOException, ParseException, InterruptedException {
+        var events = record(Configuration.getConfiguration("default"), dir.resolve("default.jfr"));
+        assertTrue(events.isEmpty(), events.toString());
+    }
+}
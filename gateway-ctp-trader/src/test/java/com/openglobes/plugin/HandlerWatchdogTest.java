@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2020-2021. Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.openglobes.plugin;
+
+import com.openglobes.core.GatewayRuntimeException;
+import com.openglobes.core.ServiceRuntimeStatus;
+import com.openglobes.core.trader.ITraderGatewayHandler;
+import com.openglobes.core.trader.Response;
+import com.openglobes.core.trader.Trade;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Handler watchdog")
+class HandlerWatchdogTest {
+
+    @Test
+    @DisplayName("Slow handler raises events with sampled stack")
+    public void slowHandler() {
+        List<SlowHandlerEvent> events = new CopyOnWriteArrayList<>();
+        var watchdog = new HandlerWatchdog(2_000_000L, true, events::add);
+        var handler = new WatchedTraderGatewayHandler(new ITraderGatewayHandler() {
+            @Override
+            public void onTrade(Trade trade) {
+            }
+
+            @Override
+            public void onResponse(Response response) {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException ignored) {
+                }
+            }
+
+            @Override
+            public void onError(GatewayRuntimeException e) {
+            }
+
+            @Override
+            public void onStatusChange(ServiceRuntimeStatus status) {
+            }
+        }, watchdog);
+        watchdog.start();
+        try {
+            var r = new Response();
+            r.setOrderId(7L);
+            handler.onResponse(r);
+            var t = new Trade();
+            t.setOrderId(8L);
+            handler.onTrade(t);
+        } finally {
+            watchdog.close();
+        }
+
+        assertEquals(1, watchdog.getLatencies(HandlerWatchdog.RESPONSE).getCount());
+        assertEquals(1, watchdog.getLatencies(HandlerWatchdog.TRADE).getCount());
+        assertTrue(watchdog.getLatencies(HandlerWatchdog.RESPONSE).getMax() >= 50_000_000L);
+        /*
+         * Slow invocation is reported once, by the sampler while it runs.
+         */
+        assertEquals(1, events.size(), events.toString());
+        var unfinished = events.get(0);
+        assertFalse(unfinished.isFinished());
+        assertEquals(HandlerWatchdog.RESPONSE, unfinished.getCallbackType());
+        assertEquals(7L, unfinished.getOrderId());
+        assertNotNull(unfinished.getStackTrace());
+    }
+
+    @Test
+    @DisplayName("Slow nested invocation is reported once")
+    public void nested() {
+        List<SlowHandlerEvent> events = new CopyOnWriteArrayList<>();
+        var watchdog = new HandlerWatchdog(2_000_000L, false, events::add);
+        var outer = new ITraderGatewayHandler[1];
+        var handler = new WatchedTraderGatewayHandler(new ITraderGatewayHandler() {
+            @Override
+            public void onTrade(Trade trade) {
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException ignored) {
+                }
+            }
+
+            @Override
+            public void onResponse(Response response) {
+                /*
+                 * Handler calling back into the gateway's handler.
+                 */
+                var t = new Trade();
+                t.setOrderId(response.getOrderId());
+                outer[0].onTrade(t);
+            }
+
+            @Override
+            public void onError(GatewayRuntimeException e) {
+            }
+
+            @Override
+            public void onStatusChange(ServiceRuntimeStatus status) {
+            }
+        }, watchdog);
+        outer[0] = handler;
+        var r = new Response();
+        r.setOrderId(7L);
+        handler.onResponse(r);
+
+        assertEquals(1, watchdog.getLatencies(HandlerWatchdog.RESPONSE).getCount());
+        assertEquals(1, watchdog.getLatencies(HandlerWatchdog.TRADE).getCount());
+        assertEquals(1, events.size(), events.toString());
+        assertTrue(events.get(0).isFinished());
+        assertEquals(HandlerWatchdog.TRADE, events.get(0).getCallbackType());
+    }
+}
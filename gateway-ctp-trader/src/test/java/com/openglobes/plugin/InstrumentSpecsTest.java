@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2020-2021. Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.plugin;
+
+import com.openglobes.core.trader.Direction;
+import com.openglobes.core.trader.Offset;
+import com.openglobes.core.trader.Request;
+import org.ctp4j.CThostFtdcDepthMarketDataField;
+import org.ctp4j.CThostFtdcInstrumentField;
+import org.ctp4j.CThostFtdcInstrumentStatusField;
+import org.ctp4j.CThostFtdcInvestorPositionField;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Instrument specs")
+class InstrumentSpecsTest {
+
+    private InstrumentSpecs specs;
+
+    private static Request request(int direction, int offset, double price, long quantity) {
+        var r = new Request();
+        r.setInstrumentId("rb2110");
+        r.setDirection(direction);
+        r.setOffset(offset);
+        r.setPrice(price);
+        r.setQuantity(quantity);
+        return r;
+    }
+
+    @BeforeEach
+    void setUp() {
+        try {
+            CtpNativeBootstrap.install();
+        } catch (IOException e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        }
+        specs = new InstrumentSpecs(new SymbolTable(16));
+        var i = new CThostFtdcInstrumentField();
+        i.setInstrumentID("rb2110");
+        i.setProductID("rb");
+        i.setPriceTick(1.0);
+        i.setMinLimitOrderVolume(1);
+        i.setMaxLimitOrderVolume(500);
+        specs.update(i);
+        var d = new CThostFtdcDepthMarketDataField();
+        d.setInstrumentID("rb2110");
+        d.setUpperLimitPrice(5500.0);
+        d.setLowerLimitPrice(4500.0);
+        specs.update(d);
+    }
+
+    @Test
+    @DisplayName("Rejects orders breaking the instrument's rules")
+    public void check() {
+        assertEquals(GatewayStatus.NO_ERROR, specs.check(request(Direction.BUY, Offset.OPEN, 5000.0, 1)));
+        assertEquals(GatewayStatus.INVALID_PRICE_TICK, specs.check(request(Direction.BUY, Offset.OPEN, 5000.5, 1)));
+        assertEquals(GatewayStatus.INVALID_VOLUME, specs.check(request(Direction.BUY, Offset.OPEN, 5000.0, 501)));
+        assertEquals(GatewayStatus.PRICE_OUT_OF_LIMIT, specs.check(request(Direction.BUY, Offset.OPEN, 5501.0, 1)));
+        /*
+         * Volume bounds are checked apart.
+         */
+        var i = new CThostFtdcInstrumentField();
+        i.setInstrumentID("rb2110");
+        i.setProductID("rb");
+        i.setPriceTick(1.0);
+        i.setMaxLimitOrderVolume(500);
+        specs.update(i);
+        assertEquals(GatewayStatus.INVALID_VOLUME, specs.check(request(Direction.BUY, Offset.OPEN, 5000.0, 501)));
+        assertEquals(GatewayStatus.NO_ERROR, specs.check(request(Direction.BUY, Offset.OPEN, 5000.0, 500)));
+        /*
+         * Positions are unknown before the query, so closes pass.
+         */
+        assertEquals(GatewayStatus.NO_ERROR, specs.check(request(Direction.SELL, Offset.CLOSE_AUTO, 5000.0, 9)));
+        /*
+         * Instrument without specs passes.
+         */
+        var r = request(Direction.BUY, Offset.OPEN, 0.123, 0);
+        r.setInstrumentId("unknown");
+        assertEquals(GatewayStatus.NO_ERROR, specs.check(r));
+
+        specs.setNormalizePrice(true);
+        var buy = request(Direction.BUY, Offset.OPEN, 5000.5, 1);
+        var sell = request(Direction.SELL, Offset.OPEN, 5000.5, 1);
+        assertEquals(GatewayStatus.NO_ERROR, specs.check(buy));
+        assertEquals(GatewayStatus.NO_ERROR, specs.check(sell));
+        assertEquals(5000.0, specs.limitPrice(buy));
+        assertEquals(5001.0, specs.limitPrice(sell));
+        assertEquals(5000.5, buy.getPrice());
+        assertEquals(5000.0, specs.limitPrice(request(Direction.BUY, Offset.OPEN, 5000.0, 1)));
+
+        var s = new CThostFtdcInstrumentStatusField();
+        s.setInstrumentID("rb");
+        s.setInstrumentStatus(InstrumentSpecs.THOST_FTDC_IS_Closed);
+        specs.update(s);
+        assertEquals(GatewayStatus.INSTRUMENT_NOT_TRADING, specs.check(request(Direction.BUY, Offset.OPEN, 5000.0, 1)));
+    }
+
+    @Test
+    @DisplayName("Checks closes against positions moved by trades")
+    public void positions() {
+        specs.clearPositions();
+        var p = new CThostFtdcInvestorPositionField();
+        p.setInstrumentID("rb2110");
+        p.setPosiDirection(InstrumentSpecs.THOST_FTDC_PD_Long);
+        p.setPosition(3);
+        p.setTodayPosition(1);
+        specs.update(p);
+        specs.positionsLoaded();
+        assertEquals(3, specs.getPosition("rb2110", Direction.BUY));
+        assertEquals(0, specs.getPosition("rb2110", Direction.SELL));
+        assertEquals(GatewayStatus.NO_ERROR, specs.check(request(Direction.SELL, Offset.CLOSE_YD, 5000.0, 2)));
+        assertEquals(GatewayStatus.INSUFFICIENT_POSITION,
+                     specs.check(request(Direction.SELL, Offset.CLOSE_TODAY, 5000.0, 2)));
+        assertEquals(GatewayStatus.INSUFFICIENT_POSITION,
+                     specs.check(request(Direction.BUY, Offset.CLOSE_AUTO, 5000.0, 1)));
+
+        specs.onTrade("rb2110", Direction.SELL, Offset.OPEN, 2);
+        assertEquals(GatewayStatus.NO_ERROR, specs.check(request(Direction.BUY, Offset.CLOSE_TODAY, 5000.0, 2)));
+        specs.onTrade("rb2110", Direction.SELL, Offset.CLOSE_AUTO, 3);
+        assertEquals(0, specs.getPosition("rb2110", Direction.BUY));
+        assertEquals(GatewayStatus.INSUFFICIENT_POSITION,
+                     specs.check(request(Direction.SELL, Offset.CLOSE_AUTO, 5000.0, 1)));
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2020-2021. Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.plugin;
+
+import com.openglobes.core.trader.Request;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Order sender")
+class OrderSenderTest {
+
+    private static final int PRODUCERS = 4;
+    private static final int REQUESTS = 10_000;
+
+    @Test
+    @DisplayName("Sends every request in producer order")
+    public void send() throws InterruptedException {
+        var last = new ConcurrentHashMap<Integer, Long>();
+        var ordered = new AtomicBoolean(true);
+        var done = new CountDownLatch(PRODUCERS * REQUESTS);
+        var metrics = new GatewayMetrics(null);
+        var sender = new OrderSender(64);
+        sender.start(r -> {
+            var prev = last.put(r.getTraderId(), r.getOrderId());
+            if (prev != null && prev >= r.getOrderId()) {
+                ordered.set(false);
+            }
+            done.countDown();
+        }, metrics);
+        for (int p = 0; p < PRODUCERS; ++p) {
+            var trader = p;
+            new Thread(() -> {
+                for (long i = 0; i < REQUESTS; ++i) {
+                    var r = new Request();
+                    r.setTraderId(trader);
+                    r.setOrderId(i);
+                    while (!sender.offer(r)) {
+                        Thread.yield();
+                    }
+                }
+            }).start();
+        }
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        assertTrue(sender.close());
+        assertEquals(0, sender.size());
+        assertEquals(PRODUCERS * REQUESTS, metrics.getSendLatency().getCount());
+        assertTrue(ordered.get());
+        for (int p = 0; p < PRODUCERS; ++p) {
+            assertEquals(REQUESTS - 1, last.get(p));
+        }
+    }
+
+    @Test
+    @DisplayName("Interrupts a sender that doesn't stop in time")
+    public void closeTimeout() throws InterruptedException {
+        var entered = new CountDownLatch(1);
+        var interrupted = new CountDownLatch(1);
+        var sender = new OrderSender(4);
+        sender.start(r -> {
+            entered.countDown();
+            try {
+                /*
+                 * Blocked like a stuck API call.
+                 */
+                new CountDownLatch(1).await();
+            } catch (InterruptedException ex) {
+                interrupted.countDown();
+            }
+        }, new GatewayMetrics(null));
+        assertTrue(sender.offer(new Request()));
+        assertTrue(sender.offer(new Request()));
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+        assertFalse(sender.close(50));
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+        assertEquals(1, sender.size());
+    }
+}
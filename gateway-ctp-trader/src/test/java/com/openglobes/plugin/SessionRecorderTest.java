@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2020-2021. Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.plugin;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Session recorder")
+class SessionRecorderTest {
+
+    /*
+     * Header and the disconnect reason.
+     */
+    private static final int RECORD_SIZE = RecordCodec.HEADER_SIZE + 4;
+
+    private static void awaitRecords(SessionRecorder recorder, long count) throws InterruptedException {
+        var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (recorder.getRecordCount() < count && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(count, recorder.getRecordCount());
+    }
+
+    private static void assertRecords(Path dir, int count) throws IOException {
+        try (var reader = new RecordReader(dir)) {
+            for (int i = 0; i < count; ++i) {
+                assertTrue(reader.next());
+                assertEquals(RecordType.FRONT_DISCONNECTED, reader.type());
+                assertEquals(SessionRecorder.PRIMARY_SESSION, reader.session());
+                assertEquals(i, reader.payload().getInt());
+            }
+            assertFalse(reader.next());
+        }
+    }
+
+    private static long fileCount(Path dir) throws IOException {
+        try (var files = Files.list(dir)) {
+            return files.filter(f -> f.getFileName().toString().endsWith(".rec")).count();
+        }
+    }
+
+    @Test
+    @DisplayName("Reuses slots after the ring wraps")
+    public void wrap(@TempDir Path dir) throws IOException, InterruptedException {
+        var recorder = new SessionRecorder(dir, 1024 * 1024, 4);
+        recorder.start();
+        for (int i = 0; i < 50; ++i) {
+            recorder.recordFrontDisconnected(SessionRecorder.PRIMARY_SESSION, i);
+            awaitRecords(recorder, i + 1);
+        }
+        recorder.close();
+        assertEquals(0, recorder.getDroppedCount());
+        assertNull(recorder.getError());
+        assertRecords(dir, 50);
+    }
+
+    @Test
+    @DisplayName("Drops and counts records when all slots are in use")
+    public void full(@TempDir Path dir) throws IOException, InterruptedException {
+        var recorder = new SessionRecorder(dir, 1024 * 1024, 4);
+        for (int i = 0; i < 6; ++i) {
+            recorder.recordFrontDisconnected(SessionRecorder.PRIMARY_SESSION, i);
+        }
+        assertEquals(2, recorder.getDroppedCount());
+        recorder.start();
+        awaitRecords(recorder, 4);
+        recorder.close();
+        assertEquals(2, recorder.getDroppedCount());
+        assertRecords(dir, 4);
+    }
+
+    @Test
+    @DisplayName("Rolls to a new file at the size limit")
+    public void roll(@TempDir Path dir) throws IOException, InterruptedException {
+        var size = RecordCodec.FILE_HEADER_SIZE + SessionRecorder.SLOT_SIZE;
+        var perFile = SessionRecorder.SLOT_SIZE / RECORD_SIZE;
+        var count = 3 * perFile - 1;
+        var recorder = new SessionRecorder(dir, size, 1024);
+        recorder.start();
+        for (int i = 0; i < count; ++i) {
+            recorder.recordFrontDisconnected(SessionRecorder.PRIMARY_SESSION, i);
+        }
+        awaitRecords(recorder, count);
+        recorder.close();
+        assertEquals(0, recorder.getDroppedCount());
+        assertNull(recorder.getError());
+        assertEquals(3, fileCount(dir));
+        assertRecords(dir, count);
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright (c) 2020-2021. Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.openglobes.plugin;
+
+import com.openglobes.core.GatewayRuntimeException;
+import com.openglobes.core.ServiceRuntimeStatus;
+import com.openglobes.core.trader.*;
+import org.ctp4j.*;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Session recording and replay")
+class SessionReplayerTest {
+
+    @TempDir
+    Path dir;
+
+    @BeforeEach
+    void setUp() {
+        try {
+            CtpNativeBootstrap.install();
+        } catch (IOException e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        }
+    }
+
+    @Test
+    @DisplayName("Replay reproduces recorded handler events")
+    public void replay() throws IOException {
+        var recorder = new SessionRecorder(dir, 1024 * 1024, 1024);
+        var gate = new CtpTraderGateway();
+        gate.setApi(new StubTraderApi());
+        gate.setRecorder(recorder);
+        gate.setHandler(new ITraderGatewayHandler() {
+            @Override
+            public void onTrade(Trade trade) {
+            }
+
+            @Override
+            public void onResponse(Response response) {
+            }
+
+            @Override
+            public void onError(GatewayRuntimeException e) {
+            }
+
+            @Override
+            public void onStatusChange(ServiceRuntimeStatus status) {
+            }
+        });
+        recorder.start();
+        var spi = new RecordingTraderSpi(gate.getSpi(), recorder);
+        spi.OnFrontConnected();
+        spi.OnRspAuthenticate(new CThostFtdcRspAuthenticateField(), info(), 1, true);
+        spi.OnRspUserLogin(login(), info(), 2, true);
+        spi.OnRspSettlementInfoConfirm(new CThostFtdcSettlementInfoConfirmField(), info(), 3, true);
+        gate.insert(request());
+        spi.OnRtnOrder(order());
+        spi.OnRtnTrade(trade());
+        recorder.close();
+
+        assertEquals(0, recorder.getDroppedCount());
+        var report = new SessionReplayer(dir).replay();
+        assertEquals(0, report.getMismatchCount(), report.toString());
+        assertEquals(7, report.getEvents());
+        assertEquals(6, report.getVerifiedCount(), report.toString());
+    }
+
+    @Test
+    @DisplayName("Replay rebuilds specs and reproduces local rejects")
+    public void replayLocalReject() throws IOException {
+        var recorder = new SessionRecorder(dir, 1024 * 1024, 1024);
+        var gate = new CtpTraderGateway();
+        var responses = new ArrayList<Response>();
+        gate.setApi(new StubTraderApi());
+        gate.setRecorder(recorder);
+        gate.setHandler(new ITraderGatewayHandler() {
+            @Override
+            public void onTrade(Trade trade) {
+            }
+
+            @Override
+            public void onResponse(Response response) {
+                responses.add(response);
+            }
+
+            @Override
+            public void onError(GatewayRuntimeException e) {
+            }
+
+            @Override
+            public void onStatusChange(ServiceRuntimeStatus status) {
+            }
+        });
+        recorder.start();
+        var spi = new RecordingTraderSpi(gate.getSpi(), recorder);
+        spi.OnFrontConnected();
+        spi.OnRspAuthenticate(new CThostFtdcRspAuthenticateField(), info(), 1, true);
+        spi.OnRspUserLogin(login(), info(), 2, true);
+        spi.OnRspSettlementInfoConfirm(new CThostFtdcSettlementInfoConfirmField(), info(), 3, true);
+        spi.OnRspQryInstrument(instrument(), info(), 4, true);
+        spi.OnRspQryDepthMarketData(depth(), info(), 5, true);
+        var r = request();
+        r.setPrice(2900D);
+        gate.insert(r);
+        recorder.close();
+
+        assertEquals(1, responses.size());
+        assertEquals(OrderStatus.REJECTED, responses.get(0).getStatus());
+        assertEquals(1, gate.getMetrics().snapshot().getLocalRejectCount());
+        assertEquals(0, gate.getMetrics().snapshot().getRejectCount());
+        var report = new SessionReplayer(dir).replay();
+        assertEquals(0, report.getMismatchCount(), report.toString());
+        assertEquals(7, report.getEvents());
+        assertEquals(5, report.getVerifiedCount(), report.toString());
+    }
+
+    @Test
+    @DisplayName("Replay reproduces a failover to the standby session")
+    public void replayFailover() throws IOException {
+        var recorder = new SessionRecorder(dir, 1024 * 1024, 1024);
+        var gate = new CtpTraderGateway();
+        var responses = new ArrayList<Response>();
+        gate.setApi(new StubTraderApi());
+        gate.setStandbyApi(new StubTraderApi());
+        gate.setRecorder(recorder);
+        gate.setHandler(new ITraderGatewayHandler() {
+            @Override
+            public void onTrade(Trade trade) {
+            }
+
+            @Override
+            public void onResponse(Response response) {
+                responses.add(response);
+            }
+
+            @Override
+            public void onError(GatewayRuntimeException e) {
+            }
+
+            @Override
+            public void onStatusChange(ServiceRuntimeStatus status) {
+            }
+        });
+        recorder.start();
+        var primary = new RecordingTraderSpi(gate.getSpi(), recorder);
+        var standby = new RecordingTraderSpi(gate.getStandbySpi(), recorder, SessionRecorder.STANDBY_SESSION);
+        primary.OnFrontConnected();
+        primary.OnRspAuthenticate(new CThostFtdcRspAuthenticateField(), info(), 1, true);
+        primary.OnRspUserLogin(login(), info(), 2, true);
+        primary.OnRspSettlementInfoConfirm(new CThostFtdcSettlementInfoConfirmField(), info(), 3, true);
+        standby.OnFrontConnected();
+        standby.OnRspAuthenticate(new CThostFtdcRspAuthenticateField(), info(), 1, true);
+        standby.OnRspUserLogin(login(), info(), 2, true);
+        standby.OnRspSettlementInfoConfirm(new CThostFtdcSettlementInfoConfirmField(), info(), 3, true);
+        gate.insert(request());
+        primary.OnFrontDisconnected(0x1001);
+        standby.OnRtnOrder(order());
+        recorder.close();
+
+        assertSame(gate.getStandbySpi(), gate.getActiveSpi());
+        assertEquals(1, responses.size());
+        var report = new SessionReplayer(dir).replay();
+        assertEquals(0, report.getMismatchCount(), report.toString());
+        assertEquals(11, report.getEvents(), report.toString());
+        assertEquals(7, report.getVerifiedCount(), report.toString());
+    }
+
+    private CThostFtdcRspInfoField info() {
+        var r = new CThostFtdcRspInfoField();
+        r.setErrorID(0);
+        r.setErrorMsg("");
+        return r;
+    }
+
+    private CThostFtdcRspUserLoginField login() {
+        var r = new CThostFtdcRspUserLoginField();
+        r.setTradingDay("20210810");
+        r.setLoginTime("21:00:01");
+        r.setMaxOrderRef("10");
+        r.setSHFETime("21:00:01");
+        r.setDCETime("21:00:01");
+        r.setCZCETime("21:00:01");
+        r.setFFEXTime("21:00:01");
+        r.setINETime("21:00:01");
+        return r;
+    }
+
+    private CThostFtdcInstrumentField instrument() {
+        var r = new CThostFtdcInstrumentField();
+        r.setInstrumentID("c2109");
+        r.setExchangeID("DCE");
+        r.setProductID("c");
+        r.setPriceTick(1D);
+        r.setMinLimitOrderVolume(1);
+        r.setMaxLimitOrderVolume(1000);
+        return r;
+    }
+
+    private CThostFtdcDepthMarketDataField depth() {
+        var r = new CThostFtdcDepthMarketDataField();
+        r.setInstrumentID("c2109");
+        r.setUpperLimitPrice(2800D);
+        r.setLowerLimitPrice(2600D);
+        return r;
+    }
+
+    private Request request() {
+        var r = new Request();
+        r.setAction(ActionType.NEW);
+        r.setDirection(Direction.BUY);
+        r.setOffset(Offset.OPEN);
+        r.setTraderId(1);
+        r.setInstrumentId("c2109");
+        r.setExchangeId("DCE");
+        r.setOrderId(100L);
+        r.setRequestId(100L);
+        r.setPrice(2700D);
+        r.setQuantity(1L);
+        return r;
+    }
+
+    private CThostFtdcOrderField order() {
+        var r = new CThostFtdcOrderField();
+        r.setOrderRef("11");
+        r.setOrderSysID("  123456");
+        r.setExchangeID("DCE");
+        r.setInstrumentID("c2109");
+        r.setDirection('0');
+        r.setCombOffsetFlag("0");
+        r.setLimitPrice(2700D);
+        r.setVolumeTotalOriginal(1);
+        r.setOrderStatus('3');
+        r.setUpdateTime("21:00:02");
+        r.setTradingDay("20210810");
+        r.setStatusMsg("未成交");
+        return r;
+    }
+
+    private CThostFtdcTradeField trade() {
+        var r = new CThostFtdcTradeField();
+        r.setOrderRef("11");
+        r.setOrderSysID("  123456");
+        r.setExchangeID("DCE");
+        r.setInstrumentID("c2109");
+        r.setTradeID("  654321");
+        r.setDirection('0');
+        r.setOffsetFlag('0');
+        r.setPrice(2700D);
+        r.setVolume(1);
+        r.setTradeDate("20210809");
+        r.setTradeTime("21:00:02");
+        r.setTradingDay("20210810");
+        return r;
+    }
+}
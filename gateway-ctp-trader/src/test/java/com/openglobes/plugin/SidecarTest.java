@@ -0,0 +1,268 @@
+/*
+ * Copyright (c) 2020-2021. Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.plugin;
+
+import com.openglobes.core.GatewayRuntimeException;
+import com.openglobes.core.ServiceRuntimeStatus;
+import com.openglobes.core.trader.*;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Sidecar")
+class SidecarTest {
+
+    private static final LocalDate DAY = LocalDate.of(2021, 8, 10);
+
+    private static Request request(int traderId, long orderId) {
+        var r = new Request();
+        r.setTraderId(traderId);
+        r.setOrderId(orderId);
+        r.setAction(ActionType.NEW);
+        r.setInstrumentId("c2109");
+        r.setExchangeId("DCE");
+        r.setPrice(2650D);
+        r.setQuantity(2L);
+        return r;
+    }
+
+    @Test
+    @DisplayName("Routes events back to the client by trader ID")
+    public void route(@TempDir Path dir) throws IOException, InterruptedException {
+        var gateway = new EchoGateway();
+        var server = new SidecarServer(gateway, dir);
+        var a = new SidecarTraderGateway(dir, "a");
+        var b = new SidecarTraderGateway(dir, "b");
+        var ha = new Collector();
+        var hb = new Collector();
+        a.setHandler(ha);
+        b.setHandler(hb);
+        a.start();
+        b.start();
+        server.start();
+        try {
+            awaitServer(a);
+            awaitServer(b);
+            a.insert(request(1, 100));
+            b.insert(request(2, 200));
+            var ra = ha.responses.poll(5, TimeUnit.SECONDS);
+            var rb = hb.responses.poll(5, TimeUnit.SECONDS);
+            assertNotNull(ra);
+            assertNotNull(rb);
+            assertEquals(100L, ra.getOrderId());
+            assertEquals("c2109", ra.getInstrumentId());
+            assertEquals(200L, rb.getOrderId());
+            var ta = ha.trades.poll(5, TimeUnit.SECONDS);
+            assertNotNull(ta);
+            assertEquals(2650D, ta.getPrice());
+            assertEquals(2, server.getClientCount());
+            assertEquals(DAY, a.getGatewayInfo().getTradingDay());
+            assertNull(ha.responses.poll(100, TimeUnit.MILLISECONDS));
+            server.onStatusChange(new ServiceRuntimeStatus(GatewayStatus.CONFIRMED, "Confirmed."));
+            var sa = ha.statuses.poll(5, TimeUnit.SECONDS);
+            assertNotNull(sa);
+            assertEquals(GatewayStatus.CONFIRMED, sa.getCode());
+            assertEquals("Confirmed.", sa.getMessage());
+        } finally {
+            a.close();
+            b.close();
+            server.close();
+        }
+    }
+
+    @Test
+    @DisplayName("Fails requests while no server is alive")
+    public void noServer(@TempDir Path dir) throws IOException, InterruptedException {
+        var a = new SidecarTraderGateway(dir, "a");
+        var ha = new Collector();
+        a.setHandler(ha);
+        a.start();
+        try {
+            a.insert(request(1, 100));
+            var e = ha.errors.poll(5, TimeUnit.SECONDS);
+            assertNotNull(e);
+            assertEquals(GatewayStatus.SIDECAR_NOT_ATTACHED, e.getCode());
+        } finally {
+            a.close();
+        }
+    }
+
+    @Test
+    @DisplayName("Drops requests queued for another server")
+    public void stale(@TempDir Path dir) throws IOException, InterruptedException {
+        var gateway = new EchoGateway();
+        var server = new SidecarServer(gateway, dir);
+        var pid = ProcessHandle.current().pid();
+        var responses = SidecarRing.create(dir.resolve("a" + SidecarServer.RESPONSE_SUFFIX), 4096, 16);
+        responses.setConsumerPid(pid);
+        var requests = SidecarRing.create(dir.resolve("a" + SidecarServer.REQUEST_SUFFIX), 4096, 16);
+        requests.setProducerPid(pid);
+        var b = requests.claim();
+        var p = SidecarCodec.putType(b, 4, SidecarCodec.INSERT);
+        p = RecordCodec.putLong(b, p, pid + 1);
+        requests.publish(SidecarCodec.putRequest(b, p, request(1, 100)));
+        server.start();
+        try {
+            var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (server.getStaleCount() == 0 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(1, server.getStaleCount());
+            assertEquals(0, gateway.inserts);
+            ByteBuffer r;
+            var error = false;
+            while ((r = responses.poll()) != null) {
+                error |= r.get() == SidecarCodec.ERROR && RecordCodec.getInteger(r) == GatewayStatus.SIDECAR_NOT_ATTACHED;
+                responses.release();
+            }
+            assertTrue(error);
+        } finally {
+            server.close();
+            requests.close();
+            responses.close();
+        }
+    }
+
+    @Test
+    @DisplayName("Parks trades for a stalled client and reports the gap")
+    public void stalled(@TempDir Path dir) throws IOException, InterruptedException {
+        var gateway = new EchoGateway();
+        var server = new SidecarServer(gateway, dir);
+        var pid = ProcessHandle.current().pid();
+        var responses = SidecarRing.create(dir.resolve("a" + SidecarServer.RESPONSE_SUFFIX), 4096, 16);
+        responses.setConsumerPid(pid);
+        var requests = SidecarRing.create(dir.resolve("a" + SidecarServer.REQUEST_SUFFIX), 4096, 16);
+        requests.setProducerPid(pid);
+        for (int i = 0; i < 16; ++i) {
+            var b = requests.claim();
+            var p = SidecarCodec.putType(b, 4, SidecarCodec.INSERT);
+            p = RecordCodec.putLong(b, p, pid);
+            requests.publish(SidecarCodec.putRequest(b, p, request(1, 100 + i)));
+        }
+        server.start();
+        try {
+            var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (gateway.inserts < 16 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(16, gateway.inserts);
+            assertTrue(server.getDroppedCount() > 0);
+            long orderId = 100;
+            var gap = false;
+            ByteBuffer r;
+            while (orderId < 116 && System.nanoTime() < deadline) {
+                if ((r = responses.poll()) == null) {
+                    Thread.sleep(1);
+                    continue;
+                }
+                var type = r.get();
+                if (type == SidecarCodec.TRADE) {
+                    assertEquals(orderId++, SidecarCodec.getTrade(r).getOrderId());
+                } else if (type == SidecarCodec.ERROR) {
+                    gap |= RecordCodec.getInteger(r) == GatewayStatus.SIDECAR_EVENTS_DROPPED;
+                }
+                responses.release();
+            }
+            assertEquals(116, orderId);
+            assertTrue(gap);
+        } finally {
+            server.close();
+            requests.close();
+            responses.close();
+        }
+    }
+
+    private static void awaitServer(SidecarTraderGateway client) throws InterruptedException {
+        var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!client.isServerAlive() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(client.isServerAlive());
+    }
+
+    private static class EchoGateway implements ITraderGateway {
+
+        private ITraderGatewayHandler handler;
+        private volatile int inserts;
+
+        @Override
+        public TraderGatewayInfo getGatewayInfo() {
+            var info = new TraderGatewayInfo();
+            info.setTradingDay(DAY);
+            return info;
+        }
+
+        @Override
+        public void insert(Request request) {
+            ++inserts;
+            var r = new Response();
+            r.setOrderId(request.getOrderId());
+            r.setTraderId(request.getTraderId());
+            r.setInstrumentId(request.getInstrumentId());
+            r.setStatus(OrderStatus.QUEUED);
+            handler.onResponse(r);
+            var t = new Trade();
+            t.setOrderId(request.getOrderId());
+            t.setTraderId(request.getTraderId());
+            t.setPrice(request.getPrice());
+            t.setQuantity(request.getQuantity());
+            handler.onTrade(t);
+        }
+
+        @Override
+        public void setHandler(ITraderGatewayHandler handler) {
+            this.handler = handler;
+        }
+    }
+
+    private static class Collector implements ITraderGatewayHandler {
+
+        private final LinkedBlockingQueue<GatewayRuntimeException> errors = new LinkedBlockingQueue<>();
+        private final LinkedBlockingQueue<Response> responses = new LinkedBlockingQueue<>();
+        private final LinkedBlockingQueue<ServiceRuntimeStatus> statuses = new LinkedBlockingQueue<>();
+        private final LinkedBlockingQueue<Trade> trades = new LinkedBlockingQueue<>();
+
+        @Override
+        public void onTrade(Trade trade) {
+            trades.add(trade);
+        }
+
+        @Override
+        public void onResponse(Response response) {
+            responses.add(response);
+        }
+
+        @Override
+        public void onError(GatewayRuntimeException error) {
+            errors.add(error);
+        }
+
+        @Override
+        public void onStatusChange(ServiceRuntimeStatus status) {
+            statuses.add(status);
+        }
+    }
+}
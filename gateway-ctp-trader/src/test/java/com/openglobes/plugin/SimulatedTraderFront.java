@@ -0,0 +1,351 @@
+/*
+ * Copyright (c) 2020-2021. Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.plugin;
+
+import org.ctp4j.*;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local stand-in of a CTP front for soak runs.
+ * <p>
+ * Requests are answered from one callback thread like the native API's, in
+ * the order they are sent. Orders are accepted, and then filled or left
+ * queued until cancelled. A reconnect goes through authentication, login and
+ * settlement confirmation again, and replays the last trades as a resumed
+ * private topic does.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+class SimulatedTraderFront extends StubTraderApi implements Runnable {
+
+    static final String EXCHANGE_ID = "SHFE";
+    static final String INSTRUMENT_ID = "rb2110";
+    static final String PRODUCT_ID = "rb";
+    static final double PRICE_TICK = 1.0;
+    static final double LOWER_LIMIT = 4500.0;
+    static final double UPPER_LIMIT = 5500.0;
+    private static final int FRONT_ID = 1;
+    private static final int QUEUE_SIZE = 1 << 16;
+    private static final int REPLAYED_TRADES = 64;
+    private static final long RECONNECT_MILLIS = 200;
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("HH:mm:ss");
+    private final BlockingQueue<Runnable> events;
+    private final double fillRatio;
+    private final AtomicInteger maxOrderRef;
+    private final Map<String, CThostFtdcOrderField> orders;
+    private final ArrayDeque<CThostFtdcTradeField> recentTrades;
+    private final AtomicLong sysIds;
+    private final Thread thread;
+    private final AtomicLong tradeIds;
+    private volatile boolean connected;
+    private volatile long emitNanos;
+    private int sessionId;
+    private CThostFtdcTraderSpi spi;
+    private volatile LocalDate tradingDay;
+
+    SimulatedTraderFront(LocalDate tradingDay, double fillRatio) {
+        this.tradingDay = tradingDay;
+        this.fillRatio = fillRatio;
+        events = new ArrayBlockingQueue<>(QUEUE_SIZE);
+        maxOrderRef = new AtomicInteger(0);
+        orders = new ConcurrentHashMap<>();
+        recentTrades = new ArrayDeque<>(REPLAYED_TRADES);
+        sysIds = new AtomicLong(0);
+        tradeIds = new AtomicLong(0);
+        thread = new Thread(this, "ctp-soak-front");
+        thread.setDaemon(true);
+    }
+
+    private static CThostFtdcRspInfoField ok() {
+        var r = new CThostFtdcRspInfoField();
+        r.setErrorID(0);
+        r.setErrorMsg("CTP:正确");
+        return r;
+    }
+
+    private static String now() {
+        return LocalTime.now(ExchangeClock.CHINA).format(TIME);
+    }
+
+    /**
+     * @return time the callback being delivered was started, for measuring
+     * the gateway's callback latency from the handler.
+     */
+    long getEmitNanos() {
+        return emitNanos;
+    }
+
+    LocalDate getTradingDay() {
+        return tradingDay;
+    }
+
+    int getQueueSize() {
+        return events.size();
+    }
+
+    /**
+     * Starts the callback thread and connects.
+     */
+    void open(CThostFtdcTraderSpi spi) {
+        this.spi = spi;
+        thread.start();
+        post(this::connect);
+    }
+
+    /**
+     * Drops the connection, and connects again after a while.
+     */
+    void reconnect() {
+        post(() -> {
+            connected = false;
+            emit(() -> spi.OnFrontDisconnected(0x1001));
+            try {
+                Thread.sleep(RECONNECT_MILLIS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            connect();
+        });
+    }
+
+    /**
+     * Moves to the next trading day, as the front does at the begin of the
+     * night session, and reconnects.
+     */
+    void rollover() {
+        post(() -> {
+            tradingDay = tradingDay.plusDays(1);
+            orders.clear();
+            recentTrades.clear();
+        });
+        reconnect();
+    }
+
+    @Override
+    public void Release() {
+        thread.interrupt();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                events.take().run();
+            }
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    @Override
+    public int ReqAuthenticate(CThostFtdcReqAuthenticateField req, int requestId) {
+        return post(() -> emit(() -> spi.OnRspAuthenticate(new CThostFtdcRspAuthenticateField(), ok(), requestId, true)));
+    }
+
+    @Override
+    public int ReqUserLogin(CThostFtdcReqUserLoginField req, int requestId) {
+        return post(() -> {
+            var r = new CThostFtdcRspUserLoginField();
+            r.setTradingDay(tradingDay.format(DateTimeFormatter.BASIC_ISO_DATE));
+            r.setLoginTime(now());
+            r.setSHFETime(now());
+            r.setFrontID(FRONT_ID);
+            r.setSessionID(++sessionId);
+            r.setMaxOrderRef(Integer.toString(maxOrderRef.get()));
+            emit(() -> spi.OnRspUserLogin(r, ok(), requestId, true));
+        });
+    }
+
+    @Override
+    public int ReqUserLogout(CThostFtdcUserLogoutField req, int requestId) {
+        return 0;
+    }
+
+    @Override
+    public int ReqSettlementInfoConfirm(CThostFtdcSettlementInfoConfirmField req, int requestId) {
+        return post(() -> emit(() -> spi.OnRspSettlementInfoConfirm(req, ok(), requestId, true)));
+    }
+
+    @Override
+    public int ReqQryInstrument(CThostFtdcQryInstrumentField req, int requestId) {
+        return post(() -> {
+            var r = new CThostFtdcInstrumentField();
+            r.setInstrumentID(INSTRUMENT_ID);
+            r.setExchangeID(EXCHANGE_ID);
+            r.setProductID(PRODUCT_ID);
+            r.setPriceTick(PRICE_TICK);
+            r.setMinLimitOrderVolume(1);
+            r.setMaxLimitOrderVolume(500);
+            emit(() -> spi.OnRspQryInstrument(r, null, requestId, true));
+        });
+    }
+
+    @Override
+    public int ReqQryDepthMarketData(CThostFtdcQryDepthMarketDataField req, int requestId) {
+        return post(() -> {
+            var r = new CThostFtdcDepthMarketDataField();
+            r.setInstrumentID(INSTRUMENT_ID);
+            r.setUpperLimitPrice(UPPER_LIMIT);
+            r.setLowerLimitPrice(LOWER_LIMIT);
+            emit(() -> spi.OnRspQryDepthMarketData(r, null, requestId, true));
+        });
+    }
+
+    @Override
+    public int ReqQryInvestorPosition(CThostFtdcQryInvestorPositionField req, int requestId) {
+        return post(() -> emit(() -> spi.OnRspQryInvestorPosition(null, null, requestId, true)));
+    }
+
+    @Override
+    public int ReqOrderInsert(CThostFtdcInputOrderField req, int requestId) {
+        if (!connected) {
+            return -1;
+        }
+        /*
+         * Copy the request before returning, the gateway reuses it.
+         */
+        var o = new CThostFtdcOrderField();
+        o.setInstrumentID(req.getInstrumentID());
+        o.setExchangeID(req.getExchangeID());
+        o.setOrderRef(req.getOrderRef());
+        o.setDirection(req.getDirection());
+        o.setLimitPrice(req.getLimitPrice());
+        o.setVolumeTotalOriginal(req.getVolumeTotalOriginal());
+        o.setRequestID(requestId);
+        maxOrderRef.accumulateAndGet(Integer.parseInt(req.getOrderRef()), Math::max);
+        return post(() -> accept(o));
+    }
+
+    @Override
+    public int ReqOrderAction(CThostFtdcInputOrderActionField req, int requestId) {
+        if (!connected) {
+            return -1;
+        }
+        var sysId = req.getOrderSysID();
+        return post(() -> cancel(sysId));
+    }
+
+    private int post(Runnable event) {
+        /*
+         * Refuse like the API does when too many requests are unanswered.
+         */
+        return events.offer(event) ? 0 : -2;
+    }
+
+    private void emit(Runnable callback) {
+        emitNanos = System.nanoTime();
+        callback.run();
+    }
+
+    private void connect() {
+        connected = true;
+        emit(spi::OnFrontConnected);
+        /*
+         * Replay last trades of the day as the resumed private topic does.
+         */
+        for (var t : recentTrades) {
+            emit(() -> spi.OnRtnTrade(t));
+        }
+    }
+
+    private void accept(CThostFtdcOrderField o) {
+        var day = tradingDay.format(DateTimeFormatter.BASIC_ISO_DATE);
+        o.setOrderSysID(String.format("%12d", sysIds.incrementAndGet()));
+        o.setTradingDay(day);
+        o.setFrontID(FRONT_ID);
+        o.setSessionID(sessionId);
+        o.setUpdateTime(now());
+        o.setOrderStatus('3');
+        o.setStatusMsg("未成交");
+        orders.put(o.getOrderSysID(), o);
+        emit(() -> spi.OnRtnOrder(o));
+        if (ThreadLocalRandom.current().nextDouble() < fillRatio) {
+            fill(o);
+        }
+    }
+
+    private void fill(CThostFtdcOrderField o) {
+        var t = new CThostFtdcTradeField();
+        t.setInstrumentID(o.getInstrumentID());
+        t.setExchangeID(o.getExchangeID());
+        t.setOrderRef(o.getOrderRef());
+        t.setOrderSysID(o.getOrderSysID());
+        t.setDirection(o.getDirection());
+        t.setTradeID(String.format("%12d", tradeIds.incrementAndGet()));
+        t.setPrice(o.getLimitPrice());
+        t.setVolume(o.getVolumeTotalOriginal());
+        t.setTradeDate(LocalDate.now(ExchangeClock.CHINA).format(DateTimeFormatter.BASIC_ISO_DATE));
+        t.setTradeTime(now());
+        t.setTradingDay(o.getTradingDay());
+        if (recentTrades.size() == REPLAYED_TRADES) {
+            recentTrades.poll();
+        }
+        recentTrades.add(t);
+        emit(() -> spi.OnRtnTrade(t));
+        var f = copyOf(o);
+        f.setOrderStatus('0');
+        f.setStatusMsg("全部成交");
+        orders.remove(o.getOrderSysID());
+        emit(() -> spi.OnRtnOrder(f));
+    }
+
+    private void cancel(String sysId) {
+        var o = orders.remove(sysId);
+        if (o == null) {
+            var a = new CThostFtdcOrderActionField();
+            a.setOrderSysID(sysId);
+            a.setExchangeID(EXCHANGE_ID);
+            var info = new CThostFtdcRspInfoField();
+            info.setErrorID(26);
+            info.setErrorMsg("CTP:报单已全成交或已撤销，不能再撤");
+            emit(() -> spi.OnErrRtnOrderAction(a, info));
+            return;
+        }
+        var c = copyOf(o);
+        c.setOrderStatus('5');
+        c.setStatusMsg("已撤单");
+        emit(() -> spi.OnRtnOrder(c));
+    }
+
+    private CThostFtdcOrderField copyOf(CThostFtdcOrderField o) {
+        var r = new CThostFtdcOrderField();
+        r.setInstrumentID(o.getInstrumentID());
+        r.setExchangeID(o.getExchangeID());
+        r.setOrderRef(o.getOrderRef());
+        r.setOrderSysID(o.getOrderSysID());
+        r.setDirection(o.getDirection());
+        r.setLimitPrice(o.getLimitPrice());
+        r.setVolumeTotalOriginal(o.getVolumeTotalOriginal());
+        r.setTradingDay(o.getTradingDay());
+        r.setFrontID(o.getFrontID());
+        r.setSessionID(o.getSessionID());
+        r.setUpdateTime(now());
+        return r;
+    }
+}
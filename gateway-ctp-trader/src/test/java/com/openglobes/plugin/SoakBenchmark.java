@@ -0,0 +1,447 @@
+/*
+ * Copyright (c) 2020-2021. Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.plugin;
+
+import com.openglobes.core.GatewayRuntimeException;
+import com.openglobes.core.ServiceRuntimeStatus;
+import com.openglobes.core.trader.*;
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import javax.management.NotificationEmitter;
+import javax.management.openmbean.CompositeData;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs the gateway through a simulated trading session and checks the
+ * results against latency and memory objectives.
+ * <p>
+ * Orders are inserted at a fixed rate against a {@link SimulatedTraderFront},
+ * a share of them cancelled later, with reconnects and trading day
+ * rollovers on a schedule. Run from the module with
+ * <pre>
+ * mvn -Psoak test -Dsoak.durationSeconds=14400 -Dsoak.ordersPerSecond=2000
+ * </pre>
+ * Settings and objectives are system properties, see the constants. The run
+ * fails if any objective is missed.
+ *
+ * @author Hongbao Chen
+ * @since 1.0
+ */
+public class SoakBenchmark {
+
+    private static final long SECOND = 1_000_000_000L;
+    private static final long MB = 1024L * 1024L;
+    private final double cancelRatio;
+    private final LatencyHistogram callbackLatency;
+    private final Map<Integer, LongAdder> errors;
+    private final List<String> errorSamples;
+    private final LatencyHistogram gcPauses;
+    private final List<Long> heapSamples;
+    private final LatencyHistogram insertLatency;
+    private final ArrayDeque<Long> cancelCandidates;
+    private final Map<Long, Request> live;
+    private final long durationSeconds;
+    private final double fillRatio;
+    private final AtomicLong orderIds;
+    private final int ordersPerSecond;
+    private final long reconnectSeconds;
+    private final LongAdder responses;
+    private final LongAdder trades;
+    private final long tradingDaySeconds;
+    private long maxMapEntries;
+    private long skipped;
+
+    SoakBenchmark() {
+        durationSeconds = Long.getLong("soak.durationSeconds", 300);
+        ordersPerSecond = Integer.getInteger("soak.ordersPerSecond", 500);
+        cancelRatio = Double.parseDouble(System.getProperty("soak.cancelRatio", "0.3"));
+        fillRatio = Double.parseDouble(System.getProperty("soak.fillRatio", "0.5"));
+        reconnectSeconds = Long.getLong("soak.reconnectSeconds", 60);
+        tradingDaySeconds = Long.getLong("soak.tradingDaySeconds", 150);
+        callbackLatency = new LatencyHistogram();
+        insertLatency = new LatencyHistogram();
+        gcPauses = new LatencyHistogram();
+        heapSamples = new ArrayList<>();
+        errors = new ConcurrentHashMap<>();
+        errorSamples = new LinkedList<>();
+        cancelCandidates = new ArrayDeque<>();
+        live = new ConcurrentHashMap<>();
+        orderIds = new AtomicLong(0);
+        responses = new LongAdder();
+        trades = new LongAdder();
+    }
+
+    public static void main(String[] args) throws IOException {
+        CtpNativeBootstrap.install();
+        var report = new SoakBenchmark().run();
+        System.out.println(report);
+        var file = System.getProperty("soak.report");
+        if (file != null) {
+            Files.writeString(Path.of(file), report.toString());
+        }
+        if (!report.passed()) {
+            throw new IllegalStateException("Soak run missed its objectives.");
+        }
+    }
+
+    private static long usedHeapAfterGc() {
+        System.gc();
+        var m = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        return m.getUsed();
+    }
+
+    /*
+     * Heap left by the last collection of each pool, read without forcing
+     * one.
+     */
+    private static long usedHeapAfterLastGc() {
+        long used = 0;
+        for (var pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            var u = pool.getType() == MemoryType.HEAP ? pool.getCollectionUsage() : null;
+            if (u != null) {
+                used += u.getUsed();
+            }
+        }
+        return used;
+    }
+
+    /*
+     * Least squares growth over samples a second apart, so the saw tooth
+     * between collections isn't taken for growth.
+     */
+    private static long growth(List<Long> samples) {
+        var n = samples.size();
+        if (n < 2) {
+            return 0;
+        }
+        var mx = (n - 1) / 2.0;
+        var my = samples.stream().mapToLong(Long::longValue).average().orElse(0);
+        double sxy = 0;
+        double sxx = 0;
+        for (int i = 0; i < n; ++i) {
+            sxy += (i - mx) * (samples.get(i) - my);
+            sxx += (i - mx) * (i - mx);
+        }
+        return (long) (sxy / sxx * (n - 1));
+    }
+
+    Report run() {
+        listenGc();
+        var front = new SimulatedTraderFront(LocalDate.now(ExchangeClock.CHINA), fillRatio);
+        var gate = new CtpTraderGateway();
+        gate.setApi(front);
+        gate.setHandler(new Handler(front));
+        front.open(gate.getSpi());
+        awaitConfirmed(gate);
+        var metrics = gate.getMetrics();
+        var heapBefore = usedHeapAfterGc();
+        var peakHeap = heapBefore;
+        var start = System.nanoTime();
+        var end = start + durationSeconds * SECOND;
+        var interval = SECOND / ordersPerSecond;
+        var next = start;
+        var nextSample = start + SECOND;
+        var nextReconnect = start + reconnectSeconds * SECOND;
+        var nextRollover = start + tradingDaySeconds * SECOND;
+        long now;
+        while ((now = System.nanoTime()) < end) {
+            if (now >= nextRollover) {
+                front.rollover();
+                /*
+                 * Day orders expire at the end of the trading day.
+                 */
+                live.clear();
+                cancelCandidates.clear();
+                nextRollover += tradingDaySeconds * SECOND;
+                nextReconnect = now + reconnectSeconds * SECOND;
+            } else if (now >= nextReconnect) {
+                front.reconnect();
+                nextReconnect += reconnectSeconds * SECOND;
+            }
+            if (now >= nextSample) {
+                maxMapEntries = Math.max(maxMapEntries, mapEntries(metrics));
+                peakHeap = Math.max(peakHeap, ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed());
+                heapSamples.add(usedHeapAfterLastGc());
+                nextSample += SECOND;
+            }
+            if (now < next) {
+                LockSupport.parkNanos(next - now);
+                continue;
+            }
+            next += interval;
+            if (metrics.getStatus() != GatewayStatus.CONFIRMED) {
+                ++skipped;
+                continue;
+            }
+            var day = gate.getGatewayInfo().getTradingDay();
+            var r = ThreadLocalRandom.current().nextDouble() < cancelRatio ? cancelRequest(day) : null;
+            if (r == null) {
+                r = insertRequest(day);
+            }
+            var t0 = System.nanoTime();
+            gate.insert(r);
+            insertLatency.record(System.nanoTime() - t0);
+        }
+        var elapsed = System.nanoTime() - start;
+        maxMapEntries = Math.max(maxMapEntries, mapEntries(metrics));
+        var heapAfter = usedHeapAfterGc();
+        var snapshot = metrics.snapshot();
+        gate.stop();
+        return new Report(elapsed, heapBefore, heapAfter, peakHeap, snapshot);
+    }
+
+    private long mapEntries(GatewayMetrics m) {
+        return Math.max(Math.max(m.getRequestMapSize(), m.getOrderRefMapSize()),
+                        Math.max(m.getOrderSysIdMapSize(), m.getSysIdOrderIdMapSize()));
+    }
+
+    private void awaitConfirmed(CtpTraderGateway gate) {
+        var deadline = System.nanoTime() + 10 * SECOND;
+        while (gate.getMetrics().getStatus() != GatewayStatus.CONFIRMED) {
+            if (System.nanoTime() > deadline) {
+                throw new IllegalStateException("Simulated front didn't confirm.");
+            }
+            LockSupport.parkNanos(1_000_000L);
+        }
+    }
+
+    private Request insertRequest(LocalDate tradingDay) {
+        var random = ThreadLocalRandom.current();
+        var r = new Request();
+        r.setAction(ActionType.NEW);
+        r.setOrderId(orderIds.incrementAndGet());
+        r.setRequestId(r.getOrderId());
+        r.setTraderId(1);
+        r.setTradingDay(tradingDay);
+        r.setInstrumentId(SimulatedTraderFront.INSTRUMENT_ID);
+        r.setExchangeId(SimulatedTraderFront.EXCHANGE_ID);
+        r.setDirection(random.nextBoolean() ? Direction.BUY : Direction.SELL);
+        r.setOffset(Offset.OPEN);
+        r.setPrice(5000.0 + random.nextInt(-20, 21) * SimulatedTraderFront.PRICE_TICK);
+        r.setQuantity((long) random.nextInt(1, 6));
+        cancelCandidates.add(r.getOrderId());
+        return r;
+    }
+
+    private Request cancelRequest(LocalDate tradingDay) {
+        /*
+         * Cancel the oldest order still queued in the trading day.
+         */
+        Long id;
+        while ((id = cancelCandidates.poll()) != null) {
+            var q = live.get(id);
+            if (q != null && tradingDay.equals(q.getTradingDay())) {
+                var r = new Request();
+                r.setAction(ActionType.DELETE);
+                r.setOrderId(q.getOrderId());
+                r.setRequestId(orderIds.incrementAndGet());
+                r.setTraderId(q.getTraderId());
+                r.setTradingDay(q.getTradingDay());
+                r.setInstrumentId(q.getInstrumentId());
+                r.setExchangeId(q.getExchangeId());
+                return r;
+            }
+        }
+        return null;
+    }
+
+    private void listenGc() {
+        for (var gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (!(gc instanceof NotificationEmitter)) {
+                continue;
+            }
+            ((NotificationEmitter) gc).addNotificationListener((n, handback) -> {
+                if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(n.getType())) {
+                    return;
+                }
+                var info = GarbageCollectionNotificationInfo.from((CompositeData) n.getUserData());
+                /*
+                 * Concurrent cycles don't stop the application, and the
+                 * run's own System.gc() calls aren't the gateway's pauses.
+                 */
+                if (info.getGcName().contains("Concurrent") || info.getGcAction().contains("concurrent")
+                    || "System.gc()".equals(info.getGcCause())) {
+                    return;
+                }
+                gcPauses.record(info.getGcInfo().getDuration() * 1_000_000L);
+            }, null, null);
+        }
+    }
+
+    private class Handler implements ITraderGatewayHandler {
+
+        private final SimulatedTraderFront front;
+
+        Handler(SimulatedTraderFront front) {
+            this.front = front;
+        }
+
+        @Override
+        public void onTrade(Trade trade) {
+            callbackLatency.record(System.nanoTime() - front.getEmitNanos());
+            trades.increment();
+        }
+
+        @Override
+        public void onResponse(Response response) {
+            callbackLatency.record(System.nanoTime() - front.getEmitNanos());
+            responses.increment();
+            var s = response.getStatus();
+            if (s == OrderStatus.ACCEPTED) {
+                live.put(response.getOrderId(), request(response));
+            } else if (s == null || s == OrderStatus.ALL_TRADED || s == OrderStatus.DELETED
+                       || s == OrderStatus.REJECTED) {
+                live.remove(response.getOrderId());
+            }
+        }
+
+        private Request request(Response response) {
+            var r = new Request();
+            r.setOrderId(response.getOrderId());
+            r.setTraderId(response.getTraderId());
+            r.setTradingDay(response.getTradingDay());
+            r.setInstrumentId(response.getInstrumentId());
+            r.setExchangeId(SimulatedTraderFront.EXCHANGE_ID);
+            return r;
+        }
+
+        @Override
+        public void onError(GatewayRuntimeException error) {
+            var code = error.getCode() == null ? -1 : error.getCode();
+            errors.computeIfAbsent(code, k -> new LongAdder()).increment();
+            synchronized (errorSamples) {
+                if (errorSamples.size() < 16) {
+                    errorSamples.add(code + ": " + error.getMessage());
+                }
+            }
+        }
+
+        @Override
+        public void onStatusChange(ServiceRuntimeStatus status) {
+        }
+    }
+
+    /**
+     * Results of a soak run, with the objectives they are checked against.
+     */
+    class Report {
+
+        private final StringBuilder text;
+        private boolean passed;
+
+        Report(long elapsedNanos, long heapBefore, long heapAfter, long peakHeap, GatewayMetricsSnapshot m) {
+            passed = true;
+            text = new StringBuilder();
+            var sendFailures = 0L;
+            var otherErrors = 0L;
+            var errorCounts = new TreeMap<Integer, Long>();
+            for (var e : errors.entrySet()) {
+                var n = e.getValue().sum();
+                errorCounts.put(e.getKey(), n);
+                /*
+                 * API refusals while the front is down or busy are expected.
+                 */
+                if (e.getKey() >= -3 && e.getKey() <= -1) {
+                    sendFailures += n;
+                } else {
+                    otherErrors += n;
+                }
+            }
+            var ordersPerDay = (long) ordersPerSecond * Math.min(durationSeconds, tradingDaySeconds);
+            line("Soak run of %d s at %d orders/s, cancel ratio %.2f, fill ratio %.2f",
+                 elapsedNanos / SECOND, ordersPerSecond, cancelRatio, fillRatio);
+            line("  reconnect every %d s, trading day every %d s", reconnectSeconds, tradingDaySeconds);
+            line("  requests skipped while not confirmed: %d", skipped);
+            line("  responses: %d, trades: %d", responses.sum(), trades.sum());
+            line("  errors: %s, send failures: %d", errorCounts, sendFailures);
+            synchronized (errorSamples) {
+                errorSamples.forEach(s -> line("    %s", s));
+            }
+            line("  insert latency (ns): %s", insertLatency);
+            line("  callback latency (ns): %s", callbackLatency);
+            line("  GC pauses (ns): %s", gcPauses);
+            var heapTrend = growth(heapSamples);
+            line("  heap after GC: %d MB before, %d MB after, peak %d MB, trend %+d MB over %d samples",
+                 heapBefore / MB, heapAfter / MB, peakHeap / MB, heapTrend / MB, heapSamples.size());
+            line("  gateway: %s", m);
+            line("Objectives:");
+            check("insert p99", insertLatency.getPercentile(99) / 1000, "us",
+                  Long.getLong("soak.slo.insertP99Micros", 1_000));
+            check("callback p99", callbackLatency.getPercentile(99) / 1000, "us",
+                  Long.getLong("soak.slo.callbackP99Micros", 1_000));
+            check("callback max", callbackLatency.getMax() / 1_000_000, "ms",
+                  Long.getLong("soak.slo.callbackMaxMillis", 50));
+            check("GC pause max", gcPauses.getMax() / 1_000_000, "ms",
+                  Long.getLong("soak.slo.gcMaxPauseMillis", 100));
+            /*
+             * Either measure, end points or the trend of the run, catches a
+             * leak.
+             */
+            check("heap growth", Math.max(0, Math.max(heapAfter - heapBefore, heapTrend)) / MB, "MB",
+                  Long.getLong("soak.slo.heapGrowthMb", 64));
+            /*
+             * Correlation maps hold at most the orders of the current and the
+             * previous trading day.
+             */
+            check("correlation map entries", maxMapEntries, "",
+                  Long.getLong("soak.slo.maxMapEntries", 2 * ordersPerDay));
+            check("errors", otherErrors, "", Long.getLong("soak.slo.maxErrors", 0));
+            /*
+             * Allow a second of refused orders for each reconnect.
+             */
+            check("send failures", sendFailures, "",
+                  Long.getLong("soak.slo.maxSendFailures",
+                               ordersPerSecond * (durationSeconds / reconnectSeconds + 1)));
+            line(passed ? "PASSED" : "FAILED");
+        }
+
+        boolean passed() {
+            return passed;
+        }
+
+        private void line(String format, Object... args) {
+            text.append(String.format(format, args)).append(System.lineSeparator());
+        }
+
+        private void check(String name, long value, String unit, long limit) {
+            var ok = value <= limit;
+            passed &= ok;
+            line("  %-24s %10d %-2s <= %10d %-2s %s", name, value, unit, limit, unit, ok ? "pass" : "FAIL");
+        }
+
+        @Override
+        public String toString() {
+            return text.toString();
+        }
+    }
+}
@@ -0,0 +1,366 @@
+/*
+ * Copyright (c) 2020-2021. Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.plugin;
+
+import com.openglobes.core.GatewayRuntimeException;
+import com.openglobes.core.ServiceRuntimeStatus;
+import com.openglobes.core.trader.*;
+import org.ctp4j.*;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.LinkedList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Hot-standby session")
+class StandbySessionTest {
+
+    @BeforeEach
+    void setUp() {
+        try {
+            CtpNativeBootstrap.install();
+        } catch (IOException e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        }
+    }
+
+    @Test
+    @DisplayName("Cancel goes through the standby after the primary is lost")
+    public void switchover() {
+        var primaryApi = new CapturingApi();
+        var standbyApi = new CapturingApi();
+        var trades = new LinkedList<Trade>();
+        var errors = new LinkedList<GatewayRuntimeException>();
+        var gate = new CtpTraderGateway();
+        gate.setApi(primaryApi);
+        gate.setStandbyApi(standbyApi);
+        gate.setHandler(new ITraderGatewayHandler() {
+            @Override
+            public void onTrade(Trade trade) {
+                trades.add(trade);
+            }
+
+            @Override
+            public void onResponse(Response response) {
+            }
+
+            @Override
+            public void onError(GatewayRuntimeException e) {
+                errors.add(e);
+            }
+
+            @Override
+            public void onStatusChange(ServiceRuntimeStatus status) {
+            }
+        });
+        var primary = gate.getSpi();
+        var standby = gate.getStandbySpi();
+        logIn(primary, 1, 100);
+        logIn(standby, 2, 200);
+        assertSame(primary, gate.getActiveSpi());
+
+        gate.insert(request(ActionType.NEW));
+        assertEquals(1, primaryApi.inserts.size());
+        var ref = primaryApi.inserts.get(0).getOrderRef();
+
+        primary.OnFrontDisconnected(0x1001);
+        assertSame(standby, gate.getActiveSpi());
+        assertEquals(1, gate.getMetrics().getSwitchoverCount());
+
+        gate.insert(request(ActionType.DELETE));
+        assertTrue(primaryApi.actions.isEmpty());
+        assertEquals(1, standbyApi.actions.size());
+        var action = standbyApi.actions.get(0);
+        assertEquals(1, action.getFrontID());
+        assertEquals(100, action.getSessionID());
+        assertEquals(ref, action.getOrderRef());
+
+        /*
+         * Standby sees the order of the primary session, and both sessions
+         * receive its trade.
+         */
+        standby.OnRtnOrder(order(ref));
+        standby.OnRtnTrade(trade(ref));
+        primary.OnRtnTrade(trade(ref));
+        assertEquals(1, trades.size());
+        assertEquals(1, gate.getMetrics().getDuplicateTradeCount());
+        assertTrue(errors.isEmpty(), errors.toString());
+    }
+
+    @Test
+    @DisplayName("Switchover time counts from the loss of the primary")
+    public void switchoverTime() throws InterruptedException {
+        var statuses = new LinkedList<String>();
+        var gate = new CtpTraderGateway();
+        gate.setApi(new CapturingApi());
+        gate.setStandbyApi(new CapturingApi());
+        gate.setHandler(new ITraderGatewayHandler() {
+            @Override
+            public void onTrade(Trade trade) {
+            }
+
+            @Override
+            public void onResponse(Response response) {
+            }
+
+            @Override
+            public void onError(GatewayRuntimeException e) {
+            }
+
+            @Override
+            public void onStatusChange(ServiceRuntimeStatus status) {
+                statuses.add(status.getMessage());
+            }
+        });
+        var primary = gate.getSpi();
+        var standby = gate.getStandbySpi();
+        logIn(primary, 1, 100);
+        primary.OnFrontDisconnected(0x1001);
+        assertSame(primary, gate.getActiveSpi());
+
+        Thread.sleep(5);
+        logIn(standby, 2, 200);
+        assertSame(standby, gate.getActiveSpi());
+        assertEquals(1, gate.getMetrics().getSwitchoverCount());
+        assertTrue(gate.getMetrics().getLastSwitchoverNanos() >= 5_000_000L,
+                   Long.toString(gate.getMetrics().getLastSwitchoverNanos()));
+        assertTrue(statuses.getLast().startsWith("Switched to the standby session"), statuses.toString());
+    }
+
+    @Test
+    @DisplayName("Both sessions deliver an order return and an error once")
+    public void deduplicate() {
+        var primaryApi = new CapturingApi();
+        var responses = new LinkedList<Response>();
+        var errors = new LinkedList<GatewayRuntimeException>();
+        var gate = gateway(primaryApi, responses, new LinkedList<>(), errors);
+        var primary = gate.getSpi();
+        var standby = gate.getStandbySpi();
+        logIn(primary, 1, 100);
+        logIn(standby, 2, 200);
+
+        gate.insert(request(ActionType.NEW));
+        assertEquals(1, gate.getMetrics().getLiveRequestCount());
+        var ref = primaryApi.inserts.get(0).getOrderRef();
+        var accepted = order(ref);
+        var cancelled = order(ref);
+        cancelled.setOrderStatus('5');
+        /*
+         * Standby gets the returns first while the primary is slow.
+         */
+        standby.OnRtnOrder(accepted);
+        standby.OnRtnOrder(cancelled);
+        primary.OnRtnOrder(accepted);
+        primary.OnRtnOrder(cancelled);
+        assertEquals(2, responses.size());
+        assertEquals(0, gate.getMetrics().getLiveRequestCount());
+        assertEquals(1, gate.getMetrics().getRequestMapSize());
+
+        standby.OnErrRtnOrderAction(orderAction(ref), error());
+        primary.OnErrRtnOrderAction(orderAction(ref), error());
+        assertEquals(3, responses.size());
+        assertEquals(OrderStatus.REJECTED, responses.getLast().getStatus());
+        assertTrue(errors.isEmpty(), errors.toString());
+    }
+
+    @Test
+    @DisplayName("Trades resumed after a restart are duplicates")
+    public void restart(@TempDir Path dir) {
+        var journal = dir.resolve("trades");
+        var primaryApi = new CapturingApi();
+        var trades = new LinkedList<Trade>();
+        var errors = new LinkedList<GatewayRuntimeException>();
+        var gate = gateway(primaryApi, new LinkedList<>(), trades, errors);
+        var deduplicator = new TradeDeduplicator(1024, journal);
+        gate.setTradeDeduplicator(deduplicator);
+        logIn(gate.getSpi(), 1, 100);
+        logIn(gate.getStandbySpi(), 2, 200);
+        gate.insert(request(ActionType.NEW));
+        var ref = primaryApi.inserts.get(0).getOrderRef();
+        gate.getSpi().OnRtnOrder(order(ref));
+        gate.getSpi().OnRtnTrade(trade(ref));
+        assertEquals(1, trades.size());
+        deduplicator.close();
+
+        /*
+         * Restarted gateway knows the trade from the journal but not its
+         * order, and both sessions get it from the resumed private topic.
+         */
+        var restarted = gateway(new CapturingApi(), new LinkedList<>(), trades, errors);
+        var reloaded = new TradeDeduplicator(1024, journal);
+        restarted.setTradeDeduplicator(reloaded);
+        logIn(restarted.getSpi(), 3, 300);
+        logIn(restarted.getStandbySpi(), 4, 400);
+        restarted.getSpi().OnRtnTrade(trade(ref));
+        restarted.getStandbySpi().OnRtnTrade(trade(ref));
+        assertEquals(1, trades.size());
+        assertEquals(2, restarted.getMetrics().getDuplicateTradeCount());
+        assertTrue(errors.isEmpty(), errors.toString());
+        reloaded.close();
+    }
+
+    private CtpTraderGateway gateway(CapturingApi api,
+                                     List<Response> responses,
+                                     List<Trade> trades,
+                                     List<GatewayRuntimeException> errors) {
+        var gate = new CtpTraderGateway();
+        gate.setApi(api);
+        gate.setStandbyApi(new CapturingApi());
+        gate.setHandler(new ITraderGatewayHandler() {
+            @Override
+            public void onTrade(Trade trade) {
+                trades.add(trade);
+            }
+
+            @Override
+            public void onResponse(Response response) {
+                responses.add(response);
+            }
+
+            @Override
+            public void onError(GatewayRuntimeException e) {
+                errors.add(e);
+            }
+
+            @Override
+            public void onStatusChange(ServiceRuntimeStatus status) {
+            }
+        });
+        return gate;
+    }
+
+    private void logIn(CtpTraderSpi spi, int frontId, int sessionId) {
+        spi.OnFrontConnected();
+        spi.OnRspAuthenticate(new CThostFtdcRspAuthenticateField(), info(), 1, true);
+        spi.OnRspUserLogin(login(frontId, sessionId), info(), 2, true);
+        spi.OnRspSettlementInfoConfirm(new CThostFtdcSettlementInfoConfirmField(), info(), 3, true);
+    }
+
+    private CThostFtdcRspInfoField info() {
+        var r = new CThostFtdcRspInfoField();
+        r.setErrorID(0);
+        r.setErrorMsg("");
+        return r;
+    }
+
+    private CThostFtdcRspInfoField error() {
+        var r = new CThostFtdcRspInfoField();
+        r.setErrorID(26);
+        r.setErrorMsg("Order is finished.");
+        return r;
+    }
+
+    private CThostFtdcRspUserLoginField login(int frontId, int sessionId) {
+        var r = new CThostFtdcRspUserLoginField();
+        r.setTradingDay("20210810");
+        r.setLoginTime("21:00:01");
+        r.setFrontID(frontId);
+        r.setSessionID(sessionId);
+        r.setMaxOrderRef("10");
+        r.setSHFETime("21:00:01");
+        r.setDCETime("21:00:01");
+        r.setCZCETime("21:00:01");
+        r.setFFEXTime("21:00:01");
+        r.setINETime("21:00:01");
+        return r;
+    }
+
+    private Request request(int action) {
+        var r = new Request();
+        r.setAction(action);
+        r.setDirection(Direction.BUY);
+        r.setOffset(Offset.OPEN);
+        r.setTraderId(1);
+        r.setInstrumentId("c2109");
+        r.setExchangeId("DCE");
+        r.setOrderId(100L);
+        r.setRequestId(action == ActionType.NEW ? 100L : 101L);
+        r.setPrice(2700D);
+        r.setQuantity(1L);
+        return r;
+    }
+
+    private CThostFtdcOrderField order(String ref) {
+        var r = new CThostFtdcOrderField();
+        r.setFrontID(1);
+        r.setSessionID(100);
+        r.setOrderRef(ref);
+        r.setOrderSysID("  123456");
+        r.setExchangeID("DCE");
+        r.setInstrumentID("c2109");
+        r.setDirection('0');
+        r.setCombOffsetFlag("0");
+        r.setLimitPrice(2700D);
+        r.setVolumeTotalOriginal(1);
+        r.setOrderStatus('3');
+        r.setUpdateTime("21:00:02");
+        r.setTradingDay("20210810");
+        r.setStatusMsg("未成交");
+        return r;
+    }
+
+    private CThostFtdcOrderActionField orderAction(String ref) {
+        var r = new CThostFtdcOrderActionField();
+        r.setFrontID(1);
+        r.setSessionID(100);
+        r.setOrderRef(ref);
+        r.setOrderSysID("  123456");
+        r.setExchangeID("DCE");
+        r.setInstrumentID("c2109");
+        return r;
+    }
+
+    private CThostFtdcTradeField trade(String ref) {
+        var r = new CThostFtdcTradeField();
+        r.setOrderRef(ref);
+        r.setOrderSysID("  123456");
+        r.setExchangeID("DCE");
+        r.setInstrumentID("c2109");
+        r.setTradeID("  654321");
+        r.setDirection('0');
+        r.setOffsetFlag('0');
+        r.setPrice(2700D);
+        r.setVolume(1);
+        r.setTradeDate("20210809");
+        r.setTradeTime("21:00:02");
+        r.setTradingDay("20210810");
+        return r;
+    }
+
+    private static class CapturingApi extends StubTraderApi {
+
+        final List<CThostFtdcInputOrderField> inserts = new LinkedList<>();
+        final List<CThostFtdcInputOrderActionField> actions = new LinkedList<>();
+
+        @Override
+        public int ReqOrderInsert(CThostFtdcInputOrderField req, int requestId) {
+            inserts.add(req);
+            return 0;
+        }
+
+        @Override
+        public int ReqOrderAction(CThostFtdcInputOrderActionField req, int requestId) {
+            actions.add(req);
+            return 0;
+        }
+    }
+}
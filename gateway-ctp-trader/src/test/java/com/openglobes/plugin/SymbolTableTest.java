@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2020-2021. Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.plugin;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Symbol table")
+class SymbolTableTest {
+
+    @Test
+    @DisplayName("Interns symbols across array growth")
+    public void grow() {
+        var table = new SymbolTable(16);
+        for (int i = 0; i < 100; ++i) {
+            assertEquals(i, table.intern("c" + (2100 + i)));
+        }
+        assertEquals(100, table.size());
+        for (int i = 0; i < 100; ++i) {
+            var symbol = "c" + (2100 + i);
+            assertEquals(i, table.intern(symbol));
+            assertEquals(i, table.handleOf(symbol));
+            assertEquals(symbol, table.symbolOf(i));
+        }
+        assertEquals(100, table.size());
+        assertEquals(SymbolTable.NO_HANDLE, table.handleOf("m2109"));
+        assertEquals(SymbolTable.NO_HANDLE, table.intern(null));
+        assertThrows(IllegalArgumentException.class, () -> table.symbolOf(100));
+    }
+
+    @Test
+    @DisplayName("Canonical symbol is the table's instance")
+    public void canonical() {
+        var table = new SymbolTable(16);
+        for (int i = 0; i < 15; ++i) {
+            table.intern("c" + (2100 + i));
+        }
+        /*
+         * The 17th symbol grows the array.
+         */
+        var first = new String("m2109");
+        assertSame(first, table.canonical(first));
+        var second = new String("m2109");
+        assertSame(first, table.canonical(second));
+        assertSame(first, table.canonical(new String("m2109")));
+        assertSame(table.symbolOf(15), table.canonical("m2109"));
+        assertSame(table.canonical("y2109"), table.symbolOf(16));
+        assertNull(table.canonical(null));
+    }
+
+    @Test
+    @DisplayName("Concurrent lookups and adds agree on handles")
+    public void concurrent() throws Exception {
+        var table = new SymbolTable(16);
+        var threads = 4;
+        var count = 2000;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            var futures = new ArrayList<Future<int[]>>();
+            for (int t = 0; t < threads; ++t) {
+                futures.add(pool.submit(() -> {
+                    var handles = new int[count];
+                    for (int i = 0; i < count; ++i) {
+                        var symbol = "s" + i;
+                        handles[i] = table.intern(symbol);
+                        assertEquals(handles[i], table.handleOf(symbol));
+                        assertEquals(symbol, table.symbolOf(handles[i]));
+                        assertEquals(symbol, table.canonical(symbol));
+                    }
+                    return handles;
+                }));
+            }
+            var first = futures.get(0).get(30, TimeUnit.SECONDS);
+            for (var f : futures) {
+                assertArrayEquals(first, f.get(30, TimeUnit.SECONDS));
+            }
+            assertEquals(count, table.size());
+            var seen = new boolean[count];
+            for (var h : first) {
+                assertFalse(seen[h]);
+                seen[h] = true;
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
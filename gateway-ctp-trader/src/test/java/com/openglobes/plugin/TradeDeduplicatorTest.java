@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2020-2021. Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.openglobes.plugin;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Trade deduplicator")
+class TradeDeduplicatorTest {
+
+    private static final LocalDate DAY = LocalDate.of(2021, 8, 10);
+
+    @Test
+    @DisplayName("Drops trades seen in the trading day")
+    public void duplicates() {
+        var d = new TradeDeduplicator(16);
+        d.setTradingDay(DAY);
+        assertTrue(d.add("SHFE", "      123456", '0'));
+        assertFalse(d.add("SHFE", "      123456", '0'));
+        assertTrue(d.add("SHFE", "      123456", '1'));
+        assertTrue(d.add("DCE", "      123456", '0'));
+        assertTrue(d.add("CZCE", "T-1", '0'));
+        assertFalse(d.add("CZCE", "T-1", '0'));
+        for (int i = 0; i < 10_000; ++i) {
+            assertTrue(d.add("INE", String.valueOf(i), '0'));
+        }
+        assertEquals(10_004, d.size());
+        d.setTradingDay(DAY.plusDays(1));
+        assertEquals(0, d.size());
+        assertTrue(d.add("SHFE", "      123456", '0'));
+    }
+
+    @Test
+    @DisplayName("Journal keeps trades of the same trading day")
+    public void journal(@TempDir Path dir) throws IOException {
+        var file = dir.resolve("trades.dedup");
+        var d = new TradeDeduplicator(16, file);
+        d.setTradingDay(DAY);
+        assertTrue(d.add("SHFE", "1", '0'));
+        assertTrue(d.add("CZCE", "T-1", '1'));
+        d.close();
+        /*
+         * Cut last record like a crash in the middle of a write.
+         */
+        Files.write(file, new byte[]{0, 4}, StandardOpenOption.APPEND);
+        d = new TradeDeduplicator(16, file);
+        d.setTradingDay(DAY);
+        assertNull(d.getError());
+        assertFalse(d.add("SHFE", "1", '0'));
+        assertFalse(d.add("CZCE", "T-1", '1'));
+        assertTrue(d.add("DCE", "2", '0'));
+        d.close();
+        d = new TradeDeduplicator(16, file);
+        assertFalse(d.add("DCE", "2", '0'));
+        d.setTradingDay(DAY.plusDays(1));
+        assertTrue(d.add("DCE", "2", '0'));
+        d.close();
+    }
+}